@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.MongoClientSettings;
+import net.kodehawa.mantarobot.db.codecs.EntityCodecProvider;
+import net.kodehawa.mantarobot.db.codecs.MapCodecProvider;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.Conventions;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long decoding an entity takes with the hand-written codecs (see EntityCodec), compared to the POJO codecs they replace.
+ * Decodes from raw bytes, same as the driver does with what it reads.
+ * <p>
+ * Run with {@code ./gradlew jmh}. Players and users read the config when created, so it needs a config.json
+ * in the working directory, same as the bot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityCodecBenchmark {
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    // Same as MantaroData's.
+    private static final CodecProvider POJO_CODECS = PojoCodecProvider.builder()
+            .automatic(true)
+            .register(new MapCodecProvider())
+            .conventions(List.of(Conventions.CLASS_AND_PROPERTY_CONVENTION, Conventions.ANNOTATION_CONVENTION, Conventions.OBJECT_ID_GENERATORS, Conventions.SET_PRIVATE_FIELDS_CONVENTION))
+            .build();
+    private static final CodecRegistry CODECS = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(new EntityCodecProvider(POJO_CODECS), POJO_CODECS)
+    );
+    private static final CodecRegistry POJO_ONLY = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(POJO_CODECS)
+    );
+
+    @Param({"player", "user", "stats"})
+    public String entity;
+
+    private Codec<?> entityCodec;
+    private Codec<?> pojoCodec;
+    private RawBsonDocument document;
+
+    @Setup
+    public void setup() {
+        Class<?> clazz = switch (entity) {
+            case "player" -> Player.class;
+            case "user" -> MongoUser.class;
+            default -> PlayerStats.class;
+        };
+
+        entityCodec = CODECS.get(clazz);
+        pojoCodec = POJO_ONLY.get(clazz);
+        document = RawBsonDocument.parse(switch (entity) {
+            case "player" -> """
+                    {"_id": "1", "level": 30, "reputation": 4, "oldMoney": 100, "newMoney": {"$numberLong": "200000"},
+                     "showBadge": true, "waifuCachedValue": 5, "timesMopped": 6, "petSlots": 2, "lockedUntil": 0,
+                     "inventory": {"diamond": 3, "pick": 1, "rod": 1, "fish": 20, "crate": 2, "sparkle": 1, "ring": 2},
+                     "badges": ["COMMUNITY_ADMIN", "TRANSLATOR", "BUG_HUNTER"]}
+                    """;
+            case "user" -> """
+                    {"_id": "1", "premiumUntil": {"$numberLong": "1700000000000"}, "birthday": "01-02-2000", "receivedFirstKey": true,
+                     "remindedTimes": 2, "timezone": "UTC", "lang": "es_CL", "dustLevel": 40, "keysClaimed": {"2": "key"},
+                     "marriageId": "m1", "waifus": {"3": {"$numberLong": "1500"}, "4": {"$numberLong": "2500"}}, "waifuSlots": 5,
+                     "timesClaimed": 1, "reminders": ["r1", "r2"], "privateTag": true, "autoEquip": true, "actionsDisabled": false}
+                    """;
+            default -> """
+                    {"_id": "1", "gambleWins": 3, "slotsWins": {"$numberLong": "4"}, "gambleWinAmount": 500, "slotsWinAmount": 600,
+                     "craftedItems": 7, "repairedItems": 8, "salvagedItems": 9, "toolsBroken": 10, "looted": 11, "mined": 12,
+                     "gambleLose": 13, "slotsLose": 14}
+                    """;
+        });
+    }
+
+    @Benchmark
+    public Object entityCodec() {
+        return entityCodec.decode(document.asBsonReader(), DECODER_CONTEXT);
+    }
+
+    @Benchmark
+    public Object pojoCodec() {
+        return pojoCodec.decode(document.asBsonReader(), DECODER_CONTEXT);
+    }
+}
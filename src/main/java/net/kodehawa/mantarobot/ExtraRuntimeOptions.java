@@ -28,6 +28,8 @@ public class ExtraRuntimeOptions {
     public static final boolean VERBOSE = getValue("mantaro.verbose") != null;
     public static final boolean PRINT_VARIABLES = getValue("mantaro.print_variables") != null;
     public static final boolean VERBOSE_SHARD_LOGS = getValue("mantaro.verbose_shard_logs") != null;
+    // Decode entities with the automatic POJO codecs instead of the hand-written ones.
+    public static final boolean POJO_CODECS = getValue("mantaro.pojo_codecs") != null;
 
     public static final OptionalInt FROM_SHARD = maybeInt("mantaro.from-shard");
     public static final OptionalInt TO_SHARD = maybeInt("mantaro.to-shard");
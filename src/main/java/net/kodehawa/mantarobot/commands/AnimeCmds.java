@@ -38,7 +38,6 @@ import net.kodehawa.mantarobot.core.command.slash.SlashContext;
 import net.kodehawa.mantarobot.core.command.meta.Module;
 import net.kodehawa.mantarobot.core.command.helpers.CommandCategory;
 import net.kodehawa.mantarobot.core.command.i18n.I18nContext;
-import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.utils.APIUtils;
 import net.kodehawa.mantarobot.utils.StringUtils;
 import net.kodehawa.mantarobot.utils.Utils;
@@ -216,7 +215,7 @@ public class AnimeCmds {
                 return;
             }
 
-            final var player = MantaroData.db().getPlayer(ctx.getAuthor());
+            final var player = ctx.getPlayer();
             final var badge = APIUtils.getHushBadge(title, Utils.HushType.ANIME);
             if (badge != null && player.addBadgeIfAbsent(badge)) {
                 player.updateAllChanged();
@@ -271,7 +270,7 @@ public class AnimeCmds {
             charDescription = StringUtils.limit(characterDescription, 1016);
         }
 
-        var player = MantaroData.db().getPlayer(ctx.getAuthor());
+        var player = ctx.getPlayer();
         var badge = APIUtils.getHushBadge(charName.replace(japName, "").trim(), Utils.HushType.CHARACTER);
 
         if (badge != null && player.addBadgeIfAbsent(badge)) {
@@ -151,13 +151,12 @@ public class BirthdayCmd {
             protected void process(SlashContext ctx) {
                 var dbGuild = ctx.getDBGuild();
                 var author = ctx.getAuthor();
-                if (dbGuild.getAllowedBirthdays().contains(author.getId())) {
+                if (dbGuild.isBirthdayAllowed(author.getId())) {
                     ctx.replyEphemeral("commands.birthday.already_allowed", EmoteReference.ERROR);
                     return;
                 }
 
                 dbGuild.addAllowedBirthdays(author.getId());
-                dbGuild.updateAllChanged();
 
                 var cached = guildBirthdayCache.getIfPresent(ctx.getGuild().getIdLong());
                 var cachedBirthday = ctx.getBot().getBirthdayCacher().getCachedBirthdays().get(author.getIdLong());
@@ -177,13 +176,12 @@ public class BirthdayCmd {
             protected void process(SlashContext ctx) {
                 var dbGuild = ctx.getDBGuild();
                 var author = ctx.getAuthor();
-                if (!dbGuild.getAllowedBirthdays().contains(author.getId())) {
+                if (!dbGuild.isBirthdayAllowed(author.getId())) {
                     ctx.replyEphemeral("commands.birthday.already_denied", EmoteReference.CORRECT);
                     return;
                 }
 
                 dbGuild.removeAllowedBirthday(author.getId());
-                dbGuild.updateAllChanged();
 
                 var cached = guildBirthdayCache.getIfPresent(ctx.getGuild().getIdLong());
                 if (cached != null) {
@@ -226,7 +224,7 @@ public class BirthdayCmd {
 
                         var guild = ctx.getGuild();
                         var data = ctx.getDBGuild();
-                        var ids = data.getAllowedBirthdays().stream().map(Long::parseUnsignedLong).collect(Collectors.toList());
+                        var ids = data.getAllowedBirthdayIds().stream().map(Long::parseUnsignedLong).collect(Collectors.toList());
 
                         if (ids.isEmpty()) {
                             ctx.reply("commands.birthday.no_guild_birthdays", EmoteReference.ERROR);
@@ -288,7 +286,7 @@ public class BirthdayCmd {
                         }
 
                         var data = ctx.getDBGuild();
-                        var ids = data.getAllowedBirthdays().stream().map(Long::parseUnsignedLong).collect(Collectors.toList());
+                        var ids = data.getAllowedBirthdayIds().stream().map(Long::parseUnsignedLong).collect(Collectors.toList());
                         var guildCurrentBirthdays = getBirthdayMap(ctx.getGuild().getIdLong(), ids);
 
                         if (ids.isEmpty()) {
@@ -57,7 +57,7 @@ import net.kodehawa.mantarobot.core.listeners.operations.core.ModalOperation;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.CustomCommand;
-import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.DiscordUtils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -109,7 +109,7 @@ public class CustomCmds {
         return true;
     };
 
-    public static void handle(String prefix, String cmdName, TextContext ctx, MongoGuild guildData, String args) {
+    public static void handle(String prefix, String cmdName, TextContext ctx, GuildDispatchView guildData, String args) {
         CustomCommand customCommand = getCustomCommand(ctx.getGuild().getId(), cmdName);
         if (customCommand == null) {
             return;
@@ -126,7 +126,7 @@ public class CustomCmds {
         }
 
         Map<String, List<String>> roleSpecificDisabledCommands = guildData.getRoleSpecificDisabledCommands();
-        if (ctx.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmdName)) && !CommandPermission.ADMIN.test(ctx.getMember())) {
+        if (ctx.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCommands.getOrDefault(r.getId(), List.of()).contains(cmdName)) && !CommandPermission.ADMIN.test(ctx.getMember())) {
             return;
         }
         // !! CCS disable check end.
@@ -181,7 +181,7 @@ public class FunCmds {
             var result = diceRoll(size, amount);
             var sum = result.stream().mapToInt(Integer::intValue).sum();
             if (size == 6 && sum == 6) {
-                var player = MantaroData.db().getPlayer(ctx.getAuthor());
+                var player = ctx.getPlayer();
                 if (player.addBadgeIfAbsent(Badge.LUCK_BEHIND)) {
                     player.updateAllChanged();
                 }
@@ -162,7 +162,7 @@ public class GambleCmds {
         @Override
         protected void process(SlashContext ctx) {
             var player = ctx.getPlayer();
-            var stats = ctx.db().getPlayerStats(ctx.getAuthor());
+            var stats = ctx.getPlayerStats(ctx.getAuthor());
             var moneyAmount = 50L;
             var moneyAbsolute = ctx.getOptionAsString("credits"); // If this isn't null, we specified credits.
 
@@ -528,7 +528,8 @@ public class GambleCmds {
             }
 
             var oldMoney = player.getCurrentMoney();
-            player.currentMoney(Math.max(0, player.getCurrentMoney() - i));
+            // A change to the balance instead of setting it, so it doesn't undo what other commands did in the meantime.
+            player.removeMoney(Math.min(oldMoney, i));
 
             stats.incrementGambleLose();
             stats.updateAllChanged();
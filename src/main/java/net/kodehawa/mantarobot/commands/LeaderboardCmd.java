@@ -19,9 +19,6 @@ package net.kodehawa.mantarobot.commands;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.eventbus.Subscribe;
-import com.mongodb.client.AggregateIterable;
-import com.mongodb.client.model.Aggregates;
-import com.mongodb.client.model.Sorts;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.interactions.components.ActionRow;
@@ -39,6 +36,7 @@ import net.kodehawa.mantarobot.core.command.meta.Module;
 import net.kodehawa.mantarobot.core.command.helpers.CommandCategory;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.ManagedMongoObject;
 import net.kodehawa.mantarobot.db.entities.MongoUser;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.PlayerStats;
@@ -48,7 +46,6 @@ import net.kodehawa.mantarobot.utils.commands.ratelimit.RatelimitUtils;
 import net.kodehawa.mantarobot.utils.data.JsonDataManager;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
-import org.bson.conversions.Bson;
 import redis.clients.jedis.Jedis;
 
 import java.util.List;
@@ -57,7 +54,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 @Module
 public class LeaderboardCmd {
@@ -94,7 +90,7 @@ public class LeaderboardCmd {
             protected void process(SlashContext ctx) {
                 if (config.premiumBot) {
                     var tableName = "players";
-                    var moneyLeaderboard = getLeaderboard(tableName, Player.class, Sorts.descending("oldMoney"));
+                    var moneyLeaderboard = getLeaderboard(tableName, Player.class, "oldMoney");
                     send(ctx,
                             generateLeaderboardEmbed(ctx,
                                     ctx.getLanguageContext().get("commands.leaderboard.inner.money_old").formatted(EmoteReference.MONEY),
@@ -107,7 +103,7 @@ public class LeaderboardCmd {
                 }
 
                 var tableName = "players";
-                var moneyLeaderboard = getLeaderboard(tableName, Player.class, Sorts.descending("newMoney"));
+                var moneyLeaderboard = getLeaderboard(tableName, Player.class, "newMoney");
                 send(ctx,
                         generateLeaderboardEmbed(
                                 ctx, ctx.getLanguageContext().get("commands.leaderboard.inner.money").formatted(EmoteReference.MONEY),
@@ -126,7 +122,7 @@ public class LeaderboardCmd {
         public static class Gamble extends SlashCommand {
             @Override
             protected void process(SlashContext ctx) {
-                var gambleLeaderboard = getLeaderboard("playerstats", PlayerStats.class, Sorts.descending("gambleWins"));
+                var gambleLeaderboard = getLeaderboard("playerstats", PlayerStats.class, "gambleWins");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.gamble").formatted(EmoteReference.MONEY),
@@ -142,7 +138,7 @@ public class LeaderboardCmd {
         public static class Slots extends SlashCommand {
             @Override
             protected void process(SlashContext ctx) {
-                var slotsLeaderboard = getLeaderboard("playerstats", PlayerStats.class, Sorts.descending("slotsWins"));
+                var slotsLeaderboard = getLeaderboard("playerstats", PlayerStats.class, "slotsWins");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.slots").formatted(EmoteReference.MONEY),
@@ -160,7 +156,7 @@ public class LeaderboardCmd {
             @Override
             protected void process(SlashContext ctx) {
                 var tableName = "players";
-                var reputationLeaderboard = getLeaderboard(tableName, Player.class, Sorts.descending("reputation"));
+                var reputationLeaderboard = getLeaderboard(tableName, Player.class, "reputation");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.rep").formatted(EmoteReference.REP),
@@ -176,7 +172,7 @@ public class LeaderboardCmd {
         public static class Daily extends SlashCommand {
             @Override
             protected void process(SlashContext ctx) {
-                var dailyLeaderboard = getLeaderboard("players", Player.class, Sorts.descending("dailyStreak"));
+                var dailyLeaderboard = getLeaderboard("players", Player.class, "dailyStreak");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.streak")
@@ -195,7 +191,7 @@ public class LeaderboardCmd {
         public static class Claim extends SlashCommand {
             @Override
             protected void process(SlashContext ctx) {
-                var claimLeaderboard = getLeaderboard("users", MongoUser.class, Sorts.descending("timesClaimed"));
+                var claimLeaderboard = getLeaderboard("users", MongoUser.class, "timesClaimed");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.claim").formatted(EmoteReference.HEART),
@@ -215,7 +211,7 @@ public class LeaderboardCmd {
             @Override
             protected void process(SlashContext ctx) {
                 var tableName = "players";
-                var gameLeaderboard = getLeaderboard(tableName, Player.class, Sorts.descending("gamesWon"));
+                var gameLeaderboard = getLeaderboard(tableName, Player.class, "gamesWon");
                 send(ctx,
                         generateLeaderboardEmbed(ctx,
                                 ctx.getLanguageContext().get("commands.leaderboard.inner.game").formatted(EmoteReference.ZAP),
@@ -230,17 +226,12 @@ public class LeaderboardCmd {
         }
     }
 
-    private static <T> AggregateIterable<T> getLeaderboard(String table, Class<T> deserialize, Bson sortFunction) {
-        // Somehow using an index is automatic?
-        return MantaroData.db().dbMantaro().getCollection(table, deserialize)
-                .aggregate(List.of(
-                        Aggregates.sort(sortFunction),
-                        Aggregates.limit(15))
-                );
+    private static <T extends ManagedMongoObject> List<T> getLeaderboard(String table, Class<T> deserialize, String field) {
+        return MantaroData.db().getLeaderboard(table, deserialize, field, 15);
     }
 
     private static <T> EmbedBuilder generateLeaderboardEmbed(IContext ctx, String description, String leaderboardKey,
-                                                             AggregateIterable<T> lbObject,
+                                                             List<T> lbObject,
                                                              Function<T, Pair<CachedLeaderboardMember, String>> mapFunction,
                                                              String format) {
         var languageContext = ctx.getLanguageContext();
@@ -251,14 +242,14 @@ public class LeaderboardCmd {
                 ).setDescription(description)
                 .addField(
                         languageContext.get(leaderboardKey),
-                        StreamSupport.stream(lbObject.spliterator(), false)
+                        lbObject.stream()
                                 .map(mapFunction)
                                 .filter(p -> Objects.nonNull(p.getKey()))
                                 .map(p -> {
                                     final var lbMember = p.getKey();
                                     //This is... an interesting place to do it lol
                                     if (lbMember.getId() == ctx.getAuthor().getIdLong()) {
-                                        var player = MantaroData.db().getPlayer(ctx.getAuthor());
+                                        var player = ctx.getPlayer();
                                         if (player.addBadgeIfAbsent(Badge.CHAMPION))
                                             player.updateAllChanged();
                                     }
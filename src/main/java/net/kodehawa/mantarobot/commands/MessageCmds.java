@@ -160,16 +160,13 @@ public class MessageCmds {
                 success -> {
                     ctx.reply("commands.prune.success", EmoteReference.PENCIL, size);
 
-                    var db = ctx.getDBGuild();
-                    db.cases(db.getCases() + 1);
-                    db.updateAllChanged();
                     var reason = "Pruned Messages";
                     var specifiedReason = ctx.getOptionAsString("reason");
                     if (specifiedReason != null) {
                         reason = specifiedReason;
                     }
                     ModLog.log(ctx.getMember(), null, reason,
-                            ctx.getChannel().getName(), ModLog.ModAction.PRUNE, db.getCases(), size
+                            ctx.getChannel().getName(), ModLog.ModAction.PRUNE, size
                     );
                 },
                 error -> {
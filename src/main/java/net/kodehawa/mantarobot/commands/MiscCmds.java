@@ -426,7 +426,7 @@ public class MiscCmds {
     }
 
     public static void iamFunction(String autoroleName, IContext ctx, String message) {
-        var dbGuild = ctx.db().getGuild(ctx.getGuild());
+        var dbGuild = ctx.getDBGuild();
         var autoroles = dbGuild.getAutoroles();
 
         if (autoroles.containsKey(autoroleName)) {
@@ -468,7 +468,7 @@ public class MiscCmds {
     }
 
     public static void iamnotFunction(String autoroleName, IContext ctx, String message) {
-        var dbGuild = ctx.db().getGuild(ctx.getGuild());
+        var dbGuild = ctx.getDBGuild();
         var autoroles = dbGuild.getAutoroles();
 
         if (autoroles.containsKey(autoroleName)) {
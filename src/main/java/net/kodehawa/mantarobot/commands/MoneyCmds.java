@@ -269,7 +269,7 @@ public class MoneyCmds {
                 return;
             }
 
-            if (ctx.getMantaroData().getBlackListedUsers().contains(otherUser.getId())) {
+            if (MantaroData.db().getBlacklist().isUserBlacklisted(otherUser.getIdLong())) {
                 ctx.sendLocalized("commands.transfer.blacklisted_transfer", EmoteReference.ERROR);
                 return;
             }
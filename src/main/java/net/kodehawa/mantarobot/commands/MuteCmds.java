@@ -150,11 +150,7 @@ public class MuteCmds {
                 );
             }
 
-            dbGuild.cases(dbGuild.getCases() + 1);
-            dbGuild.updateAllChanged();
-            ModLog.log(
-                    ctx.getMember(), user, logReason, ctx.getChannel().getName(), ModLog.ModAction.MUTE, dbGuild.getCases()
-            );
+            ModLog.log(ctx.getMember(), user, logReason, ctx.getChannel().getName(), ModLog.ModAction.MUTE);
         }
     }
 
@@ -172,7 +168,6 @@ public class MuteCmds {
     public static class UnMute extends SlashCommand {
         @Override
         protected void process(SlashContext ctx) {
-            var dbGuild = ctx.getDBGuild();
             var reason = ctx.getOptionAsString("reason", "");
             var user = ctx.getOptionAsUser("user");
             if (user == null) {
@@ -216,9 +211,7 @@ public class MuteCmds {
 
                 ctx.reply("commands.unmute.success", EmoteReference.CORRECT, user.getName());
 
-                ModLog.log(ctx.getMember(), user, logReason, "none", ModLog.ModAction.UNMUTE, dbGuild.getCases());
-                dbGuild.cases(dbGuild.getCases() + 1);
-                dbGuild.updateAllChanged();
+                ModLog.log(ctx.getMember(), user, logReason, "none", ModLog.ModAction.UNMUTE);
             } else {
                 ctx.reply("commands.unmute.not_muted", EmoteReference.ERROR);
             }
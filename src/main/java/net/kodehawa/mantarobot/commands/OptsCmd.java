@@ -29,7 +29,6 @@ import net.kodehawa.mantarobot.core.command.meta.Description;
 import net.kodehawa.mantarobot.core.command.meta.Help;
 import net.kodehawa.mantarobot.core.command.meta.Name;
 import net.kodehawa.mantarobot.core.command.meta.Module;
-import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.options.core.Option;
 import net.kodehawa.mantarobot.utils.StringUtils;
 import net.kodehawa.mantarobot.utils.commands.DiscordUtils;
@@ -86,7 +85,7 @@ public class OptsCmd {
 
                         // Pass raw content without parsing multi-argument stuff, we don't need it for *everything*
                         ctx.setCustomContent(content.substring(optName.length()).trim());
-                        var player = MantaroData.db().getPlayer(ctx.getAuthor());
+                        var player = ctx.getPlayer();
                         if (player.addBadgeIfAbsent(Badge.DID_THIS_WORK)) {
                             player.updateAllChanged();
                         }
@@ -349,6 +349,7 @@ public class OwnerCmd {
             var dbGuild = MantaroData.db().getGuild(guild);
             dbGuild.incrementPremium(TimeUnit.DAYS.toMillis(days));
             dbGuild.updateAllChanged();
+            MantaroData.db().getPremiumEntitlements().invalidateGuild(dbGuild.getId());
 
             ctx.send("%sThe premium feature for guild %s (%s) was extended for %s days".formatted(
                     EmoteReference.CORRECT, guild, guildObject.getName(), days
@@ -602,6 +603,7 @@ public class OwnerCmd {
             //Guild assignment.
             dbGuild.mpLinkedTo(String.valueOf(userId)); // Patreon check will run from this user.
             dbGuild.updateAllChanged();
+            MantaroData.db().getPremiumEntitlements().invalidateGuild(dbGuild.getId());
 
             ctx.sendFormat("Linked MP for guild %s (%s) to user %s (%s). Including this guild in pledge check (id -> user -> pledge). User tier: %s",
                     guild.getName(), guild.getId(), user.getName(), user.getId(), pledgeInfo.getReward()
@@ -624,10 +626,18 @@ public class OwnerCmd {
             }
 
             var dbUser = MantaroData.db().getUser(key.getOwner());
-            dbUser.removeKeyClaimed(dbUser.getUserIdFromKeyId(key.getId()));
+            var claimedBy = dbUser.getUserIdFromKeyId(key.getId());
+            dbUser.removeKeyClaimed(claimedBy);
             dbUser.updateAllChanged();
             key.delete();
 
+            // Guilds using it will notice once their premium status expires from the cache.
+            var entitlements = MantaroData.db().getPremiumEntitlements();
+            entitlements.invalidateUser(key.getOwner());
+            if (claimedBy != null) {
+                entitlements.invalidateUser(claimedBy);
+            }
+
             ctx.send("Invalidated key " + keyString);
         }
     }
@@ -114,6 +114,7 @@ public class PremiumCmds {
                     key.activate(180);
                     guild.premiumKey(key.getId());
                     guild.updateAllChanged();
+                    db.getPremiumEntitlements().invalidateGuild(guild.getId());
 
                     ctx.reply("commands.activatekey.guild_successful", EmoteReference.POPPER, key.getDurationDays());
                     return;
@@ -143,6 +144,7 @@ public class PremiumCmds {
                     key.activate(author.getId().equals(key.getOwner()) ? 365 : 180);
                     dbUser.premiumKey(key.getId());
                     dbUser.updateAllChanged();
+                    db.getPremiumEntitlements().invalidateUser(dbUser.getId());
 
                     ctx.reply("commands.activatekey.user_successful", EmoteReference.POPPER);
                 }
@@ -165,7 +167,7 @@ public class PremiumCmds {
             @Override
             protected void process(SlashContext ctx) {
                 var toCheck = ctx.getOptionAsUser("user", ctx.getAuthor());
-                var dbUser = ctx.db().getUser(toCheck);
+                var dbUser = ctx.getDBUser(toCheck);
                 var isLookup = toCheck.getIdLong() != ctx.getAuthor().getIdLong();
 
                 if (ctx.getConfig().isPremiumBot()) {
@@ -198,7 +200,7 @@ public class PremiumCmds {
 
                 // Give the badge to the key owner, I'd guess?
                 if (!marked && isLookup) {
-                    Player player = ctx.db().getPlayer(owner);
+                    Player player = ctx.getPlayer(owner);
                     if (player.addBadgeIfAbsent(Badge.DONATOR_2))
                         player.updateAllChanged();
                 }
@@ -71,6 +71,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -560,6 +562,14 @@ public class ProfileCmd {
 
     private static MessageEmbed buildProfile(IContext ctx, User userLooked) {
         final var memberLooked = ctx.getGuild().getMember(userLooked);
+        // Everything we need, all at once: the database reads and the Mantaro Hub member lookup run concurrently.
+        final var mh = MantaroBot.getInstance().getShardManager().getGuildById("213468583252983809");
+        final var mhLookup = mh == null ? CompletableFuture.<Member>completedFuture(null) :
+                mh.retrieveMemberById(userLooked.getId()).useCache(true).submit();
+        try {
+            ctx.getEntityScope().preload(userLooked.getId()).join();
+        } catch (CompletionException ignored) { } // The getters below load whatever failed (and throw if it fails again)
+
         final var player = ctx.getPlayer(userLooked);
         final var dbUser = ctx.getDBUser(userLooked);
         final var config = MantaroData.config().get();
@@ -568,15 +578,16 @@ public class ProfileCmd {
         player.waifuCachedValue(WaifuCmd.calculateWaifuValue(player, userLooked).getFinalValue());
 
         // start of badge assigning
-        final var mh = MantaroBot.getInstance().getShardManager().getGuildById("213468583252983809");
         Member mhMember = null;
-        if (mh != null) {
-            try {
-                mhMember = mh.retrieveMemberById(userLooked.getId()).useCache(true).complete();
-            } catch (ErrorResponseException ignored) { } // Expected UNKNOWN_MEMBER
+        try {
+            mhMember = mhLookup.join();
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof ErrorResponseException)) { // Expected UNKNOWN_MEMBER
+                throw e;
+            }
         }
 
-        Badge.assignBadges(player, player.getStats(), dbUser);
+        Badge.assignBadges(player, ctx.getPlayerStats(userLooked), dbUser);
         var christmasBadgeAssign = player.containsItem(ItemReference.CHRISTMAS_TREE_SPECIAL) || player.containsItem(ItemReference.BELL_SPECIAL);
         // Manual badges
         if (config.isOwner(userLooked)) {
@@ -610,7 +621,7 @@ public class ProfileCmd {
         final var badges = player.getBadges();
         Collections.sort(badges);
 
-        final var marriage = MantaroData.db().getMarriage(dbUser.getMarriageId());
+        final var marriage = ctx.getMarriage(dbUser);
         final var ringHolder = player.containsItem(ItemReference.RING) && marriage != null;
         final var holder = new ProfileComponent.Holder(userLooked, player, dbUser, marriage, badges);
         final var profileBuilder = new EmbedBuilder();
@@ -179,16 +179,21 @@ public class TransferCmds {
             }
 
             var amountTransfer = Math.round(toSend * 0.92);
-            if (toTransfer.addMoney(amountTransfer)) {
-                transferPlayer.removeMoney(toSend);
-                transferPlayer.updateAllChanged();
-
-                toTransfer.updateAllChanged();
-                transferRatelimiter.limit(toTransfer.getId());
-                ctx.reply("commands.transfer.success", EmoteReference.CORRECT, toSend, amountTransfer, giveTo.getAsMention());
-            } else {
+            try {
+                // Overflow check, we don't want to find that out after the money moved.
+                Math.addExact(toTransfer.getCurrentMoney(), amountTransfer);
+            } catch (ArithmeticException e) {
                 ctx.reply("commands.transfer.receipt_overflow_notice", EmoteReference.ERROR);
+                return;
+            }
+
+            if (!transferPlayer.transferMoney(toTransfer, toSend, amountTransfer)) {
+                ctx.reply("commands.transfer.no_money_notice", EmoteReference.ERROR);
+                return;
             }
+
+            transferRatelimiter.limit(toTransfer.getId());
+            ctx.reply("commands.transfer.success", EmoteReference.CORRECT, toSend, amountTransfer, giveTo.getAsMention());
         }
     }
 
@@ -292,11 +297,11 @@ public class TransferCmds {
                     return;
                 }
 
-                player.processItem(item, amount * -1);
-                giveToPlayer.processItem(item, amount);
+                if (!player.transferItem(giveToPlayer, item, amount)) {
+                    ctx.reply("commands.itemtransfer.error", EmoteReference.ERROR);
+                    return;
+                }
 
-                player.updateAllChanged();
-                giveToPlayer.updateAllChanged();
                 ctx.reply("commands.itemtransfer.success", EmoteReference.OK,
                         ctx.getMember().getEffectiveName(), amount, item.getName(), giveTo.getAsMention()
                 );
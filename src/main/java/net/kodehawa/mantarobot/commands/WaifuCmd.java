@@ -341,12 +341,6 @@ public class WaifuCmd {
                     return;
                 }
 
-                //Deduct from balance and checks for money.
-                if (!claimerPlayer.removeMoney(waifuFinalValue)) {
-                    ctx.reply("commands.waifu.claim.not_enough_money", EmoteReference.ERROR, waifuFinalValue);
-                    return;
-                }
-
                 if (claimerUser.waifuAmount() >= claimerUser.getWaifuSlots()) {
                     ctx.reply("commands.waifu.claim.not_enough_slots",
                             EmoteReference.ERROR, claimerUser.getWaifuSlots(), claimerUser.waifuAmount()
@@ -355,6 +349,12 @@ public class WaifuCmd {
                     return;
                 }
 
+                //Deduct from balance and checks for money. Last check, so nothing bails out after taking the money.
+                if (!claimerPlayer.removeMoney(waifuFinalValue)) {
+                    ctx.reply("commands.waifu.claim.not_enough_money", EmoteReference.ERROR, waifuFinalValue);
+                    return;
+                }
+
                 if (waifuFinalValue > 100_000) {
                     claimerPlayer.addBadgeIfAbsent(Badge.GOLD_VALUE);
                 }
@@ -371,12 +371,12 @@ public class WaifuCmd {
                 }
 
                 claimerPlayer.addBadgeIfAbsent(Badge.WAIFU_CLAIMER);
+                //Massive saving operation owo. The claimer goes first: if the money is gone by now, this throws and nothing else gets saved.
+                claimerPlayer.updateAllChanged();
                 if (badgesAdded || claimedPlayer.addBadgeIfAbsent(Badge.CLAIMED)) {
                     claimedPlayer.updateAllChanged();
                 }
 
-                //Massive saving operation owo.
-                claimerPlayer.updateAllChanged();
                 claimedUser.updateAllChanged();
                 claimerUser.updateAllChanged();
 
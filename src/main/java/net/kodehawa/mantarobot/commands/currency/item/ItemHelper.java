@@ -528,7 +528,7 @@ public class ItemHelper {
 
             equippedItems.updateAllChanged(user);
 
-            var stats = ctx.db().getPlayerStats(ctx.getAuthor());
+            var stats = ctx.getPlayerStats(ctx.getAuthor());
             stats.incrementToolsBroken();
             stats.updateAllChanged();
 
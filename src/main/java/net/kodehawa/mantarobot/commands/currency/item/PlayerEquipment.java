@@ -28,6 +28,7 @@ import org.bson.codecs.pojo.annotations.BsonCreator;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonProperty;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Predicate;
@@ -38,7 +39,7 @@ public class PlayerEquipment {
     private final Map<EquipmentType, PotionEffect> effects;
     private final Map<EquipmentType, Integer> durability;
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     @SuppressWarnings("unused")
     @BsonCreator
@@ -23,6 +23,7 @@ import net.kodehawa.mantarobot.db.ManagedMongoObject;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 
 import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -52,7 +53,7 @@ public class HousePet {
     private long experience;
     private long level = 1;
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     // Serialization constructor
     public HousePet() { }
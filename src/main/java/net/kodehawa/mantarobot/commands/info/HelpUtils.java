@@ -23,7 +23,6 @@ import net.kodehawa.mantarobot.core.command.helpers.CommandCategory;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.MongoGuild;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
@@ -36,7 +35,7 @@ public class HelpUtils {
                         .filter(entry -> !guildData.getDisabledCategories().contains(entry.getValue().category()))
                         .filter(c -> !guildData.getDisabledCommands().contains(c.getKey()))
                         .filter(c -> guildData.getChannelSpecificDisabledCommands().get(channel.getId()) == null || !guildData.getChannelSpecificDisabledCommands().get(channel.getId()).contains(c.getKey()))
-                        .filter(c -> !guildData.getChannelSpecificDisabledCategories().computeIfAbsent(channel.getId(), wew -> new ArrayList<>()).contains(category))
+                        .filter(c -> !guildData.getChannelSpecificDisabledCategories().getOrDefault(channel.getId(), List.of()).contains(category))
                         .map(Entry::getKey)
                         .collect(Collectors.toList())
         );
@@ -49,7 +48,7 @@ public class HelpUtils {
                         .filter(entry -> !guildData.getDisabledCategories().contains(entry.getValue().getCategory()))
                         .filter(c -> !guildData.getDisabledCommands().contains(c.getKey()))
                         .filter(c -> guildData.getChannelSpecificDisabledCommands().get(channel.getId()) == null || !guildData.getChannelSpecificDisabledCommands().get(channel.getId()).contains(c.getKey()))
-                        .filter(c -> !guildData.getChannelSpecificDisabledCategories().computeIfAbsent(channel.getId(), wew -> new ArrayList<>()).contains(category))
+                        .filter(c -> !guildData.getChannelSpecificDisabledCategories().getOrDefault(channel.getId(), List.of()).contains(category))
                         .map(Entry::getKey)
                         .collect(Collectors.toList())
         );
@@ -30,8 +30,9 @@ public class ModLog {
     private static final ManagedDatabase db = MantaroData.db();
 
     public static void log(Member author, User target, String reason,
-                           String channel, ModAction action, long caseNumber, int messagesDeleted) {
+                           String channel, ModAction action, int messagesDeleted) {
         var guildDB = db.getGuild(author.getGuild());
+        var caseNumber = guildDB.nextCase();
         var player = db.getPlayer(author);
         var embedBuilder = new EmbedBuilder();
 
@@ -72,8 +73,8 @@ public class ModLog {
 
     //Overload
     public static void log(Member author, User target, String reason,
-                           String channel, ModAction action, long caseNumber) {
-        log(author, target, reason, channel, action, caseNumber, 0);
+                           String channel, ModAction action) {
+        log(author, target, reason, channel, action, 0);
     }
 
     public enum ModAction {
@@ -23,6 +23,8 @@ import net.kodehawa.mantarobot.db.entities.MongoUser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -41,26 +43,29 @@ public class BirthdayCacher {
 
     public void cache() {
         try {
-            var users = MantaroData.db().dbMantaro().getCollection("users", MongoUser.class).find();
-            cachedBirthdays.clear();
-
-            for (var r : users) {
+            // Only the birthday is needed, and users come in batches: no need to hold every full user in memory at once.
+            // Built on the side, so lookups don't see an empty cache while this runs.
+            Map<Long, BirthdayData> birthdays = new HashMap<>();
+            MantaroData.db().forEachUserWithBirthday(List.of("birthday"), r -> {
                 try {
                     var id = Long.parseUnsignedLong(r.getId());
                     // Why?
-                    if (cachedBirthdays.containsKey(id))
-                        continue;
+                    if (birthdays.containsKey(id))
+                        return;
 
                     var birthday = r.getBirthday();
                     if (birthday != null && !birthday.isEmpty()) {
                         log.debug("-> PROCESS: {}", r);
                         var bd = birthday.split("-");
-                        cachedBirthdays.put(id, new BirthdayData(birthday, Long.parseLong(bd[0]), Long.parseLong(bd[1])));
+                        birthdays.put(id, new BirthdayData(birthday, Long.parseLong(bd[0]), Long.parseLong(bd[1])));
                     }
                 } catch (Exception e) {
                     log.error("Error inserting user to birthday cache?", e);
                 }
-            }
+            });
+
+            cachedBirthdays.keySet().retainAll(birthdays.keySet());
+            cachedBirthdays.putAll(birthdays);
 
             log.debug("-> [CACHE] Birthdays: {}", cachedBirthdays);
             // Else we just don't have anything to clear (first startup)
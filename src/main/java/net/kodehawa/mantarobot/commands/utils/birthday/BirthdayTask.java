@@ -143,10 +143,12 @@ public class BirthdayTask {
 
                         // Guild map is now created from allowed birthdays. This is a little hacky, but we don't really care.
                         // The other solution would have been just disabling this completely, which would have been worse.
+                        final var allowedBirthdays = dbGuild.getAllowedBirthdayIds();
+                        final var blockedBirthdays = dbGuild.getBlockedBirthdayIds();
                         // @formatter:off
                         Map<Long, BirthdayCacher.BirthdayData> guildMap = cached.entrySet()
                                 .stream()
-                                .filter(map -> dbGuild.getAllowedBirthdays().contains(String.valueOf(map.getKey())))
+                                .filter(map -> allowedBirthdays.contains(String.valueOf(map.getKey())))
                                 .filter(map ->
                                         // Only check for current month or last month!
                                         map.getValue().birthday().substring(3, 5).equals(month) ||
@@ -163,7 +165,7 @@ public class BirthdayTask {
 
                         for (var data : guildMap.entrySet()) {
                             var birthday = data.getValue().birthday();
-                            if (dbGuild.getBirthdayBlockedIds().contains(String.valueOf(data.getKey()))) {
+                            if (blockedBirthdays.contains(String.valueOf(data.getKey()))) {
                                 continue;
                             }
 
@@ -297,8 +299,7 @@ public class BirthdayTask {
 
                         // If any of the member lookups to discord returned null, remove them.
                         if (!nullMembers.isEmpty()) {
-                            nullMembers.forEach(member -> dbGuild.removeAllowedBirthday(String.valueOf(member)));
-                            dbGuild.updateAllChanged();
+                            dbGuild.removeAllowedBirthdays(nullMembers.stream().map(String::valueOf).toList());
                         }
                     }
                 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs commands and event listeners on a bounded amount of threads.
+ * <p>
+ * Only a few threads are kept around. A new one is started only when every thread is busy, up to the maximum,
+ * and threads over the core size go away after sitting idle for a while.
+ * Once every thread is busy and there can't be more, work waits on a bounded queue, and the most urgent work goes first (see {@link Lane}).
+ * Lower lanes can only fill part of the queue, so there's always room for interactions.
+ * When there's no room left, {@link #execute(Lane, Runnable)} returns false and the caller decides what to tell the user.
+ * This way a resume storm or a stalled database makes us slower, instead of spawning threads until the JVM falls over.
+ */
+public class CommandExecutor {
+    private static final Logger log = LoggerFactory.getLogger(CommandExecutor.class);
+    private final ThreadPoolExecutor executor;
+    private final LaneQueue queue = new LaneQueue();
+    private final int queueSize;
+    // Keeps tasks on the same lane in the order they came in.
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param coreThreads How many threads to keep around, even if they're idle.
+     * @param maxThreads  How many threads can run tasks at once.
+     * @param idleSeconds How long a thread over the core size can sit idle before it goes away.
+     * @param queueSize   How many tasks can wait for a thread.
+     */
+    public CommandExecutor(int coreThreads, int maxThreads, int idleSeconds, int queueSize) {
+        this.queueSize = queueSize;
+        // The queue is unbounded to the pool, the bound is checked on execute instead. It only takes tasks once the pool can't grow,
+        // and the pool puts them there itself if a thread it tried to start couldn't be (see LaneQueue).
+        this.executor = new ThreadPoolExecutor(Math.min(coreThreads, maxThreads), maxThreads, idleSeconds, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("Mantaro Thread-%d").build(),
+                (task, pool) -> queue.force(task)
+        );
+
+        queue.executor = executor;
+    }
+
+    /**
+     * Runs a task once there's a thread for it.
+     *
+     * @param lane What kind of work this is.
+     * @param task The task.
+     * @return Whether it got queued. If not, we're overloaded, and the task won't run.
+     */
+    public boolean execute(@Nonnull Lane lane, @Nonnull Runnable task) {
+        // Approximate, but it doesn't need to be exact.
+        if (executor.getQueue().size() >= lane.queueShare * queueSize) {
+            Metrics.COMMAND_EXECUTOR.labels(lane.name().toLowerCase(), "rejected").inc();
+            return false;
+        }
+
+        executor.execute(new Task(lane, sequence.getAndIncrement(), System.nanoTime(), task));
+        return true;
+    }
+
+    /**
+     * @return The underlying pool, for metrics.
+     */
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * What kind of work a task is. Earlier lanes run first.
+     */
+    public enum Lane {
+        // Slash commands, context menus and autocomplete: Discord gives up on them if they aren't answered in 3 seconds,
+        // so there's no point in running them after that (the leeway is for our reply getting there).
+        INTERACTION(1, TimeUnit.MILLISECONDS.toNanos(2500)),
+        // Text commands.
+        COMMAND(0.9, 0),
+        // Passive listeners (greetings, logs, stats): nobody is waiting on them.
+        LISTENER(0.5, 0);
+
+        private final double queueShare;
+        private final long deadline;
+
+        /**
+         * @param queueShare How much of the queue this lane can fill.
+         * @param deadline   How long a task can wait before running it is pointless, in nanoseconds. 0 for no deadline.
+         */
+        Lane(double queueShare, long deadline) {
+            this.queueShare = queueShare;
+            this.deadline = deadline;
+        }
+    }
+
+    // A ThreadPoolExecutor only starts threads over its core size if the queue refuses a task, so this refuses tasks
+    // while every thread is busy and there's room for another one (same as Tomcat's TaskQueue).
+    // Otherwise they'd wait behind a full set of busy core threads while the pool could have grown.
+    private static class LaneQueue extends PriorityBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+        private transient volatile ThreadPoolExecutor executor;
+
+        @Override
+        public boolean offer(Runnable task) {
+            var pool = executor;
+            if (pool != null && pool.getPoolSize() < pool.getMaximumPoolSize() && pool.getActiveCount() >= pool.getPoolSize()) {
+                return false;
+            }
+
+            return super.offer(task);
+        }
+
+        // The pool couldn't start a thread for it after all (another task took the last one).
+        void force(Runnable task) {
+            super.offer(task);
+        }
+    }
+
+    private record Task(Lane lane, long sequence, long queuedAt, Runnable task) implements Runnable, Comparable<Task> {
+        @Override
+        public void run() {
+            if (lane.deadline > 0 && System.nanoTime() - queuedAt > lane.deadline) {
+                Metrics.COMMAND_EXECUTOR.labels(lane.name().toLowerCase(), "expired").inc();
+                log.debug("Dropped {} task, it waited past its deadline", lane);
+                return;
+            }
+
+            task.run();
+        }
+
+        @Override
+        public int compareTo(@Nonnull Task other) {
+            var byLane = Integer.compare(lane.ordinal(), other.lane.ordinal());
+            return byLane != 0 ? byLane : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -43,9 +43,9 @@ import net.kodehawa.mantarobot.core.command.helpers.HelpContent;
 import net.kodehawa.mantarobot.core.command.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.ManagedDatabase;
-import net.kodehawa.mantarobot.db.entities.MongoGuild;
-import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.DatabaseMetrics;
+import net.kodehawa.mantarobot.db.UnitOfWork;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.ratelimit.RateLimiter;
@@ -53,7 +53,6 @@ import net.kodehawa.mantarobot.utils.exporters.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -95,11 +94,23 @@ public class CommandRegistry {
 
     // Process non-slash commands.
     // We filter non-guild events early on.
-    public void process(MessageReceivedEvent event, MongoGuild dbGuild, String cmdName, String content, String prefix, boolean isMention) {
+    public void process(MessageReceivedEvent event, GuildDispatchView guildView, String cmdName, String content, String prefix, boolean isMention) {
         if (cmdName.length() >= 50) {
             return;
         }
 
+        var calls = DatabaseMetrics.startCommand();
+        // Closed before finishing, so the merged writes count towards the command.
+        var work = UnitOfWork.begin(MantaroData.db());
+        try (work) {
+            dispatch(event, guildView, cmdName, content, prefix, isMention);
+        } finally {
+            var command = commands.get(cmdName.toLowerCase());
+            calls.finish(command == null ? "custom" : name(command, cmdName));
+        }
+    }
+
+    private void dispatch(MessageReceivedEvent event, GuildDispatchView guildView, String cmdName, String content, String prefix, boolean isMention) {
         final var managedDatabase = MantaroData.db();
         final var start = System.currentTimeMillis();
         var command = commands.get(cmdName.toLowerCase());
@@ -108,7 +119,7 @@ public class CommandRegistry {
             // We will create a proper I18nContext once the custom command goes through, if it does. We don't need it otherwise.
             CustomCmds.handle(prefix, cmdName, new TextContext(event,
                     new I18nContext(),
-                    event.getMessage().getContentRaw().substring(prefix.length()), isMention), dbGuild, content);
+                    event.getMessage().getContentRaw().substring(prefix.length()), isMention), guildView, content);
             return;
         }
 
@@ -117,16 +128,16 @@ public class CommandRegistry {
         // Variable used in lambda expression should be final or effectively final...
         final var cmd = command;
         final var guild = event.getGuild();
-        final var mantaroData = managedDatabase.getMantaroData();
+        final var blacklist = managedDatabase.getBlacklist();
 
-        if (mantaroData.getBlackListedGuilds().contains(guild.getId())) {
+        if (blacklist.isGuildBlacklisted(guild.getIdLong())) {
             log.debug("Got command from blacklisted guild {}, dropping", guild.getId());
             return;
         }
 
         // !! Permission check start
-        if (dbGuild.getDisabledCommands().contains(name(cmd, cmdName))) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.COMMAND);
+        if (guildView.getDisabledCommands().contains(name(cmd, cmdName))) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.COMMAND);
             return;
         }
 
@@ -136,55 +147,52 @@ public class CommandRegistry {
         }
 
         final var roles = member.getRoles();
-        final var channelDisabledCommands = dbGuild.getChannelSpecificDisabledCommands().get(channel.getId());
+        final var channelDisabledCommands = guildView.getChannelSpecificDisabledCommands().get(channel.getId());
         if (channelDisabledCommands != null && channelDisabledCommands.contains(name(cmd, cmdName))) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.COMMAND_SPECIFIC);
+            sendDisabledNotice(event, guildView, CommandDisableLevel.COMMAND_SPECIFIC);
             return;
         }
 
-        if (dbGuild.getDisabledUsers().contains(author.getId()) && isNotAdmin(member)) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.USER);
+        if (guildView.getDisabledUsers().contains(author.getId()) && isNotAdmin(member)) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.USER);
             return;
         }
 
         var isOptions = cmdName.equalsIgnoreCase("opts");
-        if (dbGuild.getDisabledChannels().contains(channel.getId()) && !isOptions) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.CHANNEL);
+        if (guildView.getDisabledChannels().contains(channel.getId()) && !isOptions) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.CHANNEL);
             return;
         }
 
-        if (dbGuild.getDisabledCategories().contains(root(cmd).category()) && !isOptions) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.CATEGORY);
+        if (guildView.getDisabledCategories().contains(root(cmd).category()) && !isOptions) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.CATEGORY);
             return;
         }
 
-        if (dbGuild.getChannelSpecificDisabledCategories().computeIfAbsent(
-                channel.getId(), c -> new ArrayList<>()).contains(root(cmd).category()) && !isOptions) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.SPECIFIC_CATEGORY);
+        if (guildView.getChannelSpecificDisabledCategories().getOrDefault(channel.getId(), List.of()).contains(root(cmd).category()) && !isOptions) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.SPECIFIC_CATEGORY);
             return;
         }
 
-        if (!dbGuild.getDisabledRoles().isEmpty() && roles.stream().anyMatch(
-                r -> dbGuild.getDisabledRoles().contains(r.getId())) && isNotAdmin(member)) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.ROLE);
+        if (!guildView.getDisabledRoles().isEmpty() && roles.stream().anyMatch(
+                r -> guildView.getDisabledRoles().contains(r.getId())) && isNotAdmin(member)) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.ROLE);
             return;
         }
 
-        final var roleSpecificDisabledCommands = dbGuild.getRoleSpecificDisabledCommands();
-        if (roles.stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(
-                r.getId(), s -> new ArrayList<>()).contains(name(cmd, cmdName))) && isNotAdmin(member)) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.SPECIFIC_ROLE);
+        final var roleSpecificDisabledCommands = guildView.getRoleSpecificDisabledCommands();
+        if (roles.stream().anyMatch(r -> roleSpecificDisabledCommands.getOrDefault(r.getId(), List.of()).contains(name(cmd, cmdName))) && isNotAdmin(member)) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.SPECIFIC_ROLE);
             return;
         }
 
-        final var roleSpecificDisabledCategories = dbGuild.getRoleSpecificDisabledCategories();
-        if (roles.stream().anyMatch(r -> roleSpecificDisabledCategories.computeIfAbsent(
-                r.getId(), s -> new ArrayList<>()).contains(root(cmd).category())) && isNotAdmin(member)) {
-            sendDisabledNotice(event, dbGuild, CommandDisableLevel.SPECIFIC_ROLE_CATEGORY);
+        final var roleSpecificDisabledCategories = guildView.getRoleSpecificDisabledCategories();
+        if (roles.stream().anyMatch(r -> roleSpecificDisabledCategories.getOrDefault(r.getId(), List.of()).contains(root(cmd).category())) && isNotAdmin(member)) {
+            sendDisabledNotice(event, guildView, CommandDisableLevel.SPECIFIC_ROLE_CATEGORY);
             return;
         }
 
-        if (mantaroData.getBlackListedUsers().contains(author.getId())) {
+        if (blacklist.isUserBlacklisted(author.getIdLong())) {
             if (!rl.process(author)) {
                 return;
             }
@@ -198,7 +206,7 @@ public class CommandRegistry {
         }
 
         // If we are in the patreon bot, deny all requests from unknown guilds.
-        if (config.isPremiumBot() && !config.isOwner(author) && !dbGuild.isPremium()) {
+        if (config.isPremiumBot() && !config.isOwner(author) && !managedDatabase.getPremiumEntitlements().isPremium(guildView)) {
             channel.sendMessage("""
                             :x: Seems like you're trying to use the Patreon bot when this guild is **not** marked as premium.
                             **If you think this is an error please contact Kodehawa#3457 or poke me on #donators in the support guild**
@@ -215,14 +223,23 @@ public class CommandRegistry {
         // !! Permission check end
 
         final var dbUser = managedDatabase.getUser(author);
-        renewPremiumKey(managedDatabase, author, dbUser, dbGuild);
+        managedDatabase.getPremiumEntitlements().scheduleRenewal(author, guild.getId());
 
         // Used a command on the new system?
         try {
-            newCommands.execute(new TextContext(event,
-                    new I18nContext(dbGuild, dbUser),
-                    event.getMessage().getContentRaw().substring(prefix.length()), isMention)
+            var ctx = new TextContext(event,
+                    new I18nContext(guildView, dbUser),
+                    event.getMessage().getContentRaw().substring(prefix.length()), isMention
             );
+
+            // The whole guild only gets loaded if the command asks for it.
+            ctx.getEntityScope().seed(dbUser);
+            try {
+                newCommands.execute(ctx);
+            } finally {
+                // Callbacks that run after this (buttons, reactions...) have to load fresh entities.
+                ctx.getEntityScope().close();
+            }
         } catch (ArgumentParseError e) {
             if (e.getMessage() != null) {
                 channel.sendMessage(EmoteReference.ERROR + e.getMessage()).queue();
@@ -250,6 +267,17 @@ public class CommandRegistry {
 
     // Process (user) context interaction.
     public void process(UserContextInteractionEvent event) {
+        var calls = DatabaseMetrics.startCommand();
+        var work = UnitOfWork.begin(MantaroData.db());
+        try (work) {
+            dispatch(event);
+        } finally {
+            var cmd = getCommandManager().contextUserCommands().get(event.getFullCommandName());
+            calls.finish(cmd == null ? null : cmd.getName() + "-context");
+        }
+    }
+
+    private void dispatch(UserContextInteractionEvent event) {
         if (event.getGuild() == null) {
             event.reply("This bot does not accept commands in Private Messages. You can add it to your server at https://add.mantaro.site")
                     .setEphemeral(true)
@@ -264,10 +292,10 @@ public class CommandRegistry {
         }
 
         final var managedDatabase = MantaroData.db();
-        final var mantaroData = managedDatabase.getMantaroData();
+        final var blacklist = managedDatabase.getBlacklist();
         final var guild = event.getGuild();
 
-        if (mantaroData.getBlackListedGuilds().contains(guild.getId())) {
+        if (blacklist.isGuildBlacklisted(guild.getIdLong())) {
             log.debug("Got command from blacklisted guild {}, dropping", guild.getId());
             event.reply("Not accepting commands from this server.")
                     .setEphemeral(true)
@@ -296,7 +324,13 @@ public class CommandRegistry {
         }
 
         final var dbUser = managedDatabase.getUser(author);
-        cmd.execute(new InteractionContext<>(event, new I18nContext(dbGuild, dbUser)));
+        var ctx = new InteractionContext<>(event, new I18nContext(dbGuild, dbUser));
+        ctx.getEntityScope().seed(dbGuild, dbUser);
+        try {
+            cmd.execute(ctx);
+        } finally {
+            ctx.getEntityScope().close();
+        }
         commandLog.debug("Context (user) command: {}, User: {} ({}), Guild: {}" ,
                 cmd.getName(), author.getName(), author.getId(), guild.getId()
         );
@@ -308,6 +342,17 @@ public class CommandRegistry {
 
     // Process slash commands.
     public void process(SlashCommandInteractionEvent event) {
+        var calls = DatabaseMetrics.startCommand();
+        var work = UnitOfWork.begin(MantaroData.db());
+        try (work) {
+            dispatch(event);
+        } finally {
+            var command = getCommandManager().slashCommands().get(event.getName().toLowerCase());
+            calls.finish(command == null ? null : command.getName() + "-slash");
+        }
+    }
+
+    private void dispatch(SlashCommandInteractionEvent event) {
         if (event.getGuild() == null) {
             event.reply("This bot does not accept commands in Private Messages. You can add it to your server at https://add.mantaro.site")
                     .setEphemeral(true)
@@ -324,10 +369,10 @@ public class CommandRegistry {
         }
 
         final var managedDatabase = MantaroData.db();
-        final var mantaroData = managedDatabase.getMantaroData();
+        final var blacklist = managedDatabase.getBlacklist();
         final var guild = event.getGuild();
 
-        if (mantaroData.getBlackListedGuilds().contains(guild.getId())) {
+        if (blacklist.isGuildBlacklisted(guild.getIdLong())) {
             log.debug("Got command from blacklisted guild {}, dropping", guild.getId());
             event.reply("Not accepting commands from this server.")
                     .setEphemeral(true)
@@ -374,8 +419,7 @@ public class CommandRegistry {
             return;
         }
 
-        if (dbGuild.getChannelSpecificDisabledCategories().computeIfAbsent(
-                channel.getId(), c -> new ArrayList<>()).contains(cmd.getCategory())) {
+        if (dbGuild.getChannelSpecificDisabledCategories().getOrDefault(channel.getId(), List.of()).contains(cmd.getCategory())) {
             sendDisabledNotice(event, CommandDisableLevel.SPECIFIC_CATEGORY);
             return;
         }
@@ -387,20 +431,18 @@ public class CommandRegistry {
         }
 
         final var roleSpecificDisabledCommands = dbGuild.getRoleSpecificDisabledCommands();
-        if (roles.stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(
-                r.getId(), s -> new ArrayList<>()).contains(name)) && isNotAdmin(member)) {
+        if (roles.stream().anyMatch(r -> roleSpecificDisabledCommands.getOrDefault(r.getId(), List.of()).contains(name)) && isNotAdmin(member)) {
             sendDisabledNotice(event, CommandDisableLevel.SPECIFIC_ROLE);
             return;
         }
 
         final var roleSpecificDisabledCategories = dbGuild.getRoleSpecificDisabledCategories();
-        if (roles.stream().anyMatch(r -> roleSpecificDisabledCategories.computeIfAbsent(
-                r.getId(), s -> new ArrayList<>()).contains(cmd.getCategory())) && isNotAdmin(member)) {
+        if (roles.stream().anyMatch(r -> roleSpecificDisabledCategories.getOrDefault(r.getId(), List.of()).contains(cmd.getCategory())) && isNotAdmin(member)) {
             sendDisabledNotice(event, CommandDisableLevel.SPECIFIC_ROLE_CATEGORY);
             return;
         }
 
-        if (mantaroData.getBlackListedUsers().contains(author.getId())) {
+        if (blacklist.isUserBlacklisted(author.getIdLong())) {
             if (!rl.process(author)) {
                 return;
             }
@@ -431,9 +473,15 @@ public class CommandRegistry {
         // !! Permission check end
 
         final var dbUser = managedDatabase.getUser(author);
-        renewPremiumKey(managedDatabase, author, dbUser, dbGuild);
+        managedDatabase.getPremiumEntitlements().scheduleRenewal(author, guild.getId());
 
-        cmd.execute(new SlashContext(event, new I18nContext(dbGuild, dbUser)));
+        var ctx = new SlashContext(event, new I18nContext(dbGuild, dbUser));
+        ctx.getEntityScope().seed(dbGuild, dbUser);
+        try {
+            cmd.execute(ctx);
+        } finally {
+            ctx.getEntityScope().close();
+        }
         commandLog.debug("Slash command: {}, User: {} ({}), Guild: {}, Channel: {}, Options: {}" ,
                 cmd.getName(), author.getName(), author.getId(), guild.getId(), channel.getId(), event.getOptions()
         );
@@ -457,46 +505,6 @@ public class CommandRegistry {
         }
     }
 
-    public void renewPremiumKey(ManagedDatabase managedDatabase, User author, MongoUser dbUser, MongoGuild guildData) {
-        if (dbUser.getPremiumKey() != null) {
-            final var currentKey = managedDatabase.getPremiumKey(dbUser.getPremiumKey());
-            if (currentKey != null) {
-                // 10 days before expiration or best fit.
-                if (currentKey.validFor() <= 10 && currentKey.validFor() > 1) {
-                    // Handling is done inside the PremiumKey#renew method. This only gets fired if the key has less than 10 days left.
-                    if (!currentKey.renew() && !dbUser.hasReceivedExpirationWarning()) {
-                        author.openPrivateChannel().queue(privateChannel ->
-                                privateChannel.sendMessage(
-                                        """
-                                        %1$sYour premium key is about to expire in **%2$,d** days**!
-                                        :heart: *If you're still pledging to Mantaro* you can ask Kodehawa#3457 for a key renewal in the #donators channel.*
-                                        In the case that you're not longer a patron, you cannot renew, but I sincerely hope you had a good time with the bot and its features!
-                                        **If you ever want to pledge again you can check the patreon link at <https://patreon.com/mantaro>**
-                                        
-                                        Thanks you so much for your support to keep Mantaro alive! It wouldn't be possible without the help of all of you.
-                                        With love, Kodehawa and the Mantaro team :heart:
-                                        
-                                        This will only be sent once (hopefully). Thanks again!
-                                        """.formatted(EmoteReference.WARNING, Math.max(1, currentKey.validFor()))
-                                ).queue()
-                        );
-                    }
-
-                    dbUser.receivedExpirationWarning(true);
-                    dbUser.updateAllChanged();
-                }
-            }
-        }
-
-        if (guildData.getPremiumKey() != null) {
-            final var guildKey = managedDatabase.getPremiumKey(guildData.getPremiumKey());
-            // Handling is done inside the PremiumKey#renew method. This only gets fired if the key has less than 10 days left.
-            if (guildKey != null && guildKey.validFor() <= 10 && guildKey.validFor() > 1) {
-                guildKey.renew();
-            }
-        }
-    }
-
     public void register(Class<? extends TextCommand> clazz) {
         var cmd = newCommands.register(clazz);
         var p = new ProxyCommand(cmd);
@@ -557,7 +565,7 @@ public class CommandRegistry {
     }
 
 
-    private void sendDisabledNotice(MessageReceivedEvent event, MongoGuild data, CommandDisableLevel level) {
+    private void sendDisabledNotice(MessageReceivedEvent event, GuildDispatchView data, CommandDisableLevel level) {
         if (data.isCommandWarningDisplay() && level != CommandDisableLevel.NONE) {
             event.getChannel().sendMessageFormat("%sThis command is disabled on this server. Reason: %s",
                     EmoteReference.ERROR, Utils.capitalize(level.getName())
@@ -82,7 +82,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -101,9 +100,7 @@ public class MantaroCore {
 
     private LoadState loadState = PRELOAD;
     private final Map<Integer, Shard> shards = new ConcurrentHashMap<>();
-    private final ExecutorService threadPool = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("Mantaro Thread-%d").build()
-    );
+    private final CommandExecutor commandExecutor;
     private final Config config;
     private final boolean isDebug;
     private String commandsPackage;
@@ -116,7 +113,10 @@ public class MantaroCore {
     public MantaroCore(Config config, boolean isDebug) {
         this.config = config;
         this.isDebug = isDebug;
-        Metrics.THREAD_POOL_COLLECTOR.add("mantaro-executor", threadPool);
+        this.commandExecutor = new CommandExecutor(config.getCommandCoreThreads(), config.getCommandThreads(),
+                config.getCommandThreadIdle(), config.getCommandQueueSize()
+        );
+        Metrics.THREAD_POOL_COLLECTOR.add("mantaro-executor", commandExecutor.getExecutor());
     }
 
     public boolean hasLoadedCompletely() {
@@ -274,8 +274,8 @@ public class MantaroCore {
                     .setSessionController(controller)
                     .addEventListeners(eventListeners)
                     .addEventListenerProviders(List.of(
-                            id -> new CommandListener(commandProcessor, threadPool, getShard(id).getMessageCache()),
-                            id -> new MantaroListener(threadPool, getShard(id).getMessageCache()),
+                            id -> new CommandListener(commandProcessor, commandExecutor, getShard(id).getMessageCache()),
+                            id -> new MantaroListener(commandExecutor, getShard(id).getMessageCache()),
                             id -> getShard(id).getListener()
                     ))
                     .setEventManagerProvider(id -> getShard(id).getManager())
@@ -362,7 +362,8 @@ public class MantaroCore {
             this.shardManager = shardManager.build();
 
             //This is so it doesn't block command registering, lol.
-            threadPool.submit(() -> {
+            // Waits for as long as it takes the shards to log in, so it gets its own thread instead of holding one of the command executor.
+            new Thread(() -> {
                 log.info("CountdownLatch started: Awaiting for {} shards to be counted down to start PostLoad.", latchCount);
 
                 try {
@@ -375,7 +376,7 @@ public class MantaroCore {
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
-            });
+            }, "Mantaro PostLoad Waiter").start();
         } catch (InvalidTokenException e) {
             throw new IllegalStateException(e);
         }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core.command.helpers;
+
+import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.ManagedMongoObject;
+import net.kodehawa.mantarobot.db.entities.Marriage;
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Holds every entity loaded during a single command invocation, so asking for the same entity twice
+ * gives back the same instance (and writes go to the same instance) instead of hitting the database again.
+ * Only lasts until the command returns: CommandRegistry closes it then, since anything that runs later
+ * (button or reaction callbacks, for example) has to see what happened in between.
+ */
+public class EntityScope {
+    private final ManagedDatabase managedDatabase;
+    // table:id -> entity
+    private final Map<String, ManagedMongoObject> entities = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public EntityScope(@Nonnull ManagedDatabase managedDatabase) {
+        this.managedDatabase = managedDatabase;
+    }
+
+    /**
+     * Adds already-loaded entities to this scope, for example, the ones CommandRegistry loads before
+     * running the command.
+     *
+     * @param objects The entities to add. Nulls are ignored.
+     * @return This scope, for chaining.
+     */
+    @Nonnull
+    public EntityScope seed(@Nullable ManagedMongoObject... objects) {
+        if (objects == null || closed) {
+            return this;
+        }
+
+        for (var object : objects) {
+            if (object != null) {
+                entities.putIfAbsent(key(object.getTableName(), object.getId()), object);
+            }
+        }
+
+        return this;
+    }
+
+    @Nonnull
+    public Player getPlayer(@Nonnull String id) {
+        return get(Player.DB_TABLE, id, managedDatabase::getPlayer);
+    }
+
+    @Nonnull
+    public MongoUser getUser(@Nonnull String id) {
+        return get(MongoUser.DB_TABLE, id, managedDatabase::getUser);
+    }
+
+    @Nonnull
+    public MongoGuild getGuild(@Nonnull String id) {
+        return get(MongoGuild.DB_TABLE, id, managedDatabase::getGuild);
+    }
+
+    @Nonnull
+    public PlayerStats getPlayerStats(@Nonnull String id) {
+        return get(PlayerStats.DB_TABLE, id, managedDatabase::getPlayerStats);
+    }
+
+    // Can be null, in which case we don't remember it (and we'll ask again next time).
+    @Nullable
+    public Marriage getMarriage(@Nullable String id) {
+        if (id == null) {
+            return null;
+        }
+
+        return get(Marriage.DB_TABLE, id, managedDatabase::getMarriage);
+    }
+
+    /**
+     * Loads the player, user, stats and marriage of someone concurrently, and adds them to this scope.
+     * Whatever is already here doesn't get loaded again. The marriage needs the user first, the rest go all at once.
+     *
+     * @param userId The user id.
+     * @return A future that completes once everything is in this scope.
+     */
+    @Nonnull
+    public CompletableFuture<Void> preload(@Nonnull String userId) {
+        var player = preload(Player.DB_TABLE, userId, managedDatabase::getPlayerAsync);
+        var stats = preload(PlayerStats.DB_TABLE, userId, managedDatabase::getPlayerStatsAsync);
+        var marriage = preload(MongoUser.DB_TABLE, userId, managedDatabase::getUserAsync).thenCompose(user -> {
+            var marriageId = user.getMarriageId();
+            return marriageId == null ? CompletableFuture.<Marriage>completedFuture(null) :
+                    preload(Marriage.DB_TABLE, marriageId, managedDatabase::getMarriageAsync);
+        });
+
+        return CompletableFuture.allOf(player, stats, marriage);
+    }
+
+    /**
+     * Forgets everything in this scope. From here on every getter loads the entity again, as if there was no scope.
+     */
+    public void close() {
+        closed = true;
+        entities.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ManagedMongoObject> CompletableFuture<T> preload(String table, String id, Function<String, CompletableFuture<T>> loader) {
+        if (closed) {
+            return loader.apply(id);
+        }
+
+        var key = key(table, id);
+        var existing = entities.get(key);
+        if (existing != null) {
+            return CompletableFuture.completedFuture((T) existing);
+        }
+
+        return loader.apply(id).thenApply(loaded -> {
+            if (loaded == null) {
+                return null;
+            }
+
+            // Someone could've asked for it while we were loading, keep theirs (it might have changes already).
+            var previous = entities.putIfAbsent(key, loaded);
+            return previous == null ? loaded : (T) previous;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ManagedMongoObject> T get(String table, String id, Function<String, T> loader) {
+        if (closed) {
+            return loader.apply(id);
+        }
+
+        return (T) entities.computeIfAbsent(key(table, id), k -> loader.apply(id));
+    }
+
+    private static String key(String table, String id) {
+        return table + ":" + id;
+    }
+}
@@ -80,60 +80,63 @@ public interface IContext {
         return MantaroBot.getInstance();
     }
 
+    // Entities loaded during this invocation. Prefer the getters below over calling db() directly.
+    EntityScope getEntityScope();
+
     default Player getPlayer() {
-        return db().getPlayer(getAuthor());
+        return getPlayer(getAuthor());
     }
 
     default Player getPlayer(User user) {
-        return db().getPlayer(user);
+        return getPlayer(user.getId());
     }
 
     default MongoUser getDBUser() {
-        return db().getUser(getAuthor());
+        return getDBUser(getAuthor());
     }
 
     default MongoUser getDBUser(User user) {
-        return db().getUser(user);
+        return getDBUser(user.getId());
     }
 
     default MongoGuild getDBGuild() {
-        return db().getGuild(getGuild());
+        return getEntityScope().getGuild(getGuild().getId());
     }
 
     default Marriage getMarriage(@NotNull MongoUser userData) {
-        return db().getMarriage(userData.getMarriageId());
+        return getEntityScope().getMarriage(userData.getMarriageId());
     }
 
     default PlayerStats getPlayerStats() {
-        return db().getPlayerStats(getMember());
+        return getPlayerStats(getMember());
     }
 
     default PlayerStats getPlayerStats(String id) {
-        return db().getPlayerStats(id);
+        return getEntityScope().getPlayerStats(id);
     }
 
     default PlayerStats getPlayerStats(User user) {
-        return db().getPlayerStats(user);
+        return getPlayerStats(user.getId());
     }
 
     default PlayerStats getPlayerStats(Member member) {
-        return db().getPlayerStats(member);
+        return getPlayerStats(member.getUser());
     }
 
     default MongoUser getDBUser(Member member) {
-        return db().getUser(member);
+        return getDBUser(member.getUser());
     }
 
     default MongoUser getDBUser(String id) {
-        return db().getUser(id);
+        return getEntityScope().getUser(id);
     }
 
     default Player getPlayer(Member member) {
-        return db().getPlayer(member);
+        return getPlayer(member.getUser());
     }
 
     default Player getPlayer(String id) {
-        return db().getPlayer(id);
+        return getEntityScope().getPlayer(id);
     }
 
     default Color getMemberColor(@NotNull Member member) {
@@ -18,11 +18,13 @@
 package net.kodehawa.mantarobot.core.command.i18n;
 
 import net.kodehawa.mantarobot.data.I18n;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
 import net.kodehawa.mantarobot.db.entities.MongoGuild;
 import net.kodehawa.mantarobot.db.entities.MongoUser;
 
 public class I18nContext {
     private MongoGuild guildData;
+    private GuildDispatchView guildView;
     private MongoUser userData;
     private I18n i18n = null;
 
@@ -31,6 +33,11 @@ public class I18nContext {
         this.userData = userData;
     }
 
+    public I18nContext(GuildDispatchView guildView, MongoUser userData) {
+        this.guildView = guildView;
+        this.userData = userData;
+    }
+
     public I18nContext(I18n i18n) {
         this.i18n = i18n;
     }
@@ -53,17 +60,21 @@ public class I18nContext {
             return i18n.getLanguage();
         }
 
-        if (guildData == null && userData == null) {
+        if (guildData == null && guildView == null && userData == null) {
             return "en_US";
         }
 
         String lang;
         if (userData == null)
-            lang = guildData.getLang();
+            lang = getGuildLang();
         else
-            lang = userData.getLang() == null || userData.getLang().isEmpty() ? guildData.getLang() : userData.getLang();
+            lang = userData.getLang() == null || userData.getLang().isEmpty() ? getGuildLang() : userData.getLang();
 
         I18n context = I18n.getForLanguage(lang);
         return context == null ? "en_US" : lang;
     }
+
+    private String getGuildLang() {
+        return guildData != null ? guildData.getLang() : guildView.getLang();
+    }
 }
@@ -69,9 +69,9 @@ public class CommandProcessor {
 
         // Mantaro prefixes.
         String[] prefix = config.prefix;
-        // Guild-specific prefix.
-        final var dbGuild = MantaroData.db().getGuild(event.getGuild());
-        var customPrefix = dbGuild.getGuildCustomPrefix();
+        // Guild-specific prefix. We only need what's needed to dispatch, not the whole guild.
+        final var guildView = MantaroData.db().getGuildDispatchView(event.getGuild());
+        var customPrefix = guildView.getGuildCustomPrefix();
         // Possible mentions
         boolean isMention = false;
         String[] mentionPrefixes = {
@@ -110,7 +110,7 @@ public class CommandProcessor {
         String content = parts[1];
 
         // Run the actual command here.
-        REGISTRY.process(event, dbGuild, cmdName, content, usedPrefix, isMention);
+        REGISTRY.process(event, guildView, cmdName, content, usedPrefix, isMention);
 
         final long end = System.currentTimeMillis();
         commandTime.observe(end - start);
@@ -14,6 +14,7 @@ import net.dv8tion.jda.api.requests.restaction.WebhookMessageEditAction;
 import net.dv8tion.jda.api.sharding.ShardManager;
 import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import net.kodehawa.mantarobot.commands.music.MantaroAudioManager;
+import net.kodehawa.mantarobot.core.command.helpers.EntityScope;
 import net.kodehawa.mantarobot.core.command.helpers.IContext;
 import net.kodehawa.mantarobot.core.command.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.Config;
@@ -33,6 +34,7 @@ import java.util.EnumSet;
 public abstract class BaseInteractionContext<T extends GenericCommandInteractionEvent> implements IContext {
     protected final ManagedDatabase managedDatabase = MantaroData.db();
     protected final Config config = MantaroData.config().get();
+    protected final EntityScope entityScope = new EntityScope(managedDatabase);
     protected final T event;
     protected final I18nContext i18n;
     protected boolean deferred = false;
@@ -409,13 +411,18 @@ public abstract class BaseInteractionContext<T extends GenericCommandInteraction
         return managedDatabase;
     }
 
+    @Override
+    public EntityScope getEntityScope() {
+        return entityScope;
+    }
+
     @Override
     public Config getConfig() {
         return config;
     }
 
     public boolean isUserBlacklisted(String id) {
-        return getMantaroData().getBlackListedUsers().contains(id);
+        return managedDatabase.getBlacklist().isUserBlacklisted(id);
     }
 
     @Override
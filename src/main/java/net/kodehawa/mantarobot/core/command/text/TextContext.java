@@ -37,6 +37,7 @@ import net.kodehawa.mantarobot.core.command.argument.MarkedBlock;
 import net.kodehawa.mantarobot.core.command.argument.Parser;
 import net.kodehawa.mantarobot.core.command.argument.Parsers;
 import net.kodehawa.mantarobot.core.command.argument.split.StringSplitter;
+import net.kodehawa.mantarobot.core.command.helpers.EntityScope;
 import net.kodehawa.mantarobot.core.command.helpers.IContext;
 import net.kodehawa.mantarobot.core.command.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.Config;
@@ -67,18 +68,21 @@ public class TextContext implements IContext {
     private final MessageReceivedEvent event;
     private final Arguments args;
     private final boolean isMentionPrefix;
+    private final EntityScope entityScope;
     private I18nContext i18n;
     private String customContent; // opts moment
 
-    private TextContext(@Nonnull MessageReceivedEvent event, @Nonnull I18nContext i18n, @Nonnull Arguments args, boolean isMentionPrefix) {
+    private TextContext(@Nonnull MessageReceivedEvent event, @Nonnull I18nContext i18n, @Nonnull Arguments args,
+                        boolean isMentionPrefix, @Nonnull EntityScope entityScope) {
         this.event = event;
         this.i18n = i18n;
         this.args = args;
         this.isMentionPrefix = isMentionPrefix;
+        this.entityScope = entityScope;
     }
 
     public TextContext(@Nonnull MessageReceivedEvent event, @Nonnull I18nContext i18n, @Nonnull String contentAfterPrefix, boolean isMentionPrefix) {
-        this(event, i18n, new Arguments(SPLITTER.split(contentAfterPrefix), 0), isMentionPrefix);
+        this(event, i18n, new Arguments(SPLITTER.split(contentAfterPrefix), 0), isMentionPrefix, new EntityScope(MantaroData.db()));
     }
 
     public Arguments arguments() {
@@ -86,7 +90,7 @@ public class TextContext implements IContext {
     }
 
     public TextContext snapshot() {
-        return new TextContext(event, i18n, args.snapshot(), isMentionPrefix);
+        return new TextContext(event, i18n, args.snapshot(), isMentionPrefix, entityScope);
     }
 
     public MessageReceivedEvent getEvent() {
@@ -327,6 +331,11 @@ public class TextContext implements IContext {
         return managedDatabase;
     }
 
+    @Override
+    public EntityScope getEntityScope() {
+        return entityScope;
+    }
+
     @Override
     public Message sendResult(String s) {
         return getChannel().sendMessage(s).complete();
@@ -51,6 +51,8 @@ import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.BirthdayCmd;
 import net.kodehawa.mantarobot.commands.currency.TextChannelGround;
 import net.kodehawa.mantarobot.commands.custom.legacy.DynamicModifiers;
+import net.kodehawa.mantarobot.core.CommandExecutor;
+import net.kodehawa.mantarobot.core.CommandExecutor.Lane;
 import net.kodehawa.mantarobot.core.MantaroEventManager;
 import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
 import net.kodehawa.mantarobot.core.listeners.helpers.WelcomeUtils;
@@ -73,7 +75,6 @@ import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
 
 public class MantaroListener implements EventListener {
     private static final Logger LOG = LoggerFactory.getLogger(MantaroListener.class);
@@ -82,12 +83,12 @@ public class MantaroListener implements EventListener {
     // Channels we could send the greet message to.
     private static final List<String> CHANNEL_NAMES = List.of("general", "general-chat", "chat", "lounge", "main-chat", "main");
 
-    private final ExecutorService threadPool;
+    private final CommandExecutor executor;
     private final Cache<Long, Optional<CachedMessage>> messageCache;
     private final MantaroBot bot;
 
-    public MantaroListener(ExecutorService threadPool, Cache<Long, Optional<CachedMessage>> messageCache) {
-        this.threadPool = threadPool;
+    public MantaroListener(CommandExecutor executor, Cache<Long, Optional<CachedMessage>> messageCache) {
+        this.executor = executor;
         this.messageCache = messageCache;
         bot = MantaroBot.getInstance();
     }
@@ -95,7 +96,7 @@ public class MantaroListener implements EventListener {
     @Override
     public void onEvent(@NotNull GenericEvent event) {
         if (event instanceof ReadyEvent) {
-            threadPool.execute(() -> this.updateStats(event.getJDA()));
+            executor.execute(Lane.LISTENER, () -> this.updateStats(event.getJDA()));
             return;
         }
 
@@ -105,18 +106,19 @@ public class MantaroListener implements EventListener {
         }
 
         // !! Member events start
+        // Join/leave handling gives out autoroles and sends greetings, so it can't be shed like the log feature can.
         if (event instanceof GuildMemberJoinEvent evt) {
-            threadPool.execute(() -> onUserJoin(evt.getGuild(), evt.getMember(), evt.getUser()));
+            executeMemberEvent(evt.getGuild(), "join", () -> onUserJoin(evt.getGuild(), evt.getMember(), evt.getUser()));
             return;
         }
 
         if (event instanceof GuildMemberUpdatePendingEvent evt) {
-            threadPool.execute(() -> onUserJoin(evt.getGuild(), evt.getMember(), evt.getUser()));
+            executeMemberEvent(evt.getGuild(), "pending update", () -> onUserJoin(evt.getGuild(), evt.getMember(), evt.getUser()));
             return;
         }
 
         if (event instanceof GuildMemberRemoveEvent evt) {
-            threadPool.execute(() -> onUserLeave(evt));
+            executeMemberEvent(evt.getGuild(), "leave", () -> onUserLeave(evt));
             return;
         }
 
@@ -128,12 +130,12 @@ public class MantaroListener implements EventListener {
 
         // !! Events needed for the log feature start
         if (event instanceof MessageUpdateEvent evt) {
-            threadPool.execute(() -> logEdit(evt));
+            executor.execute(Lane.LISTENER, () -> logEdit(evt));
             return;
         }
 
         if (event instanceof MessageDeleteEvent evt) {
-            threadPool.execute(() -> logDelete(evt));
+            executor.execute(Lane.LISTENER, () -> logDelete(evt));
             return;
         }
 
@@ -195,6 +197,12 @@ public class MantaroListener implements EventListener {
         // !! Internal event end
     }
 
+    private void executeMemberEvent(Guild guild, String type, Runnable task) {
+        if (!executor.execute(Lane.COMMAND, task)) {
+            LOG.warn("Dropped member {} event for guild {}, the command executor is full", type, guild.getId());
+        }
+    }
+
     /**
      * Handles automatic deliver of patreon keys. Should only deliver keys when
      * - A user was already in the guild or just joined and got the "Patreon" role assigned by the Patreon bot
@@ -207,7 +215,8 @@ public class MantaroListener implements EventListener {
     private void handleNewPatron(GuildMemberRoleAddEvent event) {
         //Only in Mantaro's guild...
         if (event.getGuild().getIdLong() == 213468583252983809L && !CONFIG.isPremiumBot()) {
-            threadPool.execute(() -> {
+            // Not the listener lane: if this gets dropped, a patron doesn't get their key.
+            executor.execute(Lane.COMMAND, () -> {
                 var hasPatronRole = event.getMember().getRoles().stream().anyMatch(r -> r.getId().equals("290257037072531466"));
                 // No patron role to be seen here.
                 if (!hasPatronRole) {
@@ -652,10 +661,8 @@ public class MantaroListener implements EventListener {
             LOG.error("Failed to send leave message!", e);
         }
 
-        var allowedBirthdays = dbGuild.getAllowedBirthdays();
-        if (allowedBirthdays.contains(user.getId())) {
+        if (dbGuild.isBirthdayAllowed(user.getId())) {
             dbGuild.removeAllowedBirthday(user.getId());
-            dbGuild.updateAllChanged();
 
             var bdCacheMap = BirthdayCmd.getGuildBirthdayCache().getIfPresent(guild.getIdLong());
             if (bdCacheMap != null) {
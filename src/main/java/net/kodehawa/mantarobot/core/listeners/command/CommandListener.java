@@ -29,10 +29,13 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.exceptions.PermissionException;
 import net.dv8tion.jda.api.hooks.EventListener;
 import net.kodehawa.mantarobot.commands.currency.profile.Badge;
+import net.kodehawa.mantarobot.core.CommandExecutor;
+import net.kodehawa.mantarobot.core.CommandExecutor.Lane;
 import net.kodehawa.mantarobot.core.command.processor.CommandProcessor;
 import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
 import net.kodehawa.mantarobot.data.I18n;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.InsufficientAmountException;
 import net.kodehawa.mantarobot.utils.LanguageKeyNotFoundException;
 import net.kodehawa.mantarobot.utils.Snow64;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -43,19 +46,18 @@ import org.slf4j.LoggerFactory;
 import java.util.IllegalFormatException;
 import java.util.Optional;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ExecutorService;
 
 public class CommandListener implements EventListener {
     private static final Logger log = LoggerFactory.getLogger(CommandListener.class);
     // Commands ran this session.
     private static int commandTotal = 0;
     private final CommandProcessor commandProcessor;
-    private final ExecutorService threadPool;
+    private final CommandExecutor executor;
     private final Cache<Long, Optional<CachedMessage>> messageCache;
 
-    public CommandListener(CommandProcessor processor, ExecutorService threadPool, Cache<Long, Optional<CachedMessage>> messageCache) {
+    public CommandListener(CommandProcessor processor, CommandExecutor executor, Cache<Long, Optional<CachedMessage>> messageCache) {
         this.commandProcessor = processor;
-        this.threadPool = threadPool;
+        this.executor = executor;
         this.messageCache = messageCache;
     }
 
@@ -88,22 +90,32 @@ public class CommandListener implements EventListener {
                 return;
             }
 
-            threadPool.execute(() -> onCommand(msg));
+            // If we're overloaded, text commands just get dropped: answering them would only add to the load.
+            executor.execute(Lane.COMMAND, () -> onCommand(msg));
         }
 
         if (event instanceof SlashCommandInteractionEvent slashInteraction) {
-            threadPool.execute(() -> onSlash(slashInteraction));
+            if (!executor.execute(Lane.INTERACTION, () -> onSlash(slashInteraction))) {
+                sendOverloaded(slashInteraction);
+            }
         }
 
         if (event instanceof CommandAutoCompleteInteractionEvent autoCompleteInteraction) {
-            threadPool.execute(() -> commandProcessor.runAutocomplete(autoCompleteInteraction));
+            executor.execute(Lane.INTERACTION, () -> commandProcessor.runAutocomplete(autoCompleteInteraction));
         }
 
         if (event instanceof UserContextInteractionEvent userInteraction) {
-            threadPool.execute(() -> onUserContext(userInteraction));
+            if (!executor.execute(Lane.INTERACTION, () -> onUserContext(userInteraction))) {
+                sendOverloaded(userInteraction);
+            }
         }
     }
 
+    // Else the user just sees "The application did not respond". This only queues a request, so it's fine to do on the event thread.
+    private void sendOverloaded(GenericCommandInteractionEvent event) {
+        sendSlashError(event, "%sI'm a bit overloaded right now, please try again in a few seconds.", EmoteReference.STOPWATCH);
+    }
+
     private void onSlash(SlashCommandInteractionEvent event) {
         try {
             if (commandProcessor.runSlash(event)) {
@@ -133,6 +145,9 @@ public class CommandListener implements EventListener {
                 sendSlashError(event, "I cannot perform this action due to the lack of permission! " +
                         "Is the role I might be trying to assign higher than my role? Do I have the correct permissions/hierarchy to perform this action?");
             }
+        } catch (InsufficientAmountException e) {
+            // Something else spent it between the command checking and saving, and nothing got taken.
+            sendSlashError(event, "%sLooks like you don't have enough for that anymore, something else used it first. Nothing was taken, try again!", EmoteReference.ERROR);
         } catch (Exception e) {
             var id = Snow64.toSnow64(event.getIdLong());
             if (event.getGuild() == null) {
@@ -176,6 +191,9 @@ public class CommandListener implements EventListener {
                 sendSlashError(event, "I cannot perform this action due to the lack of permission! " +
                         "Is the role I might be trying to assign higher than my role? Do I have the correct permissions/hierarchy to perform this action?");
             }
+        } catch (InsufficientAmountException e) {
+            // Something else spent it between the command checking and saving, and nothing got taken.
+            sendSlashError(event, "%sLooks like you don't have enough for that anymore, something else used it first. Nothing was taken, try again!", EmoteReference.ERROR);
         } catch (Exception e) {
             var id = Snow64.toSnow64(event.getIdLong());
             if (event.getGuild() == null) {
@@ -247,6 +265,11 @@ public class CommandListener implements EventListener {
             ).queue();
 
             log.warn("Exception caught and alternate message sent. We should look into this, anyway (ID: {})", id, e);
+        } catch (InsufficientAmountException e) {
+            // Something else spent it between the command checking and saving, and nothing got taken.
+            event.getChannel().sendMessageFormat(
+                    "%sLooks like you don't have enough for that anymore, something else used it first. Nothing was taken, try again!", EmoteReference.ERROR
+            ).queue();
         } catch (Exception e) {
             var context = I18n.of(event.getGuild());
             var id = Snow64.toSnow64(event.getMessage().getIdLong());
@@ -61,6 +61,26 @@ public class Config {
     public int memberCacheSize = 10_000;
     public boolean handleRatelimits = true;
     public boolean testing = false;
+    public int guildCacheSize = 20_000;
+    public int guildCacheExpiry = 300; // In seconds
+    public int entityCacheBudget = 64; // In MB, per entity type (players, users)
+    public int entityCacheExpiry = 600; // In seconds
+    public int marriageCacheSize = 20_000; // Marriages are small, so this one is bounded by count. Same expiry as the other entities
+    public boolean writeBehind = false;
+    public int writeBehindInterval = 250; // In milliseconds
+    public int writeBehindBatchSize = 500; // In documents
+    public String databaseBackend = "mongo"; // "mongo", or "memory" to run without a database server (see InMemoryManagedDatabase)
+    public String memoryDatabaseFile = "memory_db.json"; // Where the "memory" backend keeps its data between restarts, null to not keep it
+    public boolean existenceFilter = true; // Skip looking up players, users and stats that were never saved (see ExistenceFilter)
+    public int existenceFilterRefresh = 360; // In minutes
+    public String analyticsMongoUri = null; // Where scans and leaderboards connect to, null to use mongoUri
+    public int analyticsPoolSize = 8; // Connections for scans and leaderboards, 0 to share the main pool
+    public String analyticsReadPreference = "secondaryPreferred"; // See com.mongodb.ReadPreference#valueOf
+    public int scanBatchSize = 500; // Documents fetched at a time when going through a whole collection
+    public int commandCoreThreads = 16; // Threads kept around for commands and listeners, even when idle
+    public int commandThreads = 100; // Most threads running commands and listeners at once, only started while every other one is busy
+    public int commandThreadIdle = 60; // In seconds, how long a thread over commandCoreThreads can sit idle before it goes away
+    public int commandQueueSize = 5_000; // Most commands and events waiting for a thread, anything over this gets rejected
 
     public Config() { }
 
@@ -225,6 +245,86 @@ public class Config {
         return isPremiumBot() || isSelfHost() || isTesting();
     }
 
+    public int getGuildCacheSize() {
+        return guildCacheSize;
+    }
+
+    public int getGuildCacheExpiry() {
+        return guildCacheExpiry;
+    }
+
+    public int getEntityCacheBudget() {
+        return entityCacheBudget;
+    }
+
+    public int getEntityCacheExpiry() {
+        return entityCacheExpiry;
+    }
+
+    public int getMarriageCacheSize() {
+        return marriageCacheSize;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    public int getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public String getDatabaseBackend() {
+        return databaseBackend;
+    }
+
+    public String getMemoryDatabaseFile() {
+        return memoryDatabaseFile;
+    }
+
+    public boolean isExistenceFilter() {
+        return existenceFilter;
+    }
+
+    public int getExistenceFilterRefresh() {
+        return existenceFilterRefresh;
+    }
+
+    public String getAnalyticsMongoUri() {
+        return analyticsMongoUri == null ? mongoUri : analyticsMongoUri;
+    }
+
+    public int getAnalyticsPoolSize() {
+        return analyticsPoolSize;
+    }
+
+    public int getScanBatchSize() {
+        return scanBatchSize;
+    }
+
+    public int getCommandCoreThreads() {
+        return commandCoreThreads;
+    }
+
+    public int getCommandThreads() {
+        return commandThreads;
+    }
+
+    public int getCommandThreadIdle() {
+        return commandThreadIdle;
+    }
+
+    public int getCommandQueueSize() {
+        return commandQueueSize;
+    }
+
+    public String getAnalyticsReadPreference() {
+        return analyticsReadPreference;
+    }
+
     public String getMongoUri() {
         return mongoUri;
     }
@@ -19,10 +19,16 @@ package net.kodehawa.mantarobot.data;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.connection.ConnectionPoolSettings;
+import net.kodehawa.mantarobot.ExtraRuntimeOptions;
+import net.kodehawa.mantarobot.db.ConnectionPoolMetrics;
+import net.kodehawa.mantarobot.db.InMemoryManagedDatabase;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.MongoManagedDatabase;
+import net.kodehawa.mantarobot.db.codecs.EntityCodecProvider;
 import net.kodehawa.mantarobot.db.codecs.MapCodecProvider;
 import net.kodehawa.mantarobot.utils.ShutdownCodes;
 import net.kodehawa.mantarobot.utils.data.JsonDataManager;
@@ -34,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.JedisPool;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
@@ -44,15 +51,21 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 public class MantaroData {
     private static final Logger log = LoggerFactory.getLogger(MantaroData.class);
     private static JsonDataManager<Config> config;
-    private static ManagedDatabase db;
-    private static MongoClient mongoClient;
+    // All of these get created once, on first use, and can be first used from any thread: see the double-checked locking below.
+    private static volatile ManagedDatabase db;
+    private static volatile MongoClient mongoClient;
+    private static volatile com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient;
+    private static volatile MongoClient analyticsMongoClient;
     private static final CodecProvider pojoCodecProvider = PojoCodecProvider.builder()
             .automatic(true)
             .register(new MapCodecProvider())
             .conventions(Arrays.asList(Conventions.CLASS_AND_PROPERTY_CONVENTION, Conventions.ANNOTATION_CONVENTION, Conventions.OBJECT_ID_GENERATORS, Conventions.SET_PRIVATE_FIELDS_CONVENTION))
             .build();
 
-    private static final CodecRegistry pojoCodecRegistry = fromRegistries(getDefaultCodecRegistry(), fromProviders(pojoCodecProvider));
+    // The hand-written entity codecs need to go first, else the POJO codecs will be picked for our entities.
+    private static final CodecRegistry pojoCodecRegistry = fromRegistries(getDefaultCodecRegistry(), ExtraRuntimeOptions.POJO_CODECS ?
+            fromProviders(pojoCodecProvider) : fromProviders(new EntityCodecProvider(pojoCodecProvider), pojoCodecProvider)
+    );
     private static final JedisPool defaultJedisPool = new JedisPool(config().get().jedisPoolAddress, config().get().jedisPoolPort);
 
     public static JsonDataManager<Config> config() {
@@ -67,26 +80,14 @@ public class MantaroData {
         var config = config().get();
         if (mongoClient == null) {
             synchronized (MantaroData.class) {
-                try {
-                    ConnectionString connectionString = new ConnectionString(config.getMongoUri());
-                    ConnectionPoolSettings connectionPoolSettings = ConnectionPoolSettings.builder()
-                            .minSize(2)
-                            .maxSize(30)
-                            .maxConnectionIdleTime(0, TimeUnit.MILLISECONDS)
-                            .maxConnectionLifeTime(120, TimeUnit.SECONDS)
-                            .build();
-
-                    MongoClientSettings clientSettings = MongoClientSettings.builder()
-                            .applyConnectionString(connectionString)
-                            .applyToConnectionPoolSettings(builder -> builder.applySettings(connectionPoolSettings))
-                            .codecRegistry(pojoCodecRegistry)
-                            .build();
-
-                    mongoClient = MongoClients.create(clientSettings);
-                    log.info("Established first MongoDB connection.");
-                } catch (Exception e) {
-                    log.error("Cannot connect to database! Bailing out", e);
-                    System.exit(ShutdownCodes.FATAL_FAILURE);
+                if (mongoClient == null) {
+                    try {
+                        mongoClient = MongoClients.create(clientSettings(config.getMongoUri(), 30, "main").build());
+                        log.info("Established first MongoDB connection.");
+                    } catch (Exception e) {
+                        log.error("Cannot connect to database! Bailing out", e);
+                        System.exit(ShutdownCodes.FATAL_FAILURE);
+                    }
                 }
             }
         }
@@ -94,12 +95,90 @@ public class MantaroData {
         return mongoClient;
     }
 
+    /**
+     * The non-blocking (reactive streams) client, with the same settings and codecs as {@link #mongoConnection()}.
+     * It has its own connection pool.
+     */
+    public static com.mongodb.reactivestreams.client.MongoClient reactiveMongoConnection() {
+        var config = config().get();
+        if (reactiveMongoClient == null) {
+            synchronized (MantaroData.class) {
+                if (reactiveMongoClient == null) {
+                    reactiveMongoClient = com.mongodb.reactivestreams.client.MongoClients.create(
+                            clientSettings(config.getMongoUri(), 30, "reactive").build()
+                    );
+                    log.info("Established first reactive MongoDB connection.");
+                }
+            }
+        }
+
+        return reactiveMongoClient;
+    }
+
+    /**
+     * The client for scans and aggregations (leaderboards, birthdays, full collection reads).
+     * It has its own, smaller, connection pool, so those don't leave command lookups waiting on a connection,
+     * and reads from secondaries by default. If the pool size is set to 0, this is the same as {@link #mongoConnection()}.
+     */
+    public static MongoClient analyticsMongoConnection() {
+        var config = config().get();
+        if (config.getAnalyticsPoolSize() <= 0) {
+            return mongoConnection();
+        }
+
+        if (analyticsMongoClient == null) {
+            synchronized (MantaroData.class) {
+                if (analyticsMongoClient == null) {
+                    analyticsMongoClient = MongoClients.create(clientSettings(config.getAnalyticsMongoUri(), config.getAnalyticsPoolSize(), "analytics")
+                            .readPreference(ReadPreference.valueOf(config.getAnalyticsReadPreference()))
+                            .build()
+                    );
+                    log.info("Established first analytics MongoDB connection.");
+                }
+            }
+        }
+
+        return analyticsMongoClient;
+    }
+
+    private static MongoClientSettings.Builder clientSettings(String uri, int maxPoolSize, String poolName) {
+        ConnectionString connectionString = new ConnectionString(uri);
+        ConnectionPoolSettings connectionPoolSettings = ConnectionPoolSettings.builder()
+                .minSize(Math.min(2, maxPoolSize))
+                .maxSize(maxPoolSize)
+                .maxConnectionIdleTime(0, TimeUnit.MILLISECONDS)
+                .maxConnectionLifeTime(120, TimeUnit.SECONDS)
+                .addConnectionPoolListener(new ConnectionPoolMetrics(poolName))
+                .build();
+
+        return MongoClientSettings.builder()
+                .applyConnectionString(connectionString)
+                .applyToConnectionPoolSettings(builder -> builder.applySettings(connectionPoolSettings))
+                .codecRegistry(pojoCodecRegistry);
+    }
+
+    // Creating the database starts executors, subscribes to Redis and ensures indexes: there can only ever be one.
+    // Static initializers (ex. ModLog) call this from whatever thread loads them first, so this needs to be locked.
     public static ManagedDatabase db() {
-        if (db == null) {
-            db = new ManagedDatabase(mongoConnection());
+        var current = db;
+        if (current != null) {
+            return current;
         }
 
-        return db;
+        synchronized (MantaroData.class) {
+            if (db == null) {
+                var config = config().get();
+                if ("memory".equalsIgnoreCase(config.getDatabaseBackend())) {
+                    var file = config.getMemoryDatabaseFile();
+                    log.warn("Using the in-memory database backend! Nothing gets saved to MongoDB.");
+                    db = new InMemoryManagedDatabase(pojoCodecRegistry, file == null ? null : Path.of(file));
+                } else {
+                    db = new MongoManagedDatabase(mongoConnection(), reactiveMongoConnection(), analyticsMongoConnection());
+                }
+            }
+
+            return db;
+        }
     }
 
     public static JedisPool getDefaultJedisPool() {
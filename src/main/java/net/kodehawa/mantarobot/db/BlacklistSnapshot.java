@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import net.kodehawa.mantarobot.db.entities.MantaroObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable, node-local copy of the guild and user blacklists in {@link MantaroObject}.
+ * Every command checks these, so they're kept as primitive long sets instead of going to the database and doing a
+ * {@link java.util.List#contains(Object)} over strings each time. A new snapshot gets built whenever the blacklists change.
+ */
+public final class BlacklistSnapshot {
+    private final long version;
+    private final LongSet guilds;
+    private final LongSet users;
+
+    private BlacklistSnapshot(long version, LongSet guilds, LongSet users) {
+        this.version = version;
+        this.guilds = guilds;
+        this.users = users;
+    }
+
+    @Nonnull
+    public static BlacklistSnapshot of(@Nonnull MantaroObject data, long version) {
+        return new BlacklistSnapshot(version, LongSet.of(data.getBlackListedGuilds()), LongSet.of(data.getBlackListedUsers()));
+    }
+
+    /**
+     * @return The blacklist version this snapshot was built for. Only meaningful to the backend that built it.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isGuildBlacklisted(long guildId) {
+        return guilds.contains(guildId);
+    }
+
+    public boolean isGuildBlacklisted(@Nonnull String guildId) {
+        return guilds.contains(parse(guildId));
+    }
+
+    public boolean isUserBlacklisted(long userId) {
+        return users.contains(userId);
+    }
+
+    public boolean isUserBlacklisted(@Nonnull String userId) {
+        return users.contains(parse(userId));
+    }
+
+    public int guildCount() {
+        return guilds.size();
+    }
+
+    public int userCount() {
+        return users.size();
+    }
+
+    // Snowflakes are never 0, so it doubles as "not an id".
+    private static long parse(String id) {
+        try {
+            return Long.parseUnsignedLong(id.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Open addressing with linear probing, 0 marks an empty slot. Kept at most half full.
+    private static final class LongSet {
+        private final long[] slots;
+        private final int size;
+
+        private LongSet(long[] slots, int size) {
+            this.slots = slots;
+            this.size = size;
+        }
+
+        static LongSet of(@Nullable Collection<String> ids) {
+            if (ids == null) {
+                ids = List.of();
+            }
+
+            var slots = new long[Math.max(2, Integer.highestOneBit(Math.max(1, ids.size())) << 2)];
+            var size = 0;
+            for (var id : ids) {
+                var value = parse(id);
+                if (value != 0 && insert(slots, value)) {
+                    size++;
+                }
+            }
+
+            return new LongSet(slots, size);
+        }
+
+        private static boolean insert(long[] slots, long value) {
+            var mask = slots.length - 1;
+            for (var i = mix(value) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == value) {
+                    return false;
+                }
+
+                if (slots[i] == 0) {
+                    slots[i] = value;
+                    return true;
+                }
+            }
+        }
+
+        boolean contains(long value) {
+            if (value == 0) {
+                return false;
+            }
+
+            var mask = slots.length - 1;
+            for (var i = mix(value) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == value) {
+                    return true;
+                }
+
+                if (slots[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Snowflakes share most of their low bits within a millisecond, so spread them out first.
+        private static int mix(long value) {
+            var h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+/**
+ * Applies updates to a BSON document the same way MongoDB would. Only knows $set, $unset and $inc, which is all {@link FieldUpdates} writes.
+ * Used by the in-memory backend to store documents, and by {@link EntityCache} to keep what it holds up to date.
+ */
+final class BsonUpdates {
+    private BsonUpdates() { }
+
+    /**
+     * Applies the updates to the document, in place.
+     * Embedded documents on the way get copied instead of changed, so whoever else holds the old ones doesn't see the change.
+     *
+     * @throws UnsupportedOperationException If there's an operator other than $set, $unset or $inc.
+     */
+    static void apply(BsonDocument document, Collection<Bson> updates, CodecRegistry codecRegistry) {
+        for (var update : updates) {
+            var operators = update.toBsonDocument(BsonDocument.class, codecRegistry);
+            for (var operator : operators.entrySet()) {
+                var fields = operator.getValue().asDocument();
+                switch (operator.getKey()) {
+                    case "$set" -> fields.forEach((path, value) -> set(document, path, value));
+                    case "$unset" -> fields.keySet().forEach(path -> unset(document, path));
+                    case "$inc" -> fields.forEach((path, value) -> set(document, path, add(get(document, path), value)));
+                    default -> throw new UnsupportedOperationException("Unsupported update operator " + operator.getKey());
+                }
+            }
+        }
+    }
+
+    @Nullable
+    static BsonValue get(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (var part : path.split("\\.")) {
+            if (current == null || !current.isDocument()) {
+                return null;
+            }
+
+            current = current.asDocument().get(part);
+        }
+
+        return current;
+    }
+
+    // Same type rules as $inc: int stays int unless it overflows, anything with a double becomes a double.
+    private static BsonValue add(@Nullable BsonValue current, BsonValue amount) {
+        if (current == null || current.isNull()) {
+            return amount;
+        }
+
+        if (current.isDouble() || amount.isDouble()) {
+            return new BsonDouble(current.asNumber().doubleValue() + amount.asNumber().doubleValue());
+        }
+
+        var sum = Math.addExact(current.asNumber().longValue(), amount.asNumber().longValue());
+        if (current.isInt32() && amount.isInt32() && sum == (int) sum) {
+            return new BsonInt32((int) sum);
+        }
+
+        return new BsonInt64(sum);
+    }
+
+    private static void set(BsonDocument document, String path, BsonValue value) {
+        var parts = path.split("\\.");
+        var current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            var next = current.get(parts[i]);
+            var copy = next != null && next.isDocument() ? next.asDocument().clone() : new BsonDocument();
+            current.put(parts[i], copy);
+            current = copy;
+        }
+
+        current.put(parts[parts.length - 1], value);
+    }
+
+    private static void unset(BsonDocument document, String path) {
+        var parts = path.split("\\.");
+        var current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            var next = current.get(parts[i]);
+            if (next == null || !next.isDocument()) {
+                return;
+            }
+
+            var copy = next.asDocument().clone();
+            current.put(parts[i], copy);
+            current = copy;
+        }
+
+        current.remove(parts[parts.length - 1]);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reports how busy a MongoDB connection pool is, so we can tell when one is running out of connections.
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolListener {
+    private final String pool;
+
+    /**
+     * @param pool The name to report this pool as (ex. main, analytics).
+     */
+    public ConnectionPoolMetrics(@Nonnull String pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        Metrics.DB_POOL_IN_USE.labels(pool).inc();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        Metrics.DB_POOL_IN_USE.labels(pool).dec();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        Metrics.DB_POOL_CHECKOUT_FAILURES.labels(pool, event.getReason().name().toLowerCase()).inc();
+    }
+}
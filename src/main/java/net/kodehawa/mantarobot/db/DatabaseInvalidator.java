@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.kodehawa.mantarobot.data.MantaroData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPubSub;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Broadcasts and receives cache invalidations between nodes using Redis pub/sub.
+ * Messages are in the form of {@code origin:table:id}, where origin is a random id for this node,
+ * so we don't process our own invalidations twice (we already invalidated them locally when publishing).
+ */
+public class DatabaseInvalidator {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseInvalidator.class);
+    private final String origin = UUID.randomUUID().toString();
+    private final Map<String, CopyOnWriteArrayList<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+    private final List<Runnable> subscribeListeners = new CopyOnWriteArrayList<>();
+    private final String channel;
+    // When we last subscribed, or 0 while we aren't. Anything published in between never reaches us.
+    private volatile long subscribedSince;
+
+    public DatabaseInvalidator() {
+        this.channel = "db-invalidation-" + MantaroData.config().get().getClientId();
+
+        var thread = new ThreadFactoryBuilder()
+                .setNameFormat("Mantaro DB Invalidation Listener")
+                .setDaemon(true)
+                .build()
+                .newThread(this::listen);
+        thread.start();
+    }
+
+    /**
+     * Registers a listener that will be called with the id of every document of this table
+     * that another node invalidated.
+     *
+     * @param table    The table (collection) name.
+     * @param listener What to do with the invalidated id.
+     */
+    public void register(@Nonnull String table, @Nonnull Consumer<String> listener) {
+        listeners.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Registers something to run every time we (re)subscribe to the invalidation channel,
+     * ex. to rebuild state that might have missed messages while we weren't.
+     *
+     * @param listener What to run.
+     */
+    public void onSubscribe(@Nonnull Runnable listener) {
+        subscribeListeners.add(listener);
+    }
+
+    /**
+     * @return When we last subscribed to the invalidation channel, or 0 if we aren't subscribed right now.
+     * Invalidations published before that (or while this is 0) might have been missed.
+     */
+    public long getSubscribedSince() {
+        return subscribedSince;
+    }
+
+    /**
+     * Tells every other node that this document changed. This doesn't call our own listeners:
+     * the caller is expected to have invalidated its local copy already.
+     *
+     * @param table The table (collection) name.
+     * @param id    The document id.
+     */
+    public void publish(@Nonnull String table, @Nonnull String id) {
+        try (var jedis = MantaroData.getDefaultJedisPool().getResource()) {
+            jedis.publish(channel, origin + ":" + table + ":" + id);
+        } catch (Exception e) {
+            // Not fatal: other nodes will catch up once their entry expires.
+            log.warn("Unable to publish invalidation for {}:{}", table, id, e);
+        }
+    }
+
+    private void listen() {
+        // subscribe() blocks until the connection drops, so keep trying to re-subscribe.
+        while (!Thread.currentThread().isInterrupted()) {
+            try (var jedis = MantaroData.getDefaultJedisPool().getResource()) {
+                jedis.subscribe(new InvalidationPubSub(), channel);
+            } catch (Exception e) {
+                log.warn("Lost connection to the DB invalidation channel, retrying in 5 seconds", e);
+            } finally {
+                subscribedSince = 0;
+            }
+
+            try {
+                TimeUnit.SECONDS.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class InvalidationPubSub extends JedisPubSub {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            subscribedSince = System.currentTimeMillis();
+            for (var listener : subscribeListeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.error("Error while handling invalidation channel subscription", e);
+                }
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            var split = message.split(":", 3);
+            if (split.length != 3 || split[0].equals(origin)) {
+                return;
+            }
+
+            var tableListeners = listeners.get(split[1]);
+            if (tableListeners == null) {
+                return;
+            }
+
+            for (var listener : tableListeners) {
+                try {
+                    listener.accept(split[2]);
+                } catch (Exception e) {
+                    log.error("Error while handling invalidation for {}:{}", split[1], split[2], e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Times every database operation (see {@link Metrics#DB_OPERATION_LATENCY}), and counts the reads and writes each command issues
+ * (see {@link Metrics#COMMAND_DB_CALLS}). Backends wrap each round-trip to the database in {@link #read} or {@link #write},
+ * cache hits don't count.
+ * <p>
+ * Commands get counted on the thread that runs them: {@link #startCommand()} before running it, {@link CommandCalls#finish(String)} once it's done.
+ * Async operations are counted when they're issued, so they count towards the command that issued them.
+ */
+public final class DatabaseMetrics {
+    private static final ThreadLocal<CommandCalls> current = new ThreadLocal<>();
+
+    private DatabaseMetrics() { }
+
+    public static <T> T read(@Nonnull String table, @Nonnull String operation, @Nonnull Supplier<T> call) {
+        count(false);
+        return timed(table, operation, call);
+    }
+
+    public static <T> T write(@Nonnull String table, @Nonnull String operation, @Nonnull Supplier<T> call) {
+        count(true);
+        return timed(table, operation, call);
+    }
+
+    public static void write(@Nonnull String table, @Nonnull String operation, @Nonnull Runnable call) {
+        write(table, operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public static <T> CompletableFuture<T> readAsync(@Nonnull String table, @Nonnull String operation, @Nonnull Supplier<CompletableFuture<T>> call) {
+        count(false);
+        return timedAsync(table, operation, call);
+    }
+
+    public static <T> CompletableFuture<T> writeAsync(@Nonnull String table, @Nonnull String operation, @Nonnull Supplier<CompletableFuture<T>> call) {
+        count(true);
+        return timedAsync(table, operation, call);
+    }
+
+    /**
+     * Starts counting the database calls made on this thread.
+     *
+     * @return The counter, call {@link CommandCalls#finish(String)} on it once the command is done (in a finally block).
+     */
+    @Nonnull
+    public static CommandCalls startCommand() {
+        var calls = new CommandCalls();
+        current.set(calls);
+        return calls;
+    }
+
+    private static void count(boolean write) {
+        var calls = current.get();
+        if (calls != null) {
+            if (write) {
+                calls.writes++;
+            } else {
+                calls.reads++;
+            }
+        }
+    }
+
+    private static <T> T timed(String table, String operation, Supplier<T> call) {
+        var timer = Metrics.DB_OPERATION_LATENCY.labels(table, operation).startTimer();
+        try {
+            return call.get();
+        } finally {
+            timer.observeDuration();
+        }
+    }
+
+    private static <T> CompletableFuture<T> timedAsync(String table, String operation, Supplier<CompletableFuture<T>> call) {
+        var timer = Metrics.DB_OPERATION_LATENCY.labels(table, operation).startTimer();
+        return call.get().whenComplete((result, throwable) -> timer.observeDuration());
+    }
+
+    public static final class CommandCalls {
+        // Only touched from the thread running the command.
+        private int reads;
+        private int writes;
+
+        private CommandCalls() { }
+
+        /**
+         * Stops counting, and records the counts under this command name.
+         *
+         * @param command The command name, or null to discard the counts (ex. the command didn't exist).
+         */
+        public void finish(@Nullable String command) {
+            if (current.get() == this) {
+                current.remove();
+            }
+
+            if (command != null) {
+                Metrics.COMMAND_DB_CALLS.labels(command, "read").observe(reads);
+                Metrics.COMMAND_DB_CALLS.labels(command, "write").observe(writes);
+            }
+        }
+    }
+}
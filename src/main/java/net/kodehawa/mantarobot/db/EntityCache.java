@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A bounded, read-through cache of database entities.
+ * Entries are kept encoded, and every read decodes its own instance: entities are mutable, and a command that changes one and then
+ * bails (or fails to write it) shouldn't leave that change behind for everyone else.
+ * Writes keep an entry up to date by applying the same updates to it, a delete (or a write we can't apply) invalidates it.
+ * Entries expire after a set time. Loaders can return null for entities that don't exist, those aren't cached.
+ */
+public class EntityCache<T> {
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    private static final int STRIPES = 4096;
+
+    private final String table;
+    private final String name;
+    private final Codec<T> codec;
+    private final boolean projection;
+    private final Cache<String, RawBsonDocument> cache;
+    // Write stamps, striped by id: bumped on every write to an id, so a load that raced with a write to it doesn't put a stale entity back.
+    // Only loads of ids that share the stripe get skipped too, instead of every load that happens while anything is written.
+    // Striped rather than per id, since that map would grow with every id ever written.
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    /**
+     * Creates a cache bounded by entry count.
+     *
+     * @param table              The table this caches, used for metrics.
+     * @param codec              Encodes and decodes the entities.
+     * @param maxSize            Maximum amount of entries.
+     * @param expireAfterSeconds How long to keep an entry after it was loaded.
+     */
+    public EntityCache(String table, Codec<T> codec, long maxSize, long expireAfterSeconds) {
+        this(table, table, codec, false, maxSize, expireAfterSeconds);
+    }
+
+    /**
+     * Creates a cache bounded by entry count, with a different name for metrics.
+     * Useful when there's more than one cache for the same table (ex. a cache of projections).
+     *
+     * @param table              The table this caches.
+     * @param name               The name to use for metrics.
+     * @param codec              Encodes and decodes the entities.
+     * @param projection         Whether it only holds some fields of each document. Writes can touch fields it doesn't have, so they invalidate it instead.
+     * @param maxSize            Maximum amount of entries.
+     * @param expireAfterSeconds How long to keep an entry after it was loaded.
+     */
+    public EntityCache(String table, String name, Codec<T> codec, boolean projection, long maxSize, long expireAfterSeconds) {
+        this(table, name, codec, projection, maxSize, false, expireAfterSeconds);
+    }
+
+    private EntityCache(String table, String name, Codec<T> codec, boolean projection, long bound, boolean weighed, long expireAfterSeconds) {
+        this.table = table;
+        this.name = name;
+        this.codec = codec;
+        this.projection = projection;
+
+        var builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .concurrencyLevel(10)
+                .<String, RawBsonDocument>removalListener(this::onRemoval);
+        this.cache = (weighed ? builder.maximumWeight(bound).weigher(EntityCache::weigh) : builder.maximumSize(bound)).build();
+    }
+
+    /**
+     * Creates a cache bounded by a memory budget. Entries are weighed by their encoded size.
+     *
+     * @param table              The table this caches, used for metrics.
+     * @param codec              Encodes and decodes the entities.
+     * @param maxBytes           Budget, in bytes.
+     * @param expireAfterSeconds How long to keep an entry after it was loaded.
+     * @return The cache.
+     */
+    public static <T> EntityCache<T> withBudget(String table, Codec<T> codec, long maxBytes, long expireAfterSeconds) {
+        return new EntityCache<>(table, table, codec, false, maxBytes, true, expireAfterSeconds);
+    }
+
+    /**
+     * Gets an entity, loading it if it's not cached.
+     *
+     * @param id     The id of the entity.
+     * @param loader Loads it, if it's not cached.
+     * @return The entity, or null if the loader found none. Never an instance anyone else got, so it's fine to change it.
+     */
+    public T get(@Nonnull String id, @Nonnull Function<String, T> loader) {
+        var cached = cache.getIfPresent(id);
+        if (cached != null) {
+            Metrics.ENTITY_CACHE.labels(name, "hit").inc();
+            return cached.decode(codec);
+        }
+
+        Metrics.ENTITY_CACHE.labels(name, "miss").inc();
+        var stripe = stripe(id);
+        var stamp = stamps.get(stripe);
+        var loaded = loader.apply(id);
+        if (loaded != null && stamps.get(stripe) == stamp) {
+            cache.put(id, new RawBsonDocument(loaded, codec));
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Same as {@link #get(String, Function)}, but the loader doesn't block.
+     *
+     * @param id     The id of the entity.
+     * @param loader Loads it, if it's not cached.
+     * @return A future with the entity.
+     */
+    @Nonnull
+    public CompletableFuture<T> getAsync(@Nonnull String id, @Nonnull Function<String, CompletableFuture<T>> loader) {
+        var cached = cache.getIfPresent(id);
+        if (cached != null) {
+            Metrics.ENTITY_CACHE.labels(name, "hit").inc();
+            return CompletableFuture.completedFuture(cached.decode(codec));
+        }
+
+        Metrics.ENTITY_CACHE.labels(name, "miss").inc();
+        var stripe = stripe(id);
+        var stamp = stamps.get(stripe);
+        return loader.apply(id).thenApply(loaded -> {
+            if (loaded != null && stamps.get(stripe) == stamp) {
+                // Another load could've finished first, in which case we keep that one (it might have been written to already).
+                var existing = cache.asMap().putIfAbsent(id, new RawBsonDocument(loaded, codec));
+                return existing == null ? loaded : existing.decode(codec);
+            }
+
+            return loaded;
+        });
+    }
+
+    /**
+     * @param id The id of the entity.
+     * @return A copy of the cached entity, or null if it's not cached.
+     */
+    @Nullable
+    public T getIfPresent(@Nonnull String id) {
+        var cached = cache.getIfPresent(id);
+        return cached == null ? null : cached.decode(codec);
+    }
+
+    /**
+     * Call after the entity got written to the database with these updates. The cached entry (if any) gets them applied too.
+     *
+     * @param object        The written entity.
+     * @param updates       What got written ($set, $unset and $inc).
+     * @param codecRegistry To encode the values in the updates.
+     */
+    public void written(@Nonnull ManagedMongoObject object, @Nonnull Collection<Bson> updates, @Nonnull CodecRegistry codecRegistry) {
+        stamps.incrementAndGet(stripe(object.getId()));
+        if (projection) {
+            cache.invalidate(object.getId());
+            return;
+        }
+
+        try {
+            // Atomic for this entry, so two writes to the same document can't drop each other's changes.
+            cache.asMap().computeIfPresent(object.getId(), (id, cached) -> {
+                var document = DOCUMENT_CODEC.decode(cached.asBsonReader(), DECODER_CONTEXT);
+                BsonUpdates.apply(document, updates, codecRegistry);
+                return new RawBsonDocument(document, DOCUMENT_CODEC);
+            });
+        } catch (RuntimeException e) {
+            // Nothing we can apply here: drop it, the next read gets it from the database.
+            cache.invalidate(object.getId());
+        }
+    }
+
+    /**
+     * Call after the entity got written to the database as a whole (replaced), so what we cache is just the entity as it is now.
+     *
+     * @param object The written entity.
+     */
+    @SuppressWarnings("unchecked")
+    public void replaced(@Nonnull ManagedMongoObject object) {
+        stamps.incrementAndGet(stripe(object.getId()));
+        if (projection) {
+            cache.invalidate(object.getId());
+            return;
+        }
+
+        cache.asMap().computeIfPresent(object.getId(), (id, cached) -> new RawBsonDocument((T) object, codec));
+    }
+
+    /**
+     * Call after the entity got written to the database in a way we don't know how to apply here (ex. a transfer), or got deleted.
+     *
+     * @param object The written entity.
+     */
+    public void written(@Nonnull ManagedMongoObject object) {
+        invalidate(object.getId());
+    }
+
+    public void invalidate(@Nonnull String id) {
+        stamps.incrementAndGet(stripe(id));
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+
+        cache.invalidateAll();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static int stripe(String id) {
+        return Math.floorMod(id.hashCode(), STRIPES);
+    }
+
+    private static int weigh(String id, RawBsonDocument document) {
+        return document.getByteBuffer().remaining();
+    }
+
+    private void onRemoval(RemovalNotification<String, RawBsonDocument> notification) {
+        if (notification.wasEvicted()) {
+            Metrics.ENTITY_CACHE.labels(name, "evict").inc();
+        }
+    }
+}
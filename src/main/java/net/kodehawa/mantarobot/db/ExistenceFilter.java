@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Projections;
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Knows which ids definitely aren't on a collection, so looking up someone who never used the bot doesn't need a query.
+ * <p>
+ * This is a Bloom filter of every id on the collection, seeded from an {@code _id}-only scan and updated on every write.
+ * It can say an id exists when it doesn't (in which case we just query as usual), but never the opposite.
+ * Until it's seeded, everything might exist.
+ * <p>
+ * Writes from other nodes reach us through the invalidation channel. While we aren't subscribed to it, we might be missing
+ * some, so a "doesn't exist" isn't trusted (and we query as usual) until a seed that started after we subscribed again is done.
+ * The filter also gets rebuilt every now and then, in case something else slipped through.
+ */
+public class ExistenceFilter {
+    private static final Logger log = LoggerFactory.getLogger(ExistenceFilter.class);
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int SEED_BATCH_SIZE = 10_000;
+    // Other nodes tell us about a write before doing it, so a scan can miss something we were told about a bit before it started.
+    // Anything added this recently gets copied over to a new filter, and we don't trust the new filter's negatives for this long either.
+    private static final long RECENT_WINDOW = TimeUnit.MINUTES.toMillis(1);
+    private final String table;
+    private final Supplier<MongoDatabase> database;
+    private final LongSupplier subscribedSince;
+    // Adds hold the read lock, so they never see the seeding filter go away before the new one is in place.
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final Cache<String, Boolean> recent = CacheBuilder.newBuilder()
+            .expireAfterWrite(RECENT_WINDOW, TimeUnit.MILLISECONDS)
+            .build();
+    // Null until the first seed is done.
+    private volatile BloomFilter<CharSequence> filter;
+    // The filter being seeded, if any. Writes go to both, so nothing written while seeding gets lost.
+    private volatile BloomFilter<CharSequence> seeding;
+    // When the scan behind the current filter started, and when it got swapped in.
+    private volatile long seededAt;
+    private volatile long swappedAt;
+
+    /**
+     * @param table           The collection to keep track of.
+     * @param database        Where to scan it from.
+     * @param subscribedSince When we last subscribed to the invalidation channel, or 0 if we aren't subscribed right now.
+     */
+    public ExistenceFilter(@Nonnull String table, @Nonnull Supplier<MongoDatabase> database, @Nonnull LongSupplier subscribedSince) {
+        this.table = table;
+        this.database = database;
+        this.subscribedSince = subscribedSince;
+    }
+
+    @Nonnull
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @param id The document id.
+     * @return False if this document definitely doesn't exist, true if it might.
+     */
+    public boolean mightExist(@Nonnull String id) {
+        var current = filter;
+        if (current == null) {
+            return true;
+        }
+
+        if (current.mightContain(id)) {
+            Metrics.EXISTENCE_FILTER.labels(table, "maybe").inc();
+            return true;
+        }
+
+        // We might have missed writes from other nodes since this was seeded, or it's too new to have caught up.
+        var since = subscribedSince.getAsLong();
+        if (since == 0 || since > seededAt || System.currentTimeMillis() - swappedAt < RECENT_WINDOW) {
+            Metrics.EXISTENCE_FILTER.labels(table, "unsure").inc();
+            return true;
+        }
+
+        Metrics.EXISTENCE_FILTER.labels(table, "absent").inc();
+        return false;
+    }
+
+    /**
+     * Marks a document as existing. Call this before writing it, so no one sees it missing once it's written.
+     *
+     * @param id The document id.
+     * @return Whether this is (maybe) new to us. False means we already knew it might exist.
+     */
+    public boolean add(@Nonnull String id) {
+        swapLock.readLock().lock();
+        try {
+            recent.put(id, Boolean.TRUE);
+            var seed = seeding;
+            if (seed != null) {
+                seed.put(id);
+            }
+
+            var current = filter;
+            return current == null || current.put(id);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds a new filter from every id on the collection and swaps it in once it's done.
+     * This streams the whole collection (only the ids), so it's meant to run in the background.
+     */
+    public void seed() {
+        var collection = database.get().getCollection(table);
+        // Leave room to grow until the next seed: the false positive rate goes up once it's over capacity.
+        var expected = Math.max(100_000, (long) (collection.estimatedDocumentCount() * 1.25));
+        var next = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expected, FALSE_POSITIVE_RATE);
+        var start = System.currentTimeMillis();
+
+        setSeeding(next);
+        try {
+            var count = 0L;
+            for (var document : collection.find().projection(Projections.include("_id")).batchSize(SEED_BATCH_SIZE)) {
+                next.put(String.valueOf(document.get("_id")));
+                count++;
+            }
+
+            swapLock.writeLock().lock();
+            try {
+                recent.asMap().keySet().forEach(next::put);
+                filter = next;
+                seeding = null;
+                seededAt = start;
+                swappedAt = System.currentTimeMillis();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+
+            log.info("Seeded existence filter for {} with {} ids in {}ms (expected fpp: {})",
+                    table, count, System.currentTimeMillis() - start, next.expectedFpp()
+            );
+        } finally {
+            // Only if it failed, else it's already gone.
+            setSeeding(null);
+        }
+    }
+
+    private void setSeeding(BloomFilter<CharSequence> next) {
+        swapLock.writeLock().lock();
+        try {
+            seeding = next;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+/**
+ * A tracked change that adds to a numeric field instead of replacing it, so it's written as an {@code $inc}
+ * instead of a {@code $set} of the whole thing. If it leaves the field empty, the field is removed right after,
+ * but only if it's still at 0: something could've been added to it in between.
+ * <p>
+ * If it takes from the field, the update only applies if the field still holds at least that much.
+ * If it doesn't, nothing gets written, and the save throws an {@link InsufficientAmountException}.
+ * Saves like these are never deferred (see {@link UnitOfWork}), so that happens before the command replies.
+ *
+ * @param amount How much to add to the field (negative to take from it).
+ * @param unset  Whether this leaves the field empty, so it can be removed once written.
+ */
+public record FieldDelta(long amount, boolean unset) {
+    /**
+     * Adds a change to a field tracker, on top of whatever change is already tracked for that key.
+     *
+     * @param tracker The field tracker.
+     * @param key     The field key (ex. inventory.diamond).
+     * @param amount  How much to add (negative to take).
+     * @param unset   Whether this leaves the field empty.
+     */
+    public static void track(@Nonnull Map<String, Object> tracker, @Nonnull String key, long amount, boolean unset) {
+        tracker.compute(key, (k, current) -> {
+            var total = amount + (current instanceof FieldDelta delta ? delta.amount : 0);
+            // Back to where it started, nothing to write.
+            return total == 0 ? null : new FieldDelta(total, unset);
+        });
+    }
+
+    /**
+     * @return The least the field needs to hold for this to apply, 0 if it only adds to it.
+     */
+    public long required() {
+        return amount < 0 ? -amount : 0;
+    }
+}
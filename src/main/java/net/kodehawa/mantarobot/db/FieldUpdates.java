@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a field tracker into the updates that write it. Shared by every {@link ManagedDatabase} backend, so they all store the same thing.
+ */
+final class FieldUpdates {
+    private FieldUpdates() { }
+
+    // Field key -> $set update for it, so the write-behind queue can merge them with other updates to this document.
+    static Map<String, Bson> of(Map<String, Object> snapshot) {
+        Map<String, Bson> updates = new LinkedHashMap<>();
+        snapshot.forEach((key, value) -> {
+            if (value instanceof FieldDelta delta) {
+                updates.put(key, Updates.inc(key, delta.amount()));
+                return;
+            }
+
+            if (value instanceof Map<?, ?> e) {
+                var keySet = e.keySet();
+                Object next = null;
+                if(!keySet.isEmpty()) {
+                    next = keySet.iterator().next();
+                }
+
+                // If key is of type Enum<T> or int/long, we need to convert them to String.
+                // Thankfully both have rather easy methods to do so: Enum returns the equivalent of name() on its default implementation,
+                // and String.valueOf works if you pass an object, which in the case of int/long, will give a String representation of the numerical value.
+                if (!keySet.isEmpty() && next instanceof Enum<?>) {
+                    updates.put(key, Updates.set(
+                            key,
+                            // Yes, seemingly this is needed.
+                            new Document(e.entrySet().stream().collect(Collectors.toMap(k -> k.getKey().toString(), Map.Entry::getValue))))
+                    );
+
+                    return; // This acts like continue; in a forEach loop
+                }
+
+                if (!keySet.isEmpty() && (next instanceof Integer || next instanceof Long)) {
+                    updates.put(key, Updates.set(
+                            key,
+                            // Yes, seemingly this is needed.
+                            new Document(e.entrySet().stream().collect(Collectors.toMap(k -> String.valueOf(k.getKey()), Map.Entry::getValue))))
+                    );
+
+                    return; // This acts like continue; in a forEach loop
+                }
+            }
+
+            updates.put(key, Updates.set(key, value));
+        });
+
+        return updates;
+    }
+
+    // Field key -> the least it needs to hold for the update to apply, see FieldDelta.
+    static Map<String, Long> guards(Map<String, Object> snapshot) {
+        Map<String, Long> guards = new LinkedHashMap<>();
+        snapshot.forEach((key, value) -> {
+            if (value instanceof FieldDelta delta && delta.required() > 0) {
+                guards.put(key, delta.required());
+            }
+        });
+
+        return guards;
+    }
+
+    static Bson guarded(Bson filter, Map<String, Long> guards) {
+        if (guards.isEmpty()) {
+            return filter;
+        }
+
+        List<Bson> filters = new ArrayList<>();
+        filters.add(filter);
+        guards.forEach((key, amount) -> filters.add(Filters.gte(key, amount)));
+        return Filters.and(filters);
+    }
+
+    // Field keys a delta leaves empty. They only get an $inc, like any other delta, so they can't remove
+    // what someone else added in between. Backends remove them afterwards, if they're still at 0 (see stillEmpty).
+    static List<String> emptied(Map<String, Object> snapshot) {
+        List<String> emptied = new ArrayList<>();
+        snapshot.forEach((key, value) -> {
+            if (value instanceof FieldDelta delta && delta.unset()) {
+                emptied.add(key);
+            }
+        });
+
+        return emptied;
+    }
+
+    static Bson stillEmpty(String id, String key) {
+        return Filters.and(Filters.eq(id), Filters.eq(key, 0));
+    }
+
+    // Whether this takes from a field, so it can fail because of someone else's write.
+    static boolean hasGuards(Map<String, Object> snapshot) {
+        return snapshot.values().stream().anyMatch(value -> value instanceof FieldDelta delta && delta.required() > 0);
+    }
+
+    // The write-behind queue merges updates by field key, which would drop all but the last $inc to a field.
+    static boolean hasDeltas(Map<String, Object> snapshot) {
+        return snapshot.values().stream().anyMatch(FieldDelta.class::isInstance);
+    }
+}
@@ -0,0 +1,656 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.model.Updates;
+import net.kodehawa.mantarobot.db.entities.CustomCommand;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
+import net.kodehawa.mantarobot.db.entities.MantaroObject;
+import net.kodehawa.mantarobot.db.entities.Marriage;
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import net.kodehawa.mantarobot.db.entities.PremiumKey;
+import net.kodehawa.mantarobot.utils.Pair;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link ManagedDatabase} that keeps everything in memory, with no database server at all.
+ * Useful for benchmarks and load tests (no network, and the same input always gives the same result), and for small self-hosts running a single node.
+ * <p>
+ * Documents are kept as BSON, encoded with the same codecs as on MongoDB, and updates are applied the same way (same $set, $inc and $unset,
+ * same version checks), so entities behave exactly like they do on the real database.
+ * Writes are serialized, which makes increments and transfers atomic.
+ * <p>
+ * If given a file, everything gets written to it every few minutes and on shutdown, and loaded back on startup.
+ * Anything written after the last save is lost on a crash.
+ */
+public class InMemoryManagedDatabase implements ManagedDatabase {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryManagedDatabase.class);
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+
+    private final CodecRegistry codecRegistry;
+    // Table name -> id -> document. Stored documents are never changed in place, a write replaces them, so reads don't need the lock.
+    private final Map<String, Map<String, BsonDocument>> tables = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    @Nullable
+    private final Path file;
+    private volatile BlacklistSnapshot blacklist;
+    // Nothing else to tell when something changes, we're the only node.
+    private final PremiumEntitlements premiumEntitlements = new PremiumEntitlements(10_000, 600, (channel, id) -> { });
+
+    /**
+     * @param codecRegistry The codecs to store entities with.
+     * @param file          Where to keep the data between restarts, or null to not keep it at all.
+     */
+    public InMemoryManagedDatabase(@Nonnull CodecRegistry codecRegistry, @Nullable Path file) {
+        this.codecRegistry = codecRegistry;
+        this.file = file;
+
+        if (file != null) {
+            load(file);
+
+            var executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("Mantaro In-Memory DB Saver").setDaemon(true).build()
+            );
+
+            executor.scheduleWithFixedDelay(this::save, 5, 5, TimeUnit.MINUTES);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::save, "Mantaro In-Memory DB Shutdown Save"));
+        }
+    }
+
+    @Override
+    public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
+        return find(CustomCommand.DB_TABLE, guildId + ":" + name, CustomCommand.class);
+    }
+
+    @Override
+    public List<CustomCommand> getCustomCommands() {
+        return findAll(CustomCommand.DB_TABLE, CustomCommand.class, document -> true);
+    }
+
+    @Override
+    public List<CustomCommand> getCustomCommands(@Nonnull String guildId) {
+        return findAll(CustomCommand.DB_TABLE, CustomCommand.class, document -> isString(document, "guildId", guildId));
+    }
+
+    @Override
+    public MongoGuild getGuild(@Nonnull String guildId) {
+        var guild = find(MongoGuild.DB_TABLE, guildId, MongoGuild.class);
+        return guild == null ? MongoGuild.of(guildId) : guild;
+    }
+
+    @Override
+    public GuildDispatchView getGuildDispatchView(@Nonnull String guildId) {
+        // Nothing to save by only reading part of it here.
+        return GuildDispatchView.of(getGuild(guildId));
+    }
+
+    @Override
+    public MantaroObject getMantaroData() {
+        var obj = find(MantaroObject.DB_TABLE, "mantaro", MantaroObject.class);
+        if (obj == null) {
+            obj = MantaroObject.create();
+            saveMongo(obj, MantaroObject.class);
+        }
+
+        return obj;
+    }
+
+    @Override
+    public BlacklistSnapshot getBlacklist() {
+        var snapshot = blacklist;
+        if (snapshot == null) {
+            // Saving a new MantaroObject sets it, so check again.
+            var data = getMantaroData();
+            snapshot = blacklist;
+            if (snapshot == null) {
+                snapshot = BlacklistSnapshot.of(data, 0);
+                blacklist = snapshot;
+            }
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public PremiumEntitlements getPremiumEntitlements() {
+        return premiumEntitlements;
+    }
+
+    @Override
+    public boolean isBirthdayAllowed(@Nonnull String guildId, @Nonnull String userId) {
+        return isTrue(table(GUILD_BIRTHDAYS_TABLE).get(guildId + ":" + userId), "allowed");
+    }
+
+    @Override
+    public boolean isBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId) {
+        return isTrue(table(GUILD_BIRTHDAYS_TABLE).get(guildId + ":" + userId), "blocked");
+    }
+
+    @Override
+    public void setBirthdayAllowed(@Nonnull String guildId, @Nonnull Collection<String> userIds, boolean allowed) {
+        setBirthdayFlag(guildId, userIds, "allowed", allowed);
+    }
+
+    @Override
+    public void setBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId, boolean blocked) {
+        setBirthdayFlag(guildId, List.of(userId), "blocked", blocked);
+    }
+
+    @Override
+    public Set<String> getAllowedBirthdays(@Nonnull String guildId) {
+        return getBirthdayFlagged(guildId, "allowed");
+    }
+
+    @Override
+    public Set<String> getBlockedBirthdays(@Nonnull String guildId) {
+        return getBirthdayFlagged(guildId, "blocked");
+    }
+
+    private Set<String> getBirthdayFlagged(String guildId, String flag) {
+        return table(GUILD_BIRTHDAYS_TABLE).values().stream()
+                .filter(document -> isString(document, "guildId", guildId) && isTrue(document, flag))
+                .map(document -> document.getString("userId").getValue())
+                .collect(Collectors.toSet());
+    }
+
+    private void setBirthdayFlag(String guildId, Collection<String> userIds, String flag, boolean value) {
+        DatabaseMetrics.write(GUILD_BIRTHDAYS_TABLE, "bulk_write", () -> {
+            for (var userId : userIds) {
+                update(GUILD_BIRTHDAYS_TABLE, guildId + ":" + userId, List.of(
+                        Updates.set("guildId", guildId), Updates.set("userId", userId), Updates.set(flag, value)
+                ));
+            }
+        });
+    }
+
+    @Override
+    public Player getPlayer(@Nonnull String userId) {
+        var player = find(Player.DB_TABLE, userId, Player.class);
+        return player == null ? Player.of(userId) : player;
+    }
+
+    @Override
+    public PlayerStats getPlayerStats(@Nonnull String userId) {
+        var stats = find(PlayerStats.DB_TABLE, userId, PlayerStats.class);
+        return stats == null ? PlayerStats.of(userId) : stats;
+    }
+
+    @Override
+    public Marriage getMarriage(String marriageId) {
+        return marriageId == null ? null : find(Marriage.DB_TABLE, marriageId, Marriage.class);
+    }
+
+    @Override
+    public List<Marriage> getMarriages() {
+        return findAll(Marriage.DB_TABLE, Marriage.class, document -> true);
+    }
+
+    @Override
+    public List<PremiumKey> getPremiumKeys() {
+        return findAll(PremiumKey.DB_TABLE, PremiumKey.class, document -> true);
+    }
+
+    @Override
+    public PremiumKey getPremiumKey(@Nullable String id) {
+        return id == null ? null : find(PremiumKey.DB_TABLE, id, PremiumKey.class);
+    }
+
+    @Override
+    public MongoUser getUser(@Nonnull String userId) {
+        var user = find(MongoUser.DB_TABLE, userId, MongoUser.class);
+        return user == null ? MongoUser.of(userId) : user;
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> List<T> getLeaderboard(@Nonnull String table, @Nonnull Class<T> clazz, @Nonnull String field, int limit) {
+        // Same as MongoDB: missing (or non-numeric) values sort last.
+        Comparator<BsonDocument> byField = Comparator.comparingDouble(document -> {
+            var value = document.get(field);
+            return value != null && value.isNumber() ? value.asNumber().doubleValue() : Double.NEGATIVE_INFINITY;
+        });
+
+        return DatabaseMetrics.read(table, "aggregate", () -> table(table).values().stream()
+                .sorted(byField.reversed())
+                .limit(limit)
+                .map(document -> decode(document, clazz))
+                .collect(Collectors.toList())
+        );
+    }
+
+    @Override
+    public List<MongoUser> getUsersWithBirthday() {
+        return findAll(MongoUser.DB_TABLE, MongoUser.class, InMemoryManagedDatabase::hasBirthday);
+    }
+
+    // Everything's in memory already: fields are ignored, the whole entity gets decoded.
+    @Override
+    public void forEachUserWithBirthday(@Nonnull List<String> fields, @Nonnull Consumer<MongoUser> consumer) {
+        findAll(MongoUser.DB_TABLE, MongoUser.class, InMemoryManagedDatabase::hasBirthday).forEach(consumer);
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void forEach(@Nonnull String table, @Nonnull Class<T> clazz,
+                                                       @Nonnull List<String> fields, @Nonnull Consumer<T> consumer) {
+        findAll(table, clazz, document -> true).forEach(consumer);
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void saveMongo(@Nonnull T object, Class<T> clazz) {
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        DatabaseMetrics.write(object.getTableName(), "replace", () -> replace(object, clazz));
+        if (object instanceof MantaroObject data) {
+            var current = blacklist;
+            blacklist = BlacklistSnapshot.of(data, current == null ? 0 : current.getVersion() + 1);
+        }
+    }
+
+    private <T extends ManagedMongoObject> void replace(T object, Class<T> clazz) {
+        var table = table(object.getTableName());
+        synchronized (writeLock) {
+            if (object instanceof VersionedMongoObject versioned) {
+                synchronized (versioned) {
+                    var expected = versioned.getVersion();
+                    if (VersionedWrites.isChecked()) {
+                        checkVersion(table.get(object.getId()), versioned, expected);
+                    }
+
+                    versioned.setVersion(expected + 1);
+                    try {
+                        table.put(object.getId(), encode(object, clazz));
+                    } catch (RuntimeException e) {
+                        versioned.setVersion(expected);
+                        throw e;
+                    }
+                }
+
+                return;
+            }
+
+            table.put(object.getId(), encode(object, clazz));
+        }
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void deleteMongo(@Nonnull T object, Class<T> clazz) {
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        DatabaseMetrics.write(object.getTableName(), "delete", () -> {
+            synchronized (writeLock) {
+                table(object.getTableName()).remove(object.getId());
+            }
+        });
+    }
+
+    @Override
+    public void updateFieldValue(ManagedMongoObject object, String key, Object value) {
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        write(object, List.of(Updates.set(key, value)));
+    }
+
+    @Override
+    public void updateFieldValues(ManagedMongoObject object, Map<String, Object> map) {
+        if (map.isEmpty() || UnitOfWork.defer(object, map)) {
+            return;
+        }
+
+        writeTracked(object, map);
+    }
+
+    private void writeTracked(ManagedMongoObject object, Map<String, Object> map) {
+        // Same as on MongoDB: whatever changed while we were writing stays on the tracker.
+        Map<String, Object> snapshot;
+        synchronized (map) {
+            snapshot = new HashMap<>(map);
+        }
+
+        write(object, FieldUpdates.of(snapshot).values(), FieldUpdates.guards(snapshot));
+        snapshot.forEach(map::remove);
+        // Same as on MongoDB: emptied fields go away only if nothing got added to them in between.
+        synchronized (writeLock) {
+            for (var key : FieldUpdates.emptied(snapshot)) {
+                var current = table(object.getTableName()).get(object.getId());
+                var value = current == null ? null : BsonUpdates.get(current, key);
+                if (value != null && value.isNumber() && value.asNumber().longValue() == 0) {
+                    update(object.getTableName(), object.getId(), List.of(Updates.unset(key)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public Long incrementFieldValue(@Nonnull ManagedMongoObject object, @Nonnull String key, long amount) {
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        var table = table(object.getTableName());
+        return DatabaseMetrics.write(object.getTableName(), "increment", () -> {
+            synchronized (writeLock) {
+                var current = table.get(object.getId());
+                if (amount < 0 && !hasAtLeast(current, key, -amount)) {
+                    return null;
+                }
+
+                var result = increment(object, key, amount);
+                return BsonUpdates.get(result, key).asNumber().longValue();
+            }
+        });
+    }
+
+    @Override
+    public Pair<Long, Long> transfer(@Nonnull ManagedMongoObject from, @Nonnull String fromKey, long debit,
+                                     @Nonnull ManagedMongoObject to, @Nonnull String toKey, long credit,
+                                     long creditLimit, boolean unsetEmpty) {
+        UnitOfWork.flush(from.getTableName(), from.getId());
+        UnitOfWork.flush(to.getTableName(), to.getId());
+        return DatabaseMetrics.write(from.getTableName(), "transfer", () -> {
+            synchronized (writeLock) {
+                if (!hasAtLeast(table(from.getTableName()).get(from.getId()), fromKey, debit)) {
+                    return null;
+                }
+
+                var target = table(to.getTableName()).get(to.getId());
+                var current = target == null ? null : BsonUpdates.get(target, toKey);
+                if (current != null && current.isNumber() && current.asNumber().longValue() > creditLimit - credit) {
+                    return null;
+                }
+
+                var debited = increment(from, fromKey, -debit);
+                var credited = increment(to, toKey, credit);
+                var left = BsonUpdates.get(debited, fromKey).asNumber().longValue();
+                if (unsetEmpty && left == 0) {
+                    update(from.getTableName(), from.getId(), List.of(Updates.unset(fromKey)));
+                }
+
+                return Pair.of(left, BsonUpdates.get(credited, toKey).asNumber().longValue());
+            }
+        });
+    }
+
+    // ------------------------- ASYNC API ------------------------- //
+    // Nothing to wait on here, so these just run right away.
+
+    @Override
+    public CompletableFuture<MongoGuild> getGuildAsync(@Nonnull String guildId) {
+        return completed(() -> getGuild(guildId));
+    }
+
+    @Override
+    public CompletableFuture<Player> getPlayerAsync(@Nonnull String userId) {
+        return completed(() -> getPlayer(userId));
+    }
+
+    @Override
+    public CompletableFuture<MongoUser> getUserAsync(@Nonnull String userId) {
+        return completed(() -> getUser(userId));
+    }
+
+    @Override
+    public CompletableFuture<PlayerStats> getPlayerStatsAsync(@Nonnull String userId) {
+        return completed(() -> getPlayerStats(userId));
+    }
+
+    @Override
+    public CompletableFuture<Marriage> getMarriageAsync(@Nullable String marriageId) {
+        return completed(() -> getMarriage(marriageId));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateFieldValuesAsync(@Nonnull ManagedMongoObject object, @Nonnull Map<String, Object> map) {
+        // Same as on MongoDB: never deferred, but what was deferred for this document goes first.
+        return completed(() -> {
+            UnitOfWork.flush(object.getTableName(), object.getId());
+            if (!map.isEmpty()) {
+                writeTracked(object, map);
+            }
+
+            return null;
+        });
+    }
+
+    private static <T> CompletableFuture<T> completed(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.completedFuture(supplier.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Map<String, BsonDocument> table(String name) {
+        return tables.computeIfAbsent(name, ignored -> new ConcurrentHashMap<>());
+    }
+
+    // Not private so tests can look at what got stored (ex. as a BsonDocument).
+    @Nullable
+    <T> T find(String table, String id, Class<T> clazz) {
+        UnitOfWork.flush(table, id);
+        return DatabaseMetrics.read(table, "find", () -> {
+            var document = table(table).get(id);
+            return document == null ? null : decode(document, clazz);
+        });
+    }
+
+    private <T> List<T> findAll(String table, Class<T> clazz, Predicate<BsonDocument> filter) {
+        return DatabaseMetrics.read(table, "find_many", () -> table(table).values().stream()
+                .filter(filter)
+                .map(document -> decode(document, clazz))
+                .collect(Collectors.toList())
+        );
+    }
+
+    private <T> T decode(BsonDocument document, Class<T> clazz) {
+        return codecRegistry.get(clazz).decode(document.asBsonReader(), DECODER_CONTEXT);
+    }
+
+    private <T> BsonDocument encode(T object, Class<T> clazz) {
+        var document = new BsonDocument();
+        codecRegistry.get(clazz).encode(new BsonDocumentWriter(document), object, ENCODER_CONTEXT);
+        return document;
+    }
+
+    // Writes updates to a document (creating it if needed), bumping the version of versioned objects (and checking it, see VersionedWrites).
+    private void write(ManagedMongoObject object, Collection<Bson> updates) {
+        write(object, updates, Map.of());
+    }
+
+    // Guards are what deltas need the document to hold, see FieldDelta.
+    private void write(ManagedMongoObject object, Collection<Bson> updates, Map<String, Long> guards) {
+        DatabaseMetrics.write(object.getTableName(), "update", () -> writeLocked(object, updates, guards));
+    }
+
+    private void writeLocked(ManagedMongoObject object, Collection<Bson> updates, Map<String, Long> guards) {
+        synchronized (writeLock) {
+            var current = table(object.getTableName()).get(object.getId());
+            if (object instanceof VersionedMongoObject versioned) {
+                synchronized (versioned) {
+                    var expected = versioned.getVersion();
+                    if (VersionedWrites.isChecked()) {
+                        checkVersion(current, versioned, expected);
+                    }
+
+                    if (!hasAtLeast(current, guards)) {
+                        throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+                    }
+
+                    // Unchecked writes bump whatever is stored, same as $inc on MongoDB.
+                    var stored = current == null ? null : current.get("version");
+                    var version = (stored != null && stored.isNumber() ? stored.asNumber().longValue() : 0L) + 1;
+                    List<Bson> combined = new ArrayList<>(updates);
+                    combined.add(Updates.set("version", version));
+                    update(object.getTableName(), object.getId(), combined);
+                    if (versioned.getVersion() == version - 1) {
+                        versioned.setVersion(version);
+                    }
+                }
+
+                return;
+            }
+
+            if (!hasAtLeast(current, guards)) {
+                throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+            }
+
+            update(object.getTableName(), object.getId(), updates);
+        }
+    }
+
+    // Atomic updates don't check the version, but still bump it, same as on MongoDB. Needs the write lock.
+    private BsonDocument increment(ManagedMongoObject object, String key, long amount) {
+        List<Bson> updates = new ArrayList<>();
+        updates.add(Updates.inc(key, amount));
+        if (object instanceof VersionedMongoObject) {
+            updates.add(Updates.inc("version", 1L));
+        }
+
+        var result = update(object.getTableName(), object.getId(), updates);
+        if (object instanceof VersionedMongoObject versioned) {
+            var version = result.get("version").asNumber().longValue();
+            synchronized (versioned) {
+                if (versioned.getVersion() == version - 1) {
+                    versioned.setVersion(version);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void checkVersion(@Nullable BsonDocument current, VersionedMongoObject object, long expected) {
+        if (current == null) {
+            return; // New document, nothing to conflict with.
+        }
+
+        var version = current.get("version");
+        var currentVersion = version != null && version.isNumber() ? version.asNumber().longValue() : 0L;
+        if (currentVersion != expected) {
+            throw new VersionConflictException(object.getTableName(), object.getId(), expected);
+        }
+    }
+
+    // Applies $set, $unset and $inc updates to a copy of the document (or a new one) and stores it. Needs the write lock.
+    private BsonDocument update(String tableName, String id, Collection<Bson> updates) {
+        var table = table(tableName);
+        var current = table.get(id);
+        var document = current == null ? new BsonDocument("_id", new BsonString(id)) : current.clone();
+        BsonUpdates.apply(document, updates, codecRegistry);
+        table.put(id, document);
+        return document;
+    }
+
+    private static boolean hasAtLeast(@Nullable BsonDocument document, String key, long amount) {
+        if (document == null) {
+            return false;
+        }
+
+        var value = BsonUpdates.get(document, key);
+        return value != null && value.isNumber() && value.asNumber().doubleValue() >= amount;
+    }
+
+    private static boolean hasAtLeast(@Nullable BsonDocument document, Map<String, Long> amounts) {
+        return amounts.entrySet().stream().allMatch(amount -> hasAtLeast(document, amount.getKey(), amount.getValue()));
+    }
+
+    private static boolean hasBirthday(BsonDocument document) {
+        var birthday = document.get("birthday");
+        return birthday != null && birthday.isString() && !birthday.asString().getValue().isEmpty();
+    }
+
+    private static boolean isTrue(@Nullable BsonDocument document, String key) {
+        return document != null && document.get(key) != null && document.get(key).isBoolean() && document.getBoolean(key).getValue();
+    }
+
+    private static boolean isString(BsonDocument document, String key, String expected) {
+        var value = document.get(key);
+        return value != null && value.isString() && value.asString().getValue().equals(expected);
+    }
+
+    private void load(Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            var saved = BsonDocument.parse(Files.readString(file));
+            saved.forEach((table, documents) -> documents.asDocument().forEach((id, document) ->
+                    table(table).put(id, document.asDocument())
+            ));
+
+            log.info("Loaded {} tables from {}", saved.size(), file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load the in-memory database from " + file, e);
+        }
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+
+        var saved = new BsonDocument();
+        // Under the write lock, so nothing is saved half-way through a transfer.
+        synchronized (writeLock) {
+            tables.forEach((table, documents) -> {
+                var copy = new BsonDocument();
+                documents.forEach(copy::put);
+                saved.put(table, copy);
+            });
+        }
+
+        try {
+            // Extended JSON keeps the exact types (ex. longs stay longs). Write somewhere else first, so a crash doesn't leave half a file.
+            var temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, saved.toJson(JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build()));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to save the in-memory database to {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An index some query relies on. Declared next to the entity or query that needs it, and created on boot by {@link IndexManager}.
+ *
+ * @param table   The collection this index is on.
+ * @param keys    The index keys, see {@link com.mongodb.client.model.Indexes}.
+ * @param options The index options (partial filters, sparse...).
+ * @param usedBy  What needs this index, shown on the index report.
+ */
+public record IndexDefinition(@Nonnull String table, @Nonnull Bson keys, @Nonnull IndexOptions options, @Nonnull String usedBy) {
+    public static IndexDefinition of(@Nonnull String table, @Nonnull Bson keys, @Nonnull String usedBy) {
+        return new IndexDefinition(table, keys, new IndexOptions(), usedBy);
+    }
+
+    public static IndexDefinition of(@Nonnull String table, @Nonnull Bson keys, @Nonnull IndexOptions options, @Nonnull String usedBy) {
+        return new IndexDefinition(table, keys, options, usedBy);
+    }
+
+    public IndexModel toModel() {
+        return new IndexModel(keys, options);
+    }
+
+    // Index identity is its key pattern, the server doesn't allow two indexes with the same keys (unless it's a different partial filter, which we don't do)
+    public BsonDocument keyDocument() {
+        return keys.toBsonDocument();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of every index our queries rely on, makes sure they exist on boot, and reports on how they're doing.
+ * Anything that filters or sorts on something other than _id should declare an {@link IndexDefinition} and get registered here,
+ * else it'll end up doing a collection scan once the collection is big enough for it to matter.
+ */
+public class IndexManager {
+    private static final Logger log = LoggerFactory.getLogger(IndexManager.class);
+    private static final String ID_INDEX = "_id_";
+
+    private final Supplier<MongoDatabase> database;
+    private final List<IndexDefinition> indexes = new CopyOnWriteArrayList<>();
+
+    public IndexManager(@Nonnull Supplier<MongoDatabase> database) {
+        this.database = database;
+    }
+
+    public IndexManager register(@Nonnull Collection<IndexDefinition> definitions) {
+        indexes.addAll(definitions);
+        return this;
+    }
+
+    public IndexManager register(@Nonnull IndexDefinition... definitions) {
+        return register(List.of(definitions));
+    }
+
+    @Nonnull
+    public List<IndexDefinition> getIndexes() {
+        return List.copyOf(indexes);
+    }
+
+    /**
+     * Creates every declared index that doesn't exist yet. Existing indexes are left alone, so this is cheap after the first boot.
+     * A failure on one collection doesn't stop the rest from being created.
+     */
+    public void ensureIndexes() {
+        for (var entry : byTable().entrySet()) {
+            var table = entry.getKey();
+            try {
+                var models = entry.getValue().stream().map(IndexDefinition::toModel).toList();
+                database.get().getCollection(table).createIndexes(models);
+            } catch (Exception e) {
+                log.error("Unable to create indexes on {}", table, e);
+            }
+        }
+    }
+
+    /**
+     * Compares the declared indexes with what the server has.
+     *
+     * @return A line for each declared index that's missing, each index that exists on a collection we manage but isn't declared,
+     * and each declared index that hasn't been used since the server started. Empty if everything is fine.
+     */
+    @Nonnull
+    public List<String> report() {
+        List<String> report = new ArrayList<>();
+        for (var entry : byTable().entrySet()) {
+            var table = entry.getKey();
+            var declared = entry.getValue();
+            try {
+                var collection = database.get().getCollection(table);
+                Map<BsonDocument, String> existing = new LinkedHashMap<>();
+                for (var index : collection.listIndexes()) {
+                    var name = index.getString("name");
+                    if (!ID_INDEX.equals(name)) {
+                        existing.put(normalize(index.get("key", Document.class).toBsonDocument()), name);
+                    }
+                }
+
+                var declaredKeys = new HashSet<BsonDocument>();
+                for (var definition : declared) {
+                    var keys = normalize(definition.keyDocument());
+                    declaredKeys.add(keys);
+                    if (!existing.containsKey(keys)) {
+                        report.add("Missing index %s on %s (used by %s)".formatted(keys.toJson(), table, definition.usedBy()));
+                    }
+                }
+
+                existing.forEach((keys, name) -> {
+                    if (!declaredKeys.contains(keys)) {
+                        report.add("Undeclared index %s on %s".formatted(name, table));
+                    }
+                });
+
+                // Only counts since the last server restart, so take it with a grain of salt.
+                for (var stats : collection.aggregate(List.of(new Document("$indexStats", new Document())))) {
+                    var name = stats.getString("name");
+                    var accesses = stats.get("accesses", Document.class);
+                    var ops = accesses == null ? null : accesses.get("ops", Number.class);
+                    if (!ID_INDEX.equals(name) && existing.containsValue(name) && ops != null && ops.longValue() == 0) {
+                        report.add("Unused index %s on %s".formatted(name, table));
+                    }
+                }
+            } catch (Exception e) {
+                report.add("Unable to check indexes on %s: %s".formatted(table, e.getMessage()));
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * Ensures all indexes, then logs the index report.
+     */
+    public void ensureAndReport() {
+        ensureIndexes();
+        var report = report();
+        if (report.isEmpty()) {
+            log.info("All {} declared indexes are present", indexes.size());
+        } else {
+            report.forEach(log::warn);
+        }
+    }
+
+    /**
+     * Same as {@link #ensureAndReport()}, but on its own thread: building an index on a big collection can take minutes,
+     * and boot shouldn't wait on that. Queries still work while it runs, just without the missing indexes.
+     *
+     * @return A future that completes once the indexes are ensured and the report is logged.
+     */
+    public CompletableFuture<Void> ensureAndReportAsync() {
+        var future = new CompletableFuture<Void>();
+        var thread = new Thread(() -> {
+            var start = System.currentTimeMillis();
+            try {
+                ensureAndReport();
+                log.info("Finished ensuring indexes in {}ms", System.currentTimeMillis() - start);
+                future.complete(null);
+            } catch (Throwable e) {
+                log.error("Unable to ensure indexes", e);
+                future.completeExceptionally(e);
+            }
+        }, "Mantaro Index Builder");
+
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Checks the query plan the server would pick for a find with this filter and sort.
+     * Aggregations starting with $match/$sort/$limit get planned the same way, so this works for those too.
+     *
+     * @param table  The collection to query.
+     * @param filter The query filter.
+     * @param sort   The sort, or null.
+     * @return Whether the winning plan has to scan the whole collection.
+     */
+    public boolean isCollectionScan(@Nonnull String table, @Nonnull Bson filter, @Nullable Bson sort) {
+        var find = database.get().getCollection(table).find(filter).limit(1);
+        if (sort != null) {
+            find.sort(sort);
+        }
+
+        var queryPlanner = find.explain().get("queryPlanner", Document.class);
+        return queryPlanner != null && hasStage(queryPlanner.get("winningPlan"), "COLLSCAN");
+    }
+
+    // Plans are nested (inputStage, inputStages, and queryPlan on newer servers), so just walk the whole thing.
+    private static boolean hasStage(Object plan, String stage) {
+        if (plan instanceof Document document) {
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+
+            return document.values().stream().anyMatch(value -> hasStage(value, stage));
+        }
+
+        if (plan instanceof List<?> list) {
+            return list.stream().anyMatch(value -> hasStage(value, stage));
+        }
+
+        return false;
+    }
+
+    // The server might give us back 1.0 or 1L where we declared 1, only the direction matters.
+    private static BsonDocument normalize(BsonDocument keys) {
+        var normalized = new BsonDocument();
+        keys.forEach((field, value) -> normalized.put(field,
+                value.isNumber() ? new BsonInt32(value.asNumber().doubleValue() < 0 ? -1 : 1) : value
+        ));
+
+        return normalized;
+    }
+
+    private Map<String, List<IndexDefinition>> byTable() {
+        return indexes.stream().collect(Collectors.groupingBy(IndexDefinition::table, LinkedHashMap::new, Collectors.toList()));
+    }
+}
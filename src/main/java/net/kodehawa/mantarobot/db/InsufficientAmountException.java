@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import java.io.Serial;
+import java.util.Map;
+
+/**
+ * Thrown when a write that takes from a field (see {@link FieldDelta}) finds the document holding less than it needs,
+ * because something else spent it since we read it. Nothing got written when this is thrown.
+ * <p>
+ * Writes like these never get deferred, so this reaches the command that spent it, which can tell the user.
+ */
+public class InsufficientAmountException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String table;
+    private final String id;
+    private final Map<String, Long> required;
+
+    public InsufficientAmountException(String table, String id, Map<String, Long> required) {
+        super("Not enough left on %s:%s for %s".formatted(table, id, required));
+        this.table = table;
+        this.id = id;
+        this.required = Map.copyOf(required);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    // Field key -> how much the write needed it to hold.
+    public Map<String, Long> getRequired() {
+        return required;
+    }
+}
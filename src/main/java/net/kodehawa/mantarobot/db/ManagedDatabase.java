@@ -17,350 +17,431 @@
 
 package net.kodehawa.mantarobot.db;
 
-import com.google.common.collect.Lists;
-import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.FindOneAndReplaceOptions;
-import com.mongodb.client.model.ReturnDocument;
-import com.mongodb.client.model.UpdateOptions;
-import com.mongodb.client.model.Updates;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import net.kodehawa.mantarobot.ExtraRuntimeOptions;
 import net.kodehawa.mantarobot.db.entities.CustomCommand;
-import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
 import net.kodehawa.mantarobot.db.entities.MantaroObject;
 import net.kodehawa.mantarobot.db.entities.Marriage;
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
 import net.kodehawa.mantarobot.db.entities.MongoUser;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.PlayerStats;
 import net.kodehawa.mantarobot.db.entities.PremiumKey;
-import org.bson.Document;
-import org.bson.conversions.Bson;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import net.kodehawa.mantarobot.utils.Pair;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-
-public class ManagedDatabase {
-    private static final Logger log = LoggerFactory.getLogger(ManagedDatabase.class);
-    private final MongoClient mongoClient;
-
-    public ManagedDatabase(@Nonnull MongoClient mongoClient) {
-        this.mongoClient = mongoClient;
-    }
-
-    private static void log(String message, Object... fmtArgs) {
-        if (ExtraRuntimeOptions.LOG_DB_ACCESS) {
-            log.info(message, fmtArgs);
-        }
-    }
-
-    private static void log(String message) {
-        if (ExtraRuntimeOptions.LOG_DB_ACCESS) {
-            log.info(message);
-        }
-    }
-
-    public MongoDatabase dbMantaro() {
-        return mongoClient.getDatabase("mantaro");
-    }
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Where all of our entities get loaded from and saved to. Get it through {@link net.kodehawa.mantarobot.data.MantaroData#db()}.
+ * The backend is picked on {@link net.kodehawa.mantarobot.data.Config}: {@link MongoManagedDatabase} unless told otherwise,
+ * or {@link InMemoryManagedDatabase}, which doesn't need a database server at all.
+ */
+public interface ManagedDatabase {
+    // One document per guild member with birthday settings: {_id: "guildId:userId", guildId, userId, allowed, blocked}
+    String GUILD_BIRTHDAYS_TABLE = "guild_birthdays";
 
     @Nullable
     @CheckReturnValue
-    public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
-        var id = guildId + ":" + name;
-        log("Requesting Custom Command {} from MongoDB", id);
-
-        MongoCollection<CustomCommand> collection = dbMantaro().getCollection(CustomCommand.DB_TABLE, CustomCommand.class);
-        return collection.find().filter(Filters.eq(id)).first();
-    }
+    CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name);
 
     @Nullable
     @CheckReturnValue
-    public CustomCommand getCustomCommand(@Nonnull Guild guild, @Nonnull String name) {
+    default CustomCommand getCustomCommand(@Nonnull Guild guild, @Nonnull String name) {
         return getCustomCommand(guild.getId(), name);
     }
 
     @SuppressWarnings("unused")
     @Nullable
     @CheckReturnValue
-    public CustomCommand getCustomCommand(@Nonnull MongoGuild guild, @Nonnull String name) {
+    default CustomCommand getCustomCommand(@Nonnull MongoGuild guild, @Nonnull String name) {
         return getCustomCommand(guild.getId(), name);
     }
 
     @SuppressWarnings("unused")
     @Nullable
     @CheckReturnValue
-    public CustomCommand getCustomCommand(@Nonnull MessageReceivedEvent event, @Nonnull String cmd) {
+    default CustomCommand getCustomCommand(@Nonnull MessageReceivedEvent event, @Nonnull String cmd) {
         return getCustomCommand(event.getGuild(), cmd);
     }
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public List<CustomCommand> getCustomCommands() {
-        log("Requesting all Custom Commands from MongoDB");
-        return Lists.newArrayList(dbMantaro().getCollection(CustomCommand.DB_TABLE, CustomCommand.class).find());
-    }
+    List<CustomCommand> getCustomCommands();
 
     @Nonnull
     @CheckReturnValue
-    public List<CustomCommand> getCustomCommands(@Nonnull String guildId) {
-        log("Requesting all Custom Commands from MongoDB on guild {}", guildId);
-        var collection = dbMantaro().getCollection(CustomCommand.DB_TABLE, CustomCommand.class);
-        return Lists.newArrayList(collection.find(Filters.eq("guildId", guildId)));
-    }
+    List<CustomCommand> getCustomCommands(@Nonnull String guildId);
 
     @Nonnull
     @CheckReturnValue
-    public List<CustomCommand> getCustomCommands(@Nonnull Guild guild) {
+    default List<CustomCommand> getCustomCommands(@Nonnull Guild guild) {
         return getCustomCommands(guild.getId());
     }
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public List<CustomCommand> getCustomCommands(@Nonnull MongoGuild guild) {
+    default List<CustomCommand> getCustomCommands(@Nonnull MongoGuild guild) {
         return getCustomCommands(guild.getId());
     }
 
     @Nonnull
     @CheckReturnValue
-    public MongoGuild getGuild(@Nonnull String guildId) {
-        log("Requesting Guild {} from MongoDB", guildId);
-        var collection = dbMantaro().getCollection(MongoGuild.DB_TABLE, MongoGuild.class);
-        var guild = collection.find().filter(Filters.eq(guildId)).first();
-        return guild == null ? MongoGuild.of(guildId) : guild;
-    }
+    MongoGuild getGuild(@Nonnull String guildId);
 
     @Nonnull
     @CheckReturnValue
-    public MongoGuild getGuild(@Nonnull Guild guild) {
+    default MongoGuild getGuild(@Nonnull Guild guild) {
         return getGuild(guild.getId());
     }
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public MongoGuild getGuild(@Nonnull Member member) {
+    default MongoGuild getGuild(@Nonnull Member member) {
         return getGuild(member.getGuild());
     }
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public MongoGuild getGuild(@Nonnull MessageReceivedEvent event) {
+    default MongoGuild getGuild(@Nonnull MessageReceivedEvent event) {
         return getGuild(event.getGuild());
     }
 
+    /**
+     * Gets only what's needed to dispatch a command on this guild (prefix, language, disable rules, premium key).
+     * Much lighter than {@link #getGuild(String)}, use this on hot paths that don't need the whole guild.
+     *
+     * @param guildId The guild id.
+     * @return The dispatch view of this guild, with defaults if the guild doesn't exist yet.
+     */
     @Nonnull
     @CheckReturnValue
-    public MantaroObject getMantaroData() {
-        log("Requesting MantaroObject from MongoDB");
-        var collection = dbMantaro().getCollection(MantaroObject.DB_TABLE, MantaroObject.class);
-        var obj = collection.find().filter(Filters.eq("mantaro")).first();
-        if (obj == null) {
-            // quick fix for the id being wrong, just create obj from the old one -- should work.
-            // next save should save it with the correct id, which should make this re-assigning superfluous after its fixed.
-            obj = collection.find().first();
-            if (obj == null) {
-                obj = MantaroObject.create();
-                obj.insertOrReplace();
-            }
-        }
+    GuildDispatchView getGuildDispatchView(@Nonnull String guildId);
 
-        return obj;
+    @Nonnull
+    @CheckReturnValue
+    default GuildDispatchView getGuildDispatchView(@Nonnull Guild guild) {
+        return getGuildDispatchView(guild.getId());
     }
 
     @Nonnull
     @CheckReturnValue
-    public Player getPlayer(@Nonnull String userId) {
-        log("Requesting Player {} from MongoDB", userId);
-        var collection = dbMantaro().getCollection(Player.DB_TABLE, Player.class);
-        var player = collection.find().filter(Filters.eq(userId)).first();
+    MantaroObject getMantaroData();
+
+    /**
+     * Gets the local snapshot of the guild and user blacklists. This doesn't hit the database:
+     * the snapshot gets rebuilt whenever the {@link MantaroObject} is saved, on this node or any other.
+     *
+     * @return The current blacklist snapshot.
+     */
+    @Nonnull
+    @CheckReturnValue
+    BlacklistSnapshot getBlacklist();
+
+    /**
+     * Gets the premium entitlement service, which knows (and caches) who is premium.
+     *
+     * @return The premium entitlement service.
+     */
+    @Nonnull
+    @CheckReturnValue
+    PremiumEntitlements getPremiumEntitlements();
+
+    /**
+     * Checks whether a member allowed their birthday to be announced on a guild.
+     *
+     * @param guildId The guild id.
+     * @param userId  The user id.
+     * @return Whether this user allowed their birthday to be announced on this guild.
+     */
+    @CheckReturnValue
+    boolean isBirthdayAllowed(@Nonnull String guildId, @Nonnull String userId);
+
+    /**
+     * Checks whether a guild blocked a member from birthday announcements.
+     *
+     * @param guildId The guild id.
+     * @param userId  The user id.
+     * @return Whether this user is blocked from birthday announcements on this guild.
+     */
+    @CheckReturnValue
+    boolean isBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId);
 
-        return player == null ? Player.of(userId) : player;
+    default void setBirthdayAllowed(@Nonnull String guildId, @Nonnull String userId, boolean allowed) {
+        setBirthdayAllowed(guildId, List.of(userId), allowed);
     }
 
+    void setBirthdayAllowed(@Nonnull String guildId, @Nonnull Collection<String> userIds, boolean allowed);
+
+    void setBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId, boolean blocked);
+
+    /**
+     * @param guildId The guild id.
+     * @return The ids of every member that allowed their birthday to be announced on this guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    Set<String> getAllowedBirthdays(@Nonnull String guildId);
+
+    /**
+     * @param guildId The guild id.
+     * @return The ids of every member blocked from birthday announcements on this guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    Set<String> getBlockedBirthdays(@Nonnull String guildId);
+
+    @Nonnull
+    @CheckReturnValue
+    Player getPlayer(@Nonnull String userId);
+
     @Nonnull
     @CheckReturnValue
-    public Player getPlayer(@Nonnull User user) {
+    default Player getPlayer(@Nonnull User user) {
         return getPlayer(user.getId());
     }
 
     @Nonnull
     @CheckReturnValue
-    public Player getPlayer(@Nonnull Member member) {
+    default Player getPlayer(@Nonnull Member member) {
         return getPlayer(member.getUser());
     }
 
     @Nonnull
     @CheckReturnValue
-    public PlayerStats getPlayerStats(@Nonnull String userId) {
-        log("Requesting PlayerStats {} from MongoDB", userId);
-        var collection = dbMantaro().getCollection(PlayerStats.DB_TABLE, PlayerStats.class);
-        var stats = collection.find().filter(Filters.eq(userId)).first();
-
-        return stats == null ? PlayerStats.of(userId) : stats;
-    }
+    PlayerStats getPlayerStats(@Nonnull String userId);
 
     @Nonnull
     @CheckReturnValue
-    public PlayerStats getPlayerStats(@Nonnull User user) {
+    default PlayerStats getPlayerStats(@Nonnull User user) {
         return getPlayerStats(user.getId());
     }
 
     @Nonnull
     @CheckReturnValue
-    public PlayerStats getPlayerStats(@Nonnull Member member) {
+    default PlayerStats getPlayerStats(@Nonnull Member member) {
         return getPlayerStats(member.getUser());
     }
 
     //Can be null and it's perfectly valid.
-    public Marriage getMarriage(String marriageId) {
-        if (marriageId == null) {
-            return null;
-        }
-
-        log("Requesting Marriage {} from MongoDB", marriageId);
-        return dbMantaro().getCollection(Marriage.DB_TABLE, Marriage.class).find(Filters.eq(marriageId)).first();
-    }
+    Marriage getMarriage(String marriageId);
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public List<Marriage> getMarriages() {
-        log("Requesting all Marriages from MongoDB");
-        return Lists.newArrayList(dbMantaro().getCollection(Marriage.DB_TABLE, Marriage.class).find());
-    }
+    List<Marriage> getMarriages();
 
     @SuppressWarnings("unused")
     @Nonnull
     @CheckReturnValue
-    public List<PremiumKey> getPremiumKeys() {
-        log("Requesting all Premium Keys from MongoDB");
-        var collection = dbMantaro().getCollection(PremiumKey.DB_TABLE, PremiumKey.class);
-        return Lists.newArrayList(collection.find());
-    }
+    List<PremiumKey> getPremiumKeys();
 
     //Also tests if the key is valid or not!
     @Nullable
     @CheckReturnValue
-    public PremiumKey getPremiumKey(@Nullable String id) {
-        log("Requesting Premium Key {} from MongoDB", id);
-        if (id == null) return null;
-
-        var collection = dbMantaro().getCollection(PremiumKey.DB_TABLE, PremiumKey.class);
-        return collection.find().filter(Filters.eq(id)).first();
-    }
+    PremiumKey getPremiumKey(@Nullable String id);
 
     @Nonnull
     @CheckReturnValue
-    public MongoUser getUser(@Nonnull String userId) {
-        log("Requesting User {} from MongoDB", userId);
-        var collection = dbMantaro().getCollection(MongoUser.DB_TABLE, MongoUser.class);
-        var user = collection.find().filter(Filters.eq(userId)).first();
-
-        return user == null ? MongoUser.of(userId) : user;
-    }
+    MongoUser getUser(@Nonnull String userId);
 
     @Nonnull
     @CheckReturnValue
-    public MongoUser getUser(@Nonnull User user) {
+    default MongoUser getUser(@Nonnull User user) {
         return getUser(user.getId());
     }
 
     @Nonnull
     @CheckReturnValue
-    public MongoUser getUser(@Nonnull Member member) {
+    default MongoUser getUser(@Nonnull Member member) {
         return getUser(member.getUser());
     }
 
-    public <T extends ManagedMongoObject> void saveMongo(@Nonnull T object, Class<T> clazz) {
-        log("Saving {} {}:{} to MongoDB (replacing whole)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+    /**
+     * The top documents of a table, sorted by a numeric field (highest first). Used for the leaderboards.
+     *
+     * @param table The table to look in.
+     * @param clazz The entity class of this table.
+     * @param field The field to sort by.
+     * @param limit How many documents to return at most.
+     * @return The top documents, highest first.
+     */
+    @Nonnull
+    @CheckReturnValue
+    <T extends ManagedMongoObject> List<T> getLeaderboard(@Nonnull String table, @Nonnull Class<T> clazz, @Nonnull String field, int limit);
 
-        var collection = dbMantaro().getCollection(object.getTableName(), clazz);
-        var returnDoc = new FindOneAndReplaceOptions().returnDocument(ReturnDocument.AFTER);
-        var found = collection.findOneAndReplace(Filters.eq(object.getId()), object, returnDoc);
-        if (found == null) { // New document?
-            collection.insertOne(object);
+    /**
+     * @return Every user that has a birthday set.
+     */
+    @Nonnull
+    @CheckReturnValue
+    List<MongoUser> getUsersWithBirthday();
+
+    /**
+     * Same as {@link #getUsersWithBirthday()}, but only holds a batch of them in memory at a time.
+     *
+     * @param fields   Which fields to load (the id always is), empty to load all of them.
+     * @param consumer Called with every user that has a birthday set.
+     */
+    void forEachUserWithBirthday(@Nonnull List<String> fields, @Nonnull Consumer<MongoUser> consumer);
+
+    /**
+     * Goes through every document on a table, only holding a batch of them in memory at a time.
+     * Use this instead of the getters that return a whole table as a list (ex. {@link #getMarriages()}).
+     *
+     * @param table    The table to go through.
+     * @param clazz    The class of the entities on it.
+     * @param fields   Which fields to load (the id always is), empty to load all of them.
+     * @param consumer Called with every document.
+     */
+    <T extends ManagedMongoObject> void forEach(@Nonnull String table, @Nonnull Class<T> clazz,
+                                                @Nonnull List<String> fields, @Nonnull Consumer<T> consumer);
+
+    <T extends ManagedMongoObject> void saveMongo(@Nonnull T object, Class<T> clazz);
+
+    <T extends ManagedMongoObject> void deleteMongo(@Nonnull T object, Class<T> clazz);
+
+    void updateFieldValue(ManagedMongoObject object, String key, Object value);
+
+    void updateFieldValues(ManagedMongoObject object, Map<String, Object> map);
+
+    /**
+     * Loads a versioned entity, applies a change to it and saves the changed fields, but only if nobody else wrote to it in between.
+     * If someone did, this loads it again (from the database) and re-applies the change.
+     * This is the only write that checks the version: use it for read-modify-write changes that can't be expressed as a delta.
+     * It's written right away, even inside a {@link UnitOfWork}.
+     *
+     * @param id          The id of the entity.
+     * @param loader      How to load it, for example {@code db::getPlayer}.
+     * @param mutation    The change to apply. Can run more than once, so it shouldn't have side effects outside the entity.
+     * @param maxAttempts How many times to try before giving up.
+     * @return The entity, after the change got written.
+     * @throws VersionConflictException If it couldn't be written after maxAttempts tries.
+     */
+    @Nonnull
+    default <T extends VersionedMongoObject> T updateVersioned(@Nonnull String id, @Nonnull Function<String, T> loader,
+                                                               @Nonnull Consumer<T> mutation, int maxAttempts) {
+        VersionConflictException last = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            // After a conflict, the cached copy got dropped, so this reads it again.
+            var entity = loader.apply(id);
+            mutation.accept(entity);
+
+            try {
+                VersionedWrites.checked(() -> {
+                    entity.updateAllChanged();
+                    return null;
+                });
+
+                return entity;
+            } catch (VersionConflictException e) {
+                last = e;
+            }
         }
-    }
 
-    public <T extends ManagedMongoObject> void deleteMongo(@Nonnull T object, Class<T> clazz) {
-        log("Deleting {} {}:{} from MongoDB (whole)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
-
-        MongoCollection<T> collection = dbMantaro().getCollection(object.getTableName(), clazz);
-        collection.deleteOne(Filters.eq(object.getId()));
+        throw last == null ? new IllegalArgumentException("maxAttempts must be at least 1") : last;
     }
 
-    public void updateFieldValue(ManagedMongoObject object, String key, Object value) {
-        log("Updating id {} key {} (from db {}) to {} (single value)", object.getId(), key, object.getTableName(), value);
+    /**
+     * Atomically increments a numeric field on the database side, and returns the value after the update.
+     * Use a negative amount to decrement: in that case the update only goes through if the value wouldn't go below zero,
+     * which makes concurrent updates (even from different nodes) safe without any locking.
+     *
+     * @param object The object to update.
+     * @param key    The field to increment.
+     * @param amount How much to increment (or decrement, if negative) by.
+     * @return The value of the field after the update, or null if it would have gone below zero (or the document doesn't exist).
+     */
+    @Nullable
+    Long incrementFieldValue(@Nonnull ManagedMongoObject object, @Nonnull String key, long amount);
+
+    /**
+     * Atomically moves an amount from a numeric field of a document to a numeric field of another document
+     * (for example, money or items from one player to another).
+     * The debit only goes through if the source wouldn't go below zero, and the credit only goes through if the debit did.
+     *
+     * @param from    The object to take from.
+     * @param fromKey The field to take from.
+     * @param debit   How much to take.
+     * @param to      The object to give to.
+     * @param toKey   The field to give to.
+     * @param credit  How much to give. Can differ from the debit (ex. transfer tax).
+     * @return A pair with the value of both fields after the transfer, or null if the source didn't have enough.
+     */
+    @Nullable
+    default Pair<Long, Long> transfer(@Nonnull ManagedMongoObject from, @Nonnull String fromKey, long debit,
+                                      @Nonnull ManagedMongoObject to, @Nonnull String toKey, long credit) {
+        return transfer(from, fromKey, debit, to, toKey, credit, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Same as {@link #transfer(ManagedMongoObject, String, long, ManagedMongoObject, String, long)},
+     * but the credit only goes through if the target field stays at or below a limit (ex. item stack sizes),
+     * checked on the database side, so it holds against concurrent writes too.
+     *
+     * @param from        The object to take from.
+     * @param fromKey     The field to take from.
+     * @param debit       How much to take.
+     * @param to          The object to give to.
+     * @param toKey       The field to give to.
+     * @param credit      How much to give.
+     * @param creditLimit The most the target field can hold after the credit.
+     * @param unsetEmpty  Whether to remove the source field if the debit leaves it at 0 (ex. inventory entries).
+     * @return A pair with the value of both fields after the transfer,
+     * or null if the source didn't have enough or the target would go over the limit.
+     */
+    @Nullable
+    Pair<Long, Long> transfer(@Nonnull ManagedMongoObject from, @Nonnull String fromKey, long debit,
+                              @Nonnull ManagedMongoObject to, @Nonnull String toKey, long credit,
+                              long creditLimit, boolean unsetEmpty);
 
-        var collection = dbMantaro().getCollection(object.getTableName());
-        collection.updateOne(Filters.eq(object.getId()), Updates.set(key, value), new UpdateOptions().upsert(true));
-    }
+    // ------------------------- ASYNC API ------------------------- //
+    // Same as their blocking counterparts, but without holding a thread while waiting on the database.
 
-    public void updateFieldValues(ManagedMongoObject object, Map<String, Object> map) {
-        log("Updating tracked set for id {} (db: {}, set size: {}) (batch values)", object.getId(), object.getTableName(), map.size(), object.getTableName());
+    @Nonnull
+    @CheckReturnValue
+    CompletableFuture<MongoGuild> getGuildAsync(@Nonnull String guildId);
 
-        // No need to try and save an empty set, just bail out.
-        if (map.isEmpty()) {
-            log("Empty tracked set when requesting update!");
-            return;
-        }
+    @Nonnull
+    @CheckReturnValue
+    CompletableFuture<Player> getPlayerAsync(@Nonnull String userId);
 
-        var collection = dbMantaro().getCollection(object.getTableName());
-        List<Bson> updates = new ArrayList<>();
-        map.forEach((key, value) -> {
-            if (value instanceof Map<?, ?> e) {
-                var keySet = e.keySet();
-                Object next = null;
-                if(!keySet.isEmpty()) {
-                    next = keySet.iterator().next();
-                }
-
-                // If key is of type Enum<T> or int/long, we need to convert them to String.
-                // Thankfully both have rather easy methods to do so: Enum returns the equivalent of name() on its default implementation,
-                // and String.valueOf works if you pass an object, which in the case of int/long, will give a String representation of the numerical value.
-                if (!keySet.isEmpty() && next instanceof Enum<?>) {
-                    updates.add(Updates.set(
-                            key,
-                            // Yes, seemingly this is needed.
-                            new Document(e.entrySet().stream().collect(Collectors.toMap(k -> k.getKey().toString(), Map.Entry::getValue))))
-                    );
-
-                    return; // This acts like continue; in a forEach loop
-                }
-
-                if (!keySet.isEmpty() && (next instanceof Integer || next instanceof Long)) {
-                    updates.add(Updates.set(
-                            key,
-                            // Yes, seemingly this is needed.
-                            new Document(e.entrySet().stream().collect(Collectors.toMap(k -> String.valueOf(k.getKey()), Map.Entry::getValue))))
-                    );
-
-                    return; // This acts like continue; in a forEach loop
-                }
-            }
+    @Nonnull
+    @CheckReturnValue
+    CompletableFuture<MongoUser> getUserAsync(@Nonnull String userId);
 
-            updates.add(Updates.set(key, value));
-        });
+    @Nonnull
+    @CheckReturnValue
+    CompletableFuture<PlayerStats> getPlayerStatsAsync(@Nonnull String userId);
 
-        log("Database Update with content: {}", updates.toString());
-        // Reminder: you NEED to use Updates.combine, else somehow Map objects will act really strangely (ex. will not remove deleted items, but will add new ones)
-        // Upsert means it's adding the document/embedded document if it does not exist on the current collection/document.
-        collection.updateOne(Filters.eq(object.getId()), Updates.combine(updates), new UpdateOptions().upsert(true));
-    }
+    // Completes with null if there's no marriage id, or no such marriage.
+    @Nonnull
+    @CheckReturnValue
+    CompletableFuture<Marriage> getMarriageAsync(@Nullable String marriageId);
+
+    /**
+     * Same as {@link #updateFieldValues(ManagedMongoObject, Map)}, without blocking.
+     * If the tracker takes from a field that no longer holds enough, the future completes exceptionally with an {@link InsufficientAmountException}.
+     *
+     * @param object The object to update.
+     * @param map    Its field tracker.
+     * @return A future that completes once the update is written (or queued, if write-behind is enabled).
+     */
+    @Nonnull
+    CompletableFuture<Void> updateFieldValuesAsync(@Nonnull ManagedMongoObject object, @Nonnull Map<String, Object> map);
 }
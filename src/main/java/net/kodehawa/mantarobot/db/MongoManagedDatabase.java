@@ -0,0 +1,1330 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import net.kodehawa.mantarobot.ExtraRuntimeOptions;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.CustomCommand;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.MantaroObject;
+import net.kodehawa.mantarobot.db.entities.Marriage;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import net.kodehawa.mantarobot.db.entities.PremiumKey;
+import net.kodehawa.mantarobot.utils.Pair;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The MongoDB backend of {@link ManagedDatabase}, with local caches (invalidated across nodes through Redis) and optional write-behind.
+ */
+public class MongoManagedDatabase implements ManagedDatabase {
+    private static final Logger log = LoggerFactory.getLogger(MongoManagedDatabase.class);
+    static final List<IndexDefinition> GUILD_BIRTHDAYS_INDEXES = List.of(
+            IndexDefinition.of(GUILD_BIRTHDAYS_TABLE, Indexes.ascending("guildId"), "guild birthday lists")
+    );
+    // Not a table: blacklist version bumps go through the invalidation channel under this name.
+    private static final String BLACKLIST_CHANNEL = "blacklist";
+    // Matches the partial birthday index on users (see MongoUser.INDEXES).
+    static final Bson HAS_BIRTHDAY = Filters.and(Filters.type("birthday", BsonType.STRING), Filters.ne("birthday", ""));
+    private static final long BLACKLIST_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private final MongoClient mongoClient;
+    // Used by the *Async methods, so they don't hold a thread while waiting on the database.
+    private final com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient;
+    // Full scans and aggregations go here, so they don't take connections from command lookups. Might read from a secondary.
+    private final MongoClient analyticsClient;
+    private final DatabaseInvalidator invalidator = new DatabaseInvalidator();
+    private final IndexManager indexManager = new IndexManager(this::dbMantaro);
+    // Table name -> caches. Writes to any of these tables get invalidated here and on every other node.
+    private final Map<String, List<EntityCache<?>>> caches = new ConcurrentHashMap<>();
+    private final EntityCache<MongoGuild> guildCache;
+    private final EntityCache<GuildDispatchView> guildDispatchCache;
+    private final EntityCache<Player> playerCache;
+    private final EntityCache<MongoUser> userCache;
+    private final EntityCache<Marriage> marriageCache;
+    private final PremiumEntitlements premiumEntitlements;
+    // Table name -> filter of the ids on it, only for tables where looking up missing documents is common. Empty if disabled.
+    private final Map<String, ExistenceFilter> existenceFilters = new HashMap<>();
+    // Only set if write-behind is enabled. Only cached tables are queued: their reads go through the cache, which flushes first.
+    private final WriteBehindQueue writeBehind;
+    // Standalone servers (most self-hosts) can't do transactions. We find out on the first transfer.
+    private volatile boolean transactionsSupported = true;
+    // Only used for transfers without a transaction.
+    private final TransferJournal transferJournal;
+    // Bumped on Redis every time the blacklists change, so every node knows its snapshot is stale.
+    private final String blacklistVersionKey;
+    private volatile BlacklistSnapshot blacklist;
+    private volatile long blacklistCheckedAt;
+    // Reloads the blacklists when another node bumps the version, so the Redis subscriber thread doesn't wait on MongoDB.
+    private final ExecutorService blacklistLoader = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Mantaro Blacklist Loader").setDaemon(true).build()
+    );
+
+    public MongoManagedDatabase(@Nonnull MongoClient mongoClient, @Nonnull com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient,
+                                @Nonnull MongoClient analyticsClient) {
+        this.mongoClient = mongoClient;
+        this.analyticsClient = analyticsClient;
+        this.reactiveMongoClient = reactiveMongoClient;
+
+        var config = MantaroData.config().get();
+        this.blacklistVersionKey = "blacklist-version-" + config.getClientId();
+        invalidator.register(BLACKLIST_CHANNEL, version -> blacklistLoader.execute(() -> {
+            var current = blacklist;
+            if (current == null || current.getVersion() != Long.parseLong(version)) {
+                loadBlacklist(Long.parseLong(version));
+            }
+        }));
+
+        var entityBudget = config.getEntityCacheBudget() * 1024L * 1024L;
+        var codecs = dbMantaro().getCodecRegistry();
+        this.guildCache = registerCache(new EntityCache<>(MongoGuild.DB_TABLE, codecs.get(MongoGuild.class),
+                config.getGuildCacheSize(), config.getGuildCacheExpiry())
+        );
+        this.guildDispatchCache = registerCache(new EntityCache<>(MongoGuild.DB_TABLE, "guilds_dispatch", codecs.get(GuildDispatchView.class), true,
+                config.getGuildCacheSize(), config.getGuildCacheExpiry())
+        );
+
+        this.playerCache = registerCache(EntityCache.withBudget(Player.DB_TABLE, codecs.get(Player.class), entityBudget, config.getEntityCacheExpiry()));
+        this.userCache = registerCache(EntityCache.withBudget(MongoUser.DB_TABLE, codecs.get(MongoUser.class), entityBudget, config.getEntityCacheExpiry()));
+        // Looked up (through the user) on every pet and currency action of married users, and rarely written to.
+        this.marriageCache = registerCache(new EntityCache<>(Marriage.DB_TABLE, codecs.get(Marriage.class),
+                config.getMarriageCacheSize(), config.getEntityCacheExpiry())
+        );
+
+        // An entry is a couple of fields, so keep at least as many as the user cache could (taking half a kilobyte as the smallest a user gets).
+        this.premiumEntitlements = new PremiumEntitlements(entityBudget / 512, config.getEntityCacheExpiry(), invalidator::publish);
+        invalidator.register(PremiumEntitlements.USERS_CHANNEL, premiumEntitlements::userInvalidated);
+        invalidator.register(PremiumEntitlements.GUILDS_CHANNEL, premiumEntitlements::guildInvalidated);
+        // Whatever was invalidated while we weren't subscribed never reached us, so nothing cached can be trusted.
+        invalidator.onSubscribe(() -> {
+            caches.values().forEach(tableCaches -> tableCaches.forEach(EntityCache::invalidateAll));
+            premiumEntitlements.invalidateAll();
+            // Checks the blacklist version again on the next lookup.
+            blacklistCheckedAt = 0;
+        });
+
+        if (config.isExistenceFilter()) {
+            var seeder = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("Mantaro Existence Filter Seeder").setDaemon(true).build()
+            );
+
+            for (var table : List.of(Player.DB_TABLE, MongoUser.DB_TABLE, PlayerStats.DB_TABLE)) {
+                // A scan, but a stale secondary could be missing something that was just written: read from the primary.
+                var filter = new ExistenceFilter(table, () -> dbAnalytics().withReadPreference(ReadPreference.primary()),
+                        invalidator::getSubscribedSince
+                );
+                existenceFilters.put(table, filter);
+                // Writes on other nodes: anything invalidated or new on another node might exist now.
+                invalidator.register(table, filter::add);
+                Runnable seed = () -> {
+                    try {
+                        filter.seed();
+                    } catch (Exception e) {
+                        log.error("Unable to seed the existence filter for {}", table, e);
+                    }
+                };
+
+                seeder.scheduleWithFixedDelay(seed, 0, config.getExistenceFilterRefresh(), TimeUnit.MINUTES);
+                // We might have missed writes while we weren't subscribed, and the filter won't trust itself until it's seeded again.
+                invalidator.onSubscribe(() -> seeder.execute(seed));
+            }
+        }
+
+        // Index builds can take a while on big collections, so they don't hold up boot.
+        indexManager.register(Player.INDEXES)
+                .register(PlayerStats.INDEXES)
+                .register(MongoUser.INDEXES)
+                .register(CustomCommand.INDEXES)
+                .register(GUILD_BIRTHDAYS_INDEXES)
+                .ensureAndReportAsync();
+
+        this.transferJournal = new TransferJournal(this::dbMantaro, this::invalidate);
+        this.writeBehind = config.isWriteBehind() ? new WriteBehindQueue(this::dbMantaro, invalidator::publish, this::invalidate,
+                config.getWriteBehindInterval(), config.getWriteBehindBatchSize()
+        ) : null;
+    }
+
+    private static void log(String message, Object... fmtArgs) {
+        if (ExtraRuntimeOptions.LOG_DB_ACCESS) {
+            log.info(message, fmtArgs);
+        }
+    }
+
+    private static void log(String message) {
+        if (ExtraRuntimeOptions.LOG_DB_ACCESS) {
+            log.info(message);
+        }
+    }
+
+    public MongoDatabase dbMantaro() {
+        return mongoClient.getDatabase("mantaro");
+    }
+
+    /**
+     * The database on the analytics client: use this for scans and aggregations that can take a while,
+     * and can live with slightly stale data (it reads from secondaries if configured to).
+     */
+    public MongoDatabase dbAnalytics() {
+        return analyticsClient.getDatabase("mantaro");
+    }
+
+    public com.mongodb.reactivestreams.client.MongoDatabase dbMantaroAsync() {
+        return reactiveMongoClient.getDatabase("mantaro");
+    }
+
+    public IndexManager getIndexManager() {
+        return indexManager;
+    }
+
+    private <T> EntityCache<T> registerCache(EntityCache<T> cache) {
+        caches.computeIfAbsent(cache.getTable(), table -> new CopyOnWriteArrayList<>()).add(cache);
+        invalidator.register(cache.getTable(), cache::invalidate);
+        return cache;
+    }
+
+    // Call these *after* writing, else another thread could cache the old document again.
+    // For writes we can't apply to what's cached (ex. transfers), which just drop it.
+    private void written(ManagedMongoObject object) {
+        forEachCache(object, cache -> cache.written(object));
+        invalidator.publish(object.getTableName(), object.getId());
+    }
+
+    // Cached entries get the same updates (and the version bump every write comes with) applied.
+    private void written(ManagedMongoObject object, Collection<Bson> updates) {
+        List<Bson> applied = new ArrayList<>(updates);
+        if (object instanceof VersionedMongoObject) {
+            applied.add(Updates.inc("version", 1L));
+        }
+
+        var codecs = dbMantaro().getCodecRegistry();
+        forEachCache(object, cache -> cache.written(object, applied, codecs));
+        invalidator.publish(object.getTableName(), object.getId());
+    }
+
+    private void replaced(ManagedMongoObject object) {
+        forEachCache(object, cache -> cache.replaced(object));
+        invalidator.publish(object.getTableName(), object.getId());
+    }
+
+    private void forEachCache(ManagedMongoObject object, Consumer<EntityCache<?>> action) {
+        var tableCaches = caches.get(object.getTableName());
+        if (tableCaches != null) {
+            tableCaches.forEach(action);
+        }
+    }
+
+    // Versioned objects need to know if the write went through, so they can't be queued.
+    private boolean isQueued(ManagedMongoObject object) {
+        return writeBehind != null && caches.containsKey(object.getTableName()) && !(object instanceof VersionedMongoObject);
+    }
+
+    // Anything that doesn't go through the write-behind queue needs to wait for what's queued for that document first.
+    // Same goes for what the current command deferred (see UnitOfWork), which has to land before what's queued.
+    private void flushPending(String table, String id) {
+        UnitOfWork.flush(table, id);
+        if (writeBehind != null) {
+            writeBehind.flush(table, id);
+        }
+    }
+
+    private void enqueue(ManagedMongoObject object, Map<String, Bson> updates) {
+        writeBehind.enqueue(object.getTableName(), object.getId(), updates);
+        // Other nodes get told once it's actually written, else they'd just load the old document again.
+        var codecs = dbMantaro().getCodecRegistry();
+        forEachCache(object, cache -> cache.written(object, updates.values(), codecs));
+    }
+
+    private boolean mightExist(String table, String id) {
+        var filter = existenceFilters.get(table);
+        return filter == null || filter.mightExist(id);
+    }
+
+    // Before writing: once it's written, no one should think it doesn't exist.
+    private void exists(ManagedMongoObject object) {
+        var filter = existenceFilters.get(object.getTableName());
+        if (filter != null && filter.add(object.getId())) {
+            invalidator.publish(object.getTableName(), object.getId());
+        }
+    }
+
+    private void invalidate(ManagedMongoObject object) {
+        invalidate(object.getTableName(), object.getId());
+    }
+
+    private void invalidate(String table, String id) {
+        var tableCaches = caches.get(table);
+        if (tableCaches == null) {
+            return;
+        }
+
+        tableCaches.forEach(cache -> cache.invalidate(id));
+        invalidator.publish(table, id);
+    }
+
+    @Override
+    public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
+        var id = guildId + ":" + name;
+        log("Requesting Custom Command {} from MongoDB", id);
+
+        MongoCollection<CustomCommand> collection = dbMantaro().getCollection(CustomCommand.DB_TABLE, CustomCommand.class);
+        return DatabaseMetrics.read(CustomCommand.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(id)).first());
+    }
+
+    @Override
+    public List<CustomCommand> getCustomCommands() {
+        log("Requesting all Custom Commands from MongoDB");
+        var collection = dbAnalytics().getCollection(CustomCommand.DB_TABLE, CustomCommand.class);
+        return DatabaseMetrics.read(CustomCommand.DB_TABLE, "find_many", () -> Lists.newArrayList(collection.find()));
+    }
+
+    @Override
+    public List<CustomCommand> getCustomCommands(@Nonnull String guildId) {
+        log("Requesting all Custom Commands from MongoDB on guild {}", guildId);
+        var collection = dbMantaro().getCollection(CustomCommand.DB_TABLE, CustomCommand.class);
+        return DatabaseMetrics.read(CustomCommand.DB_TABLE, "find_many", () -> Lists.newArrayList(collection.find(Filters.eq("guildId", guildId))));
+    }
+
+    @Override
+    public MongoGuild getGuild(@Nonnull String guildId) {
+        return guildCache.get(guildId, id -> {
+            log("Requesting Guild {} from MongoDB", id);
+            flushPending(MongoGuild.DB_TABLE, id);
+            var collection = dbMantaro().getCollection(MongoGuild.DB_TABLE, MongoGuild.class);
+            var guild = DatabaseMetrics.read(MongoGuild.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(id)).first());
+            if (guild == null) {
+                return MongoGuild.of(id);
+            }
+
+            migrateBirthdays(guild);
+            return guild;
+        });
+    }
+
+    @Override
+    public GuildDispatchView getGuildDispatchView(@Nonnull String guildId) {
+        return guildDispatchCache.get(guildId, id -> {
+            // Already have the whole guild? No need to ask the database.
+            var cached = guildCache.getIfPresent(id);
+            if (cached != null) {
+                return GuildDispatchView.of(cached);
+            }
+
+            log("Requesting Guild {} (dispatch view) from MongoDB", id);
+            flushPending(MongoGuild.DB_TABLE, id);
+            var collection = dbMantaro().getCollection(MongoGuild.DB_TABLE, GuildDispatchView.class);
+            var view = DatabaseMetrics.read(MongoGuild.DB_TABLE, "find_projected", () ->
+                    collection.find().filter(Filters.eq(id)).projection(GuildDispatchView.PROJECTION).first()
+            );
+            return view == null ? new GuildDispatchView(id) : view;
+        });
+    }
+
+    @Override
+    public MantaroObject getMantaroData() {
+        log("Requesting MantaroObject from MongoDB");
+        var collection = dbMantaro().getCollection(MantaroObject.DB_TABLE, MantaroObject.class);
+        var obj = DatabaseMetrics.read(MantaroObject.DB_TABLE, "find", () -> collection.find().filter(Filters.eq("mantaro")).first());
+        if (obj == null) {
+            // quick fix for the id being wrong, just create obj from the old one -- should work.
+            // next save should save it with the correct id, which should make this re-assigning superfluous after its fixed.
+            obj = DatabaseMetrics.read(MantaroObject.DB_TABLE, "find", () -> collection.find().first());
+            if (obj == null) {
+                obj = MantaroObject.create();
+                obj.insertOrReplace();
+            }
+        }
+
+        return obj;
+    }
+
+    @Override
+    public BlacklistSnapshot getBlacklist() {
+        var snapshot = blacklist;
+        if (snapshot == null) {
+            return loadBlacklist(blacklistVersion(0));
+        }
+
+        // In case we missed an invalidation (the listener was reconnecting), check the version every now and then.
+        var now = System.currentTimeMillis();
+        if (now - blacklistCheckedAt > BLACKLIST_CHECK_INTERVAL) {
+            blacklistCheckedAt = now;
+            var version = blacklistVersion(snapshot.getVersion());
+            if (version != snapshot.getVersion()) {
+                return loadBlacklist(version);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private BlacklistSnapshot loadBlacklist(long version) {
+        var snapshot = BlacklistSnapshot.of(getMantaroData(), version);
+        blacklist = snapshot;
+        blacklistCheckedAt = System.currentTimeMillis();
+        log.debug("Loaded blacklist version {} ({} guilds, {} users)", version, snapshot.guildCount(), snapshot.userCount());
+        return snapshot;
+    }
+
+    private long blacklistVersion(long fallback) {
+        try (var jedis = MantaroData.getDefaultJedisPool().getResource()) {
+            var version = jedis.get(blacklistVersionKey);
+            return version == null ? 0 : Long.parseLong(version);
+        } catch (Exception e) {
+            log.warn("Unable to get the blacklist version, keeping version {}", fallback, e);
+            return fallback;
+        }
+    }
+
+    // We already have the new lists, so no need to load them again. Other nodes will once they see the new version.
+    private void blacklistChanged(MantaroObject data) {
+        long version;
+        try (var jedis = MantaroData.getDefaultJedisPool().getResource()) {
+            version = jedis.incr(blacklistVersionKey);
+        } catch (Exception e) {
+            // Other nodes will pick it up on their next version check, or when their snapshot gets rebuilt.
+            log.warn("Unable to bump the blacklist version", e);
+            var current = blacklist;
+            blacklist = BlacklistSnapshot.of(data, current == null ? 0 : current.getVersion());
+            return;
+        }
+
+        blacklist = BlacklistSnapshot.of(data, version);
+        blacklistCheckedAt = System.currentTimeMillis();
+        invalidator.publish(BLACKLIST_CHANNEL, String.valueOf(version));
+    }
+
+    @Override
+    public PremiumEntitlements getPremiumEntitlements() {
+        return premiumEntitlements;
+    }
+
+    @Override
+    public boolean isBirthdayAllowed(@Nonnull String guildId, @Nonnull String userId) {
+        return hasBirthdayFlag(guildId, userId, "allowed");
+    }
+
+    @Override
+    public boolean isBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId) {
+        return hasBirthdayFlag(guildId, userId, "blocked");
+    }
+
+    @Override
+    public void setBirthdayAllowed(@Nonnull String guildId, @Nonnull Collection<String> userIds, boolean allowed) {
+        setBirthdayFlag(guildId, userIds, "allowed", allowed);
+    }
+
+    @Override
+    public void setBirthdayBlocked(@Nonnull String guildId, @Nonnull String userId, boolean blocked) {
+        setBirthdayFlag(guildId, List.of(userId), "blocked", blocked);
+    }
+
+    @Override
+    public Set<String> getAllowedBirthdays(@Nonnull String guildId) {
+        return getBirthdayFlagged(guildId, "allowed");
+    }
+
+    @Override
+    public Set<String> getBlockedBirthdays(@Nonnull String guildId) {
+        return getBirthdayFlagged(guildId, "blocked");
+    }
+
+    private boolean hasBirthdayFlag(String guildId, String userId, String flag) {
+        log("Requesting birthday flag {} for {} on guild {} from MongoDB", flag, userId, guildId);
+        var collection = dbMantaro().getCollection(GUILD_BIRTHDAYS_TABLE);
+        return DatabaseMetrics.read(GUILD_BIRTHDAYS_TABLE, "find", () ->
+                collection.find(Filters.and(Filters.eq(guildId + ":" + userId), Filters.eq(flag, true)))
+                        .projection(Projections.include("_id"))
+                        .first() != null
+        );
+    }
+
+    private Set<String> getBirthdayFlagged(String guildId, String flag) {
+        log("Requesting all birthday flags {} on guild {} from MongoDB", flag, guildId);
+        var collection = dbMantaro().getCollection(GUILD_BIRTHDAYS_TABLE);
+        return DatabaseMetrics.read(GUILD_BIRTHDAYS_TABLE, "find_many", () -> {
+            var found = collection.find(birthdayFlagged(guildId, flag))
+                    .projection(Projections.include("userId"));
+
+            Set<String> ids = new HashSet<>();
+            for (var document : found) {
+                ids.add(document.getString("userId"));
+            }
+
+            return ids;
+        });
+    }
+
+    // Goes through the guildId index on the birthday collection.
+    static Bson birthdayFlagged(String guildId, String flag) {
+        return Filters.and(Filters.eq("guildId", guildId), Filters.eq(flag, true));
+    }
+
+    private void setBirthdayFlag(String guildId, Collection<String> userIds, String flag, boolean value) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+
+        log("Setting birthday flag {} to {} for {} members on guild {}", flag, value, userIds.size(), guildId);
+        var collection = dbMantaro().getCollection(GUILD_BIRTHDAYS_TABLE);
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (var userId : userIds) {
+            writes.add(new UpdateOneModel<>(
+                    Filters.eq(guildId + ":" + userId),
+                    Updates.combine(Updates.set("guildId", guildId), Updates.set("userId", userId), Updates.set(flag, value)),
+                    new UpdateOptions().upsert(true)
+            ));
+        }
+
+        DatabaseMetrics.write(GUILD_BIRTHDAYS_TABLE, "bulk_write", () -> collection.bulkWrite(writes, new BulkWriteOptions().ordered(false)));
+    }
+
+    // Birthday settings used to be lists on the guild document, which grew with the member count.
+    // Move them to their own collection the first time we load a guild that still has them.
+    private void migrateBirthdays(MongoGuild guild) {
+        var allowed = guild.getAllowedBirthdays();
+        var blocked = guild.getBirthdayBlockedIds();
+        if (allowed.isEmpty() && blocked.isEmpty()) {
+            return;
+        }
+
+        try {
+            log.info("Migrating {} allowed and {} blocked birthdays out of guild {}", allowed.size(), blocked.size(), guild.getId());
+            setBirthdayFlag(guild.getId(), allowed, "allowed", true);
+            setBirthdayFlag(guild.getId(), blocked, "blocked", true);
+
+            var updates = List.of(Updates.unset("allowedBirthdays"), Updates.unset("birthdayBlockedIds"));
+            var collection = dbMantaro().getCollection(MongoGuild.DB_TABLE);
+            DatabaseMetrics.write(MongoGuild.DB_TABLE, "update", () -> collection.updateOne(Filters.eq(guild.getId()), Updates.combine(updates)));
+
+            allowed.clear();
+            blocked.clear();
+            // Like any other write: cached copies (here and on other nodes) drop the lists too.
+            // This also keeps the load we're in from being cached, the next one reads the migrated guild.
+            written(guild, updates);
+        } catch (Exception e) {
+            // Nothing gets lost: the embedded lists are only removed once they're copied, we'll try again on the next load.
+            log.warn("Unable to migrate birthdays out of guild {}", guild.getId(), e);
+        }
+    }
+
+    @Override
+    public Player getPlayer(@Nonnull String userId) {
+        return playerCache.get(userId, id -> {
+            log("Requesting Player {} from MongoDB", id);
+            flushPending(Player.DB_TABLE, id);
+            if (!mightExist(Player.DB_TABLE, id)) {
+                return Player.of(id);
+            }
+
+            var collection = dbMantaro().getCollection(Player.DB_TABLE, Player.class);
+            var player = DatabaseMetrics.read(Player.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(id)).first());
+
+            return player == null ? Player.of(id) : player;
+        });
+    }
+
+    @Override
+    public PlayerStats getPlayerStats(@Nonnull String userId) {
+        log("Requesting PlayerStats {} from MongoDB", userId);
+        UnitOfWork.flush(PlayerStats.DB_TABLE, userId);
+        if (!mightExist(PlayerStats.DB_TABLE, userId)) {
+            return PlayerStats.of(userId);
+        }
+
+        var collection = dbMantaro().getCollection(PlayerStats.DB_TABLE, PlayerStats.class);
+        var stats = DatabaseMetrics.read(PlayerStats.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(userId)).first());
+
+        return stats == null ? PlayerStats.of(userId) : stats;
+    }
+
+    @Override
+    public Marriage getMarriage(String marriageId) {
+        if (marriageId == null) {
+            return null;
+        }
+
+        // Divorced (deleted) marriages aren't cached, but everyone pointing to them gets unset on divorce anyway.
+        return marriageCache.get(marriageId, id -> {
+            log("Requesting Marriage {} from MongoDB", id);
+            flushPending(Marriage.DB_TABLE, id);
+            var collection = dbMantaro().getCollection(Marriage.DB_TABLE, Marriage.class);
+            return DatabaseMetrics.read(Marriage.DB_TABLE, "find", () -> collection.find(Filters.eq(id)).first());
+        });
+    }
+
+    @Override
+    public List<Marriage> getMarriages() {
+        log("Requesting all Marriages from MongoDB");
+        var collection = dbAnalytics().getCollection(Marriage.DB_TABLE, Marriage.class);
+        return DatabaseMetrics.read(Marriage.DB_TABLE, "find_many", () -> Lists.newArrayList(collection.find()));
+    }
+
+    @Override
+    public List<PremiumKey> getPremiumKeys() {
+        log("Requesting all Premium Keys from MongoDB");
+        var collection = dbAnalytics().getCollection(PremiumKey.DB_TABLE, PremiumKey.class);
+        return DatabaseMetrics.read(PremiumKey.DB_TABLE, "find_many", () -> Lists.newArrayList(collection.find()));
+    }
+
+    @Override
+    public PremiumKey getPremiumKey(@Nullable String id) {
+        log("Requesting Premium Key {} from MongoDB", id);
+        if (id == null) return null;
+
+        var collection = dbMantaro().getCollection(PremiumKey.DB_TABLE, PremiumKey.class);
+        return DatabaseMetrics.read(PremiumKey.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(id)).first());
+    }
+
+    @Override
+    public MongoUser getUser(@Nonnull String userId) {
+        return userCache.get(userId, id -> {
+            log("Requesting User {} from MongoDB", id);
+            flushPending(MongoUser.DB_TABLE, id);
+            if (!mightExist(MongoUser.DB_TABLE, id)) {
+                return MongoUser.of(id);
+            }
+
+            var collection = dbMantaro().getCollection(MongoUser.DB_TABLE, MongoUser.class);
+            var user = DatabaseMetrics.read(MongoUser.DB_TABLE, "find", () -> collection.find().filter(Filters.eq(id)).first());
+
+            return user == null ? MongoUser.of(id) : user;
+        });
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> List<T> getLeaderboard(@Nonnull String table, @Nonnull Class<T> clazz, @Nonnull String field, int limit) {
+        log("Requesting leaderboard of {} (sorted by {}) from MongoDB", table, field);
+        // $sort + $limit get planned as a top-k index scan, the sort fields are declared as indexes on each entity (see IndexManager).
+        var collection = dbAnalytics().getCollection(table, clazz);
+        return DatabaseMetrics.read(table, "aggregate", () -> Lists.newArrayList(collection.aggregate(List.of(
+                Aggregates.sort(Sorts.descending(field)),
+                Aggregates.limit(limit)
+        ))));
+    }
+
+    @Override
+    public List<MongoUser> getUsersWithBirthday() {
+        log("Requesting all users with a birthday from MongoDB");
+        var collection = dbAnalytics().getCollection(MongoUser.DB_TABLE, MongoUser.class);
+        // Goes through the partial birthday index, instead of loading every user.
+        return DatabaseMetrics.read(MongoUser.DB_TABLE, "find_many", () -> Lists.newArrayList(collection.find(HAS_BIRTHDAY)));
+    }
+
+    @Override
+    public void forEachUserWithBirthday(@Nonnull List<String> fields, @Nonnull Consumer<MongoUser> consumer) {
+        log("Going through all users with a birthday on MongoDB");
+        scan(MongoUser.DB_TABLE, MongoUser.class, HAS_BIRTHDAY, fields, consumer);
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void forEach(@Nonnull String table, @Nonnull Class<T> clazz,
+                                                       @Nonnull List<String> fields, @Nonnull Consumer<T> consumer) {
+        log("Going through all of {} on MongoDB", table);
+        scan(table, clazz, new Document(), fields, consumer);
+    }
+
+    // The driver fetches the next batch once the current one is used up, so only one batch is in memory at a time.
+    // Note the time this reports includes what the consumer does with each document.
+    private <T> void scan(String table, Class<T> clazz, Bson filter, List<String> fields, Consumer<T> consumer) {
+        var find = dbAnalytics().getCollection(table, clazz).find(filter)
+                .batchSize(MantaroData.config().get().getScanBatchSize());
+        if (!fields.isEmpty()) {
+            find = find.projection(Projections.include(fields));
+        }
+
+        var iterable = find;
+        DatabaseMetrics.read(table, "scan", () -> {
+            try (var cursor = iterable.cursor()) {
+                cursor.forEachRemaining(consumer);
+            }
+
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void saveMongo(@Nonnull T object, Class<T> clazz) {
+        log("Saving {} {}:{} to MongoDB (replacing whole)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        exists(object);
+
+        flushPending(object.getTableName(), object.getId());
+        var collection = dbMantaro().getCollection(object.getTableName(), clazz);
+        var returnDoc = new FindOneAndReplaceOptions().returnDocument(ReturnDocument.AFTER);
+        if (object instanceof VersionedMongoObject versioned && VersionedWrites.isChecked()) {
+            synchronized (versioned) {
+                var expected = versioned.getVersion();
+                // The object is what gets written, so it needs the new version before writing.
+                versioned.setVersion(expected + 1);
+                try {
+                    DatabaseMetrics.write(object.getTableName(), "replace", () -> {
+                        var found = collection.findOneAndReplace(versionFilter(object.getId(), expected), object, returnDoc);
+                        if (found == null) { // New document, or someone else wrote to it (in which case the insert fails)
+                            collection.insertOne(object);
+                        }
+                    });
+                } catch (MongoWriteException e) {
+                    versioned.setVersion(expected);
+                    if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                        throw conflict(versioned, expected);
+                    }
+
+                    throw e;
+                } catch (RuntimeException e) {
+                    versioned.setVersion(expected);
+                    throw e;
+                }
+            }
+
+            replaced(object);
+            return;
+        }
+
+        // Not checked, but it still moves the version on, so a checked write that read before this one conflicts.
+        if (object instanceof VersionedMongoObject versioned) {
+            synchronized (versioned) {
+                versioned.setVersion(versioned.getVersion() + 1);
+            }
+        }
+
+        DatabaseMetrics.write(object.getTableName(), "replace", () -> {
+            var found = collection.findOneAndReplace(Filters.eq(object.getId()), object, returnDoc);
+            if (found == null) { // New document?
+                collection.insertOne(object);
+            }
+        });
+
+        if (object instanceof MantaroObject data) {
+            blacklistChanged(data);
+        }
+
+        replaced(object);
+    }
+
+    @Override
+    public <T extends ManagedMongoObject> void deleteMongo(@Nonnull T object, Class<T> clazz) {
+        log("Deleting {} {}:{} from MongoDB (whole)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+
+        flushPending(object.getTableName(), object.getId());
+        MongoCollection<T> collection = dbMantaro().getCollection(object.getTableName(), clazz);
+        DatabaseMetrics.write(object.getTableName(), "delete", () -> collection.deleteOne(Filters.eq(object.getId())));
+        invalidate(object);
+    }
+
+    @Override
+    public void updateFieldValue(ManagedMongoObject object, String key, Object value) {
+        log("Updating id {} key {} (from db {}) to {} (single value)", object.getId(), key, object.getTableName(), value);
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        exists(object);
+        if (isQueued(object)) {
+            enqueue(object, Map.of(key, Updates.set(key, value)));
+            return;
+        }
+
+        var collection = dbMantaro().getCollection(object.getTableName());
+        if (object instanceof VersionedMongoObject versioned && VersionedWrites.isChecked()) {
+            compareAndSet(collection, versioned, List.of(Updates.set(key, value)), Map.of());
+        } else {
+            update(collection, object, List.of(Updates.set(key, value)), Map.of());
+        }
+
+        written(object, List.of(Updates.set(key, value)));
+    }
+
+    private static Bson versionFilter(String id, long version) {
+        if (version == 0) {
+            // Documents written before versioning was a thing have no version at all.
+            return Filters.and(Filters.eq(id), Filters.or(Filters.eq("version", 0L), Filters.exists("version", false)));
+        }
+
+        return Filters.and(Filters.eq(id), Filters.eq("version", version));
+    }
+
+    // Applies these updates only if nobody wrote to the document since we last did, bumping its version.
+    // Only for writes that asked for it, see VersionedWrites.
+    private void compareAndSet(MongoCollection<Document> collection, VersionedMongoObject object, Collection<Bson> updates, Map<String, Long> guards) {
+        // Writes through the same (cached) instance on this node are fine, they just need to go one at a time.
+        synchronized (object) {
+            var expected = object.getVersion();
+            List<Bson> combined = new ArrayList<>(updates);
+            combined.add(Updates.set("version", expected + 1));
+
+            try {
+                // If the version doesn't match, the upsert tries to insert a duplicate id and fails.
+                // With guards it can't upsert (see update), so it just doesn't match, and we need to look at why.
+                var result = DatabaseMetrics.write(object.getTableName(), "update", () ->
+                        collection.updateOne(
+                                FieldUpdates.guarded(versionFilter(object.getId(), expected), guards), Updates.combine(combined), new UpdateOptions().upsert(guards.isEmpty())
+                        )
+                );
+
+                if (result.getMatchedCount() == 0 && result.getUpsertedId() == null) {
+                    var current = DatabaseMetrics.read(object.getTableName(), "find", () ->
+                            collection.find(Filters.eq(object.getId())).projection(Projections.include("version")).first()
+                    );
+
+                    var version = current == null ? null : current.get("version", Number.class);
+                    if (current == null || (version == null ? 0 : version.longValue()) == expected) {
+                        throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+                    }
+
+                    throw conflict(object, expected);
+                }
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                    throw conflict(object, expected);
+                }
+
+                throw e;
+            }
+
+            object.setVersion(expected + 1);
+        }
+    }
+
+    // A plain update, which bumps the version of versioned objects without checking it.
+    // Guards are what deltas need the document to hold (see FieldDelta). With guards it can't upsert:
+    // a document that's there but doesn't hold enough would look like a new one, and a missing one can't hold anything.
+    private void update(MongoCollection<Document> collection, ManagedMongoObject object, Collection<Bson> updates, Map<String, Long> guards) {
+        var filter = FieldUpdates.guarded(Filters.eq(object.getId()), guards);
+        var upsert = guards.isEmpty();
+        if (object instanceof VersionedMongoObject) {
+            List<Bson> combined = new ArrayList<>(updates);
+            combined.add(Updates.inc("version", 1L));
+            var options = new FindOneAndUpdateOptions()
+                    .returnDocument(ReturnDocument.AFTER)
+                    .projection(Projections.include("version"))
+                    .upsert(upsert);
+
+            var result = DatabaseMetrics.write(object.getTableName(), "update", () ->
+                    collection.findOneAndUpdate(filter, Updates.combine(combined), options)
+            );
+
+            if (result == null) {
+                throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+            }
+
+            advanceVersion(object, result);
+            return;
+        }
+
+        // Reminder: you NEED to use Updates.combine, else somehow Map objects will act really strangely (ex. will not remove deleted items, but will add new ones)
+        var result = DatabaseMetrics.write(object.getTableName(), "update", () ->
+                collection.updateOne(filter, Updates.combine(new ArrayList<>(updates)), new UpdateOptions().upsert(upsert))
+        );
+
+        if (result.getMatchedCount() == 0 && result.getUpsertedId() == null) {
+            throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+        }
+    }
+
+    // What we have is stale: drop it locally, so the next read gets what the other writer wrote.
+    private VersionConflictException conflict(VersionedMongoObject object, long expected) {
+        var tableCaches = caches.get(object.getTableName());
+        if (tableCaches != null) {
+            tableCaches.forEach(cache -> cache.invalidate(object.getId()));
+        }
+
+        return new VersionConflictException(object.getTableName(), object.getId(), expected);
+    }
+
+    // Atomic updates don't check the version (they can't conflict), but still bump it, so a stale replace can't undo them.
+    private static Bson incrementUpdate(ManagedMongoObject object, String key, long amount) {
+        if (object instanceof VersionedMongoObject) {
+            return Updates.combine(Updates.inc(key, amount), Updates.inc("version", 1L));
+        }
+
+        return Updates.inc(key, amount);
+    }
+
+    private static Bson incrementProjection(ManagedMongoObject object, String key) {
+        return object instanceof VersionedMongoObject ? Projections.include(key, "version") : Projections.include(key);
+    }
+
+    // Move our version forward after an atomic update, but only if nobody else wrote in between.
+    // If they did, what we hold is stale, and the next compare-and-set should fail.
+    private static void advanceVersion(ManagedMongoObject object, Document result) {
+        if (object instanceof VersionedMongoObject versioned && result.get("version") instanceof Number version) {
+            synchronized (versioned) {
+                if (versioned.getVersion() == version.longValue() - 1) {
+                    versioned.setVersion(version.longValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Long incrementFieldValue(@Nonnull ManagedMongoObject object, @Nonnull String key, long amount) {
+        log("Incrementing id {} key {} (from db {}) by {} (atomic)", object.getId(), key, object.getTableName(), amount);
+        exists(object);
+        flushPending(object.getTableName(), object.getId());
+
+        var collection = dbMantaro().getCollection(object.getTableName());
+        var options = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(incrementProjection(object, key));
+
+        Bson filter;
+        if (amount < 0) {
+            // Can't upsert here: a missing document fails the filter, and we'd try to insert a duplicate id.
+            filter = Filters.and(Filters.eq(object.getId()), Filters.gte(key, -amount));
+        } else {
+            filter = Filters.eq(object.getId());
+            options.upsert(true);
+        }
+
+        var result = DatabaseMetrics.write(object.getTableName(), "increment", () ->
+                collection.findOneAndUpdate(filter, incrementUpdate(object, key, amount), options)
+        );
+        if (result == null) {
+            return null;
+        }
+
+        advanceVersion(object, result);
+        written(object, List.of(Updates.inc(key, amount)));
+        return numberAt(result, key);
+    }
+
+    // Runs in a single transaction. If the server doesn't support transactions, this debits first and then credits,
+    // giving the debit back if the credit fails (or later, if we crash in between, see TransferJournal).
+    @Override
+    public Pair<Long, Long> transfer(@Nonnull ManagedMongoObject from, @Nonnull String fromKey, long debit,
+                                     @Nonnull ManagedMongoObject to, @Nonnull String toKey, long credit,
+                                     long creditLimit, boolean unsetEmpty) {
+        log("Transferring {} from {}:{} (key {}) to {}:{} (key {}, receiving {}) (atomic)",
+                debit, from.getTableName(), from.getId(), fromKey, to.getTableName(), to.getId(), toKey, credit
+        );
+
+        exists(from);
+        exists(to);
+        flushPending(from.getTableName(), from.getId());
+        flushPending(to.getTableName(), to.getId());
+
+        Pair<Document, Document> result = null;
+        var done = false;
+        if (transactionsSupported) {
+            try (var session = mongoClient.startSession()) {
+                result = DatabaseMetrics.write(from.getTableName(), "transfer", () ->
+                        session.withTransaction(() -> applyTransfer(session, null, from, fromKey, debit, to, toKey, credit, creditLimit, unsetEmpty))
+                );
+                done = true;
+            } catch (CreditRefusedException e) {
+                // Thrown from inside the transaction so the debit gets rolled back.
+                result = null;
+                done = true;
+            } catch (MongoCommandException e) {
+                // 20 = IllegalOperation: "Transaction numbers are only allowed on a replica set member or mongos"
+                if (e.getErrorCode() != 20) {
+                    throw e;
+                }
+
+                log.warn("MongoDB server doesn't support transactions, falling back to compensated transfers");
+                transactionsSupported = false;
+            }
+        }
+
+        if (!done) {
+            var entry = transferJournal.begin(from, fromKey, debit, to);
+            try {
+                result = DatabaseMetrics.write(from.getTableName(), "transfer", () ->
+                        applyTransfer(null, entry, from, fromKey, debit, to, toKey, credit, creditLimit, unsetEmpty)
+                );
+            } catch (CreditRefusedException e) {
+                result = null;
+            }
+
+            // Anything else thrown leaves the entry around, for the journal to finish later.
+            transferJournal.end(entry, from, to);
+        }
+
+        if (result == null) {
+            return null;
+        }
+
+        advanceVersion(from, result.left());
+        advanceVersion(to, result.right());
+        written(from);
+        written(to);
+        return Pair.of(numberAt(result.left(), fromKey), numberAt(result.right(), toKey));
+    }
+
+    // Without a session, the journal entry marks what got written, see TransferJournal.
+    private Pair<Document, Document> applyTransfer(@Nullable ClientSession session, @Nullable String entry, ManagedMongoObject from, String fromKey, long debit,
+                                                   ManagedMongoObject to, String toKey, long credit,
+                                                   long creditLimit, boolean unsetEmpty) {
+        var fromCollection = dbMantaro().getCollection(from.getTableName());
+        var toCollection = dbMantaro().getCollection(to.getTableName());
+
+        var debitFilter = Filters.and(Filters.eq(from.getId()), Filters.gte(fromKey, debit));
+        var debitUpdate = journaled(incrementUpdate(from, fromKey, -debit), entry);
+        var debitOptions = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(incrementProjection(from, fromKey));
+
+        var debited = session == null ?
+                fromCollection.findOneAndUpdate(debitFilter, debitUpdate, debitOptions) :
+                fromCollection.findOneAndUpdate(session, debitFilter, debitUpdate, debitOptions);
+
+        // Not enough to give (or no document at all), nothing was written.
+        if (debited == null) {
+            return null;
+        }
+
+        // With a limit, the credit can't upsert: a document that's there but over the limit would look like a new one.
+        // So a receiver that was never saved gets created first, with nothing in it yet.
+        var limited = creditLimit != Long.MAX_VALUE;
+        if (limited) {
+            var insertFilter = Filters.eq(to.getId());
+            var insertUpdate = Updates.setOnInsert(toKey, 0L);
+            var insertOptions = new UpdateOptions().upsert(true);
+            if (session == null) {
+                toCollection.updateOne(insertFilter, insertUpdate, insertOptions);
+            } else {
+                toCollection.updateOne(session, insertFilter, insertUpdate, insertOptions);
+            }
+        }
+
+        var creditFilter = limited ?
+                Filters.and(Filters.eq(to.getId()), Filters.or(Filters.exists(toKey, false), Filters.lte(toKey, creditLimit - credit))) :
+                Filters.eq(to.getId());
+        var creditUpdate = journaled(incrementUpdate(to, toKey, credit), entry);
+        var creditOptions = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(incrementProjection(to, toKey))
+                .upsert(!limited);
+
+        Document credited;
+        try {
+            credited = session == null ?
+                    toCollection.findOneAndUpdate(creditFilter, creditUpdate, creditOptions) :
+                    toCollection.findOneAndUpdate(session, creditFilter, creditUpdate, creditOptions);
+            if (credited == null) {
+                throw new CreditRefusedException();
+            }
+        } catch (RuntimeException e) {
+            // Without a transaction there's nothing to roll back, so give back what we took.
+            if (session == null) {
+                fromCollection.updateOne(
+                        TransferJournal.marked(from.getId(), entry), Updates.combine(incrementUpdate(from, fromKey, debit), TransferJournal.unmark(entry))
+                );
+            }
+
+            throw e;
+        }
+
+        // Don't leave empty entries around (ex. "inventory.item: 0"). Only if nobody put something back in the meantime.
+        if (unsetEmpty && numberAt(debited, fromKey) == 0) {
+            var emptyFilter = FieldUpdates.stillEmpty(from.getId(), fromKey);
+            var emptyUpdate = Updates.unset(fromKey);
+            if (session == null) {
+                fromCollection.updateOne(emptyFilter, emptyUpdate);
+            } else {
+                fromCollection.updateOne(session, emptyFilter, emptyUpdate);
+            }
+        }
+
+        return Pair.of(debited, credited);
+    }
+
+    private static Bson journaled(Bson update, @Nullable String entry) {
+        return entry == null ? update : Updates.combine(update, TransferJournal.mark(entry));
+    }
+
+    // Results come back as nested documents, so "inventory.item" has to be followed down.
+    private static long numberAt(Document document, String key) {
+        return document.getEmbedded(List.of(key.split("\\.")), Number.class).longValue();
+    }
+
+    // The target of a transfer would go over its limit.
+    private static class CreditRefusedException extends RuntimeException {
+        CreditRefusedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    @Override
+    public void updateFieldValues(ManagedMongoObject object, Map<String, Object> map) {
+        log("Updating tracked set for id {} (db: {}, set size: {}) (batch values)", object.getId(), object.getTableName(), map.size(), object.getTableName());
+
+        // No need to try and save an empty set, just bail out.
+        if (map.isEmpty()) {
+            log("Empty tracked set when requesting update!");
+            return;
+        }
+
+        // Inside a command, this gets merged with the rest of its updates to this document and written once it's done.
+        if (UnitOfWork.defer(object, map)) {
+            return;
+        }
+
+        exists(object);
+
+        // Entities can be cached and shared between threads, so take a snapshot of what we're writing.
+        // Whatever didn't change while we were writing gets removed from the tracker afterwards,
+        // so the next update only carries what changed after this one.
+        Map<String, Object> snapshot;
+        synchronized (map) {
+            snapshot = new HashMap<>(map);
+        }
+
+        var collection = dbMantaro().getCollection(object.getTableName());
+        var updates = FieldUpdates.of(snapshot);
+        var guards = FieldUpdates.guards(snapshot);
+        log("Database Update with content: {}", updates.values());
+        if (isQueued(object) && !FieldUpdates.hasDeltas(snapshot)) {
+            enqueue(object, updates);
+            snapshot.forEach(map::remove);
+            return;
+        }
+
+        // On a conflict or a failed guard this throws, and the tracked fields stay around.
+        if (object instanceof VersionedMongoObject versioned && VersionedWrites.isChecked()) {
+            compareAndSet(collection, versioned, updates.values(), guards);
+        } else {
+            update(collection, object, updates.values(), guards);
+        }
+
+        snapshot.forEach(map::remove);
+        written(object, updates.values());
+        removeEmptied(collection, object, FieldUpdates.emptied(snapshot));
+    }
+
+    // Deltas that leave a field empty only take from it (see FieldDelta). It goes away here, unless something got added to it since.
+    // Doesn't bump the version: an empty field reads the same as a missing one.
+    private void removeEmptied(MongoCollection<Document> collection, ManagedMongoObject object, List<String> keys) {
+        for (var key : keys) {
+            var result = DatabaseMetrics.write(object.getTableName(), "update", () ->
+                    collection.updateOne(FieldUpdates.stillEmpty(object.getId(), key), Updates.unset(key))
+            );
+
+            if (result.getModifiedCount() > 0) {
+                removedEmpty(object, key);
+            }
+        }
+    }
+
+    private void removedEmpty(ManagedMongoObject object, String key) {
+        var codecs = dbMantaro().getCodecRegistry();
+        forEachCache(object, cache -> cache.written(object, List.of(Updates.unset(key)), codecs));
+    }
+
+    // ------------------------- ASYNC API ------------------------- //
+    // Same as their blocking counterparts, but on the reactive driver, so nothing holds a thread while waiting on the database.
+    // Caching and write-behind work the same way. Nothing here checks versions, see VersionedWrites.
+
+    @Override
+    public CompletableFuture<MongoGuild> getGuildAsync(@Nonnull String guildId) {
+        return guildCache.getAsync(guildId, id -> flushPendingAsync(MongoGuild.DB_TABLE, id).thenCompose(ignored -> {
+            log("Requesting Guild {} from MongoDB (async)", id);
+            var collection = dbMantaroAsync().getCollection(MongoGuild.DB_TABLE, MongoGuild.class);
+            return DatabaseMetrics.readAsync(MongoGuild.DB_TABLE, "find", () -> ReactiveFutures.first(collection.find(Filters.eq(id)).first()));
+        }).thenCompose(guild -> {
+            if (guild == null) {
+                return CompletableFuture.completedFuture(MongoGuild.of(id));
+            }
+
+            if (guild.getAllowedBirthdays().isEmpty() && guild.getBirthdayBlockedIds().isEmpty()) {
+                return CompletableFuture.completedFuture(guild);
+            }
+
+            // Only happens once per guild, but it blocks, so keep it off the driver's threads.
+            return CompletableFuture.supplyAsync(() -> {
+                migrateBirthdays(guild);
+                return guild;
+            });
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Player> getPlayerAsync(@Nonnull String userId) {
+        return playerCache.getAsync(userId, id -> flushPendingAsync(Player.DB_TABLE, id).thenCompose(ignored -> {
+            if (!mightExist(Player.DB_TABLE, id)) {
+                return CompletableFuture.<Player>completedFuture(null);
+            }
+
+            log("Requesting Player {} from MongoDB (async)", id);
+            var collection = dbMantaroAsync().getCollection(Player.DB_TABLE, Player.class);
+            return DatabaseMetrics.readAsync(Player.DB_TABLE, "find", () -> ReactiveFutures.first(collection.find(Filters.eq(id)).first()));
+        }).thenApply(player -> player == null ? Player.of(id) : player));
+    }
+
+    @Override
+    public CompletableFuture<MongoUser> getUserAsync(@Nonnull String userId) {
+        return userCache.getAsync(userId, id -> flushPendingAsync(MongoUser.DB_TABLE, id).thenCompose(ignored -> {
+            if (!mightExist(MongoUser.DB_TABLE, id)) {
+                return CompletableFuture.<MongoUser>completedFuture(null);
+            }
+
+            log("Requesting User {} from MongoDB (async)", id);
+            var collection = dbMantaroAsync().getCollection(MongoUser.DB_TABLE, MongoUser.class);
+            return DatabaseMetrics.readAsync(MongoUser.DB_TABLE, "find", () -> ReactiveFutures.first(collection.find(Filters.eq(id)).first()));
+        }).thenApply(user -> user == null ? MongoUser.of(id) : user));
+    }
+
+    @Override
+    public CompletableFuture<PlayerStats> getPlayerStatsAsync(@Nonnull String userId) {
+        log("Requesting PlayerStats {} from MongoDB (async)", userId);
+        UnitOfWork.flush(PlayerStats.DB_TABLE, userId);
+        if (!mightExist(PlayerStats.DB_TABLE, userId)) {
+            return CompletableFuture.completedFuture(PlayerStats.of(userId));
+        }
+
+        var collection = dbMantaroAsync().getCollection(PlayerStats.DB_TABLE, PlayerStats.class);
+        return DatabaseMetrics.readAsync(PlayerStats.DB_TABLE, "find", () -> ReactiveFutures.first(collection.find(Filters.eq(userId)).first()))
+                .thenApply(stats -> stats == null ? PlayerStats.of(userId) : stats);
+    }
+
+    @Override
+    public CompletableFuture<Marriage> getMarriageAsync(@Nullable String marriageId) {
+        if (marriageId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return marriageCache.getAsync(marriageId, id -> flushPendingAsync(Marriage.DB_TABLE, id).thenCompose(ignored -> {
+            log("Requesting Marriage {} from MongoDB (async)", id);
+            var collection = dbMantaroAsync().getCollection(Marriage.DB_TABLE, Marriage.class);
+            return DatabaseMetrics.readAsync(Marriage.DB_TABLE, "find", () -> ReactiveFutures.first(collection.find(Filters.eq(id)).first()));
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateFieldValuesAsync(@Nonnull ManagedMongoObject object, @Nonnull Map<String, Object> map) {
+        log("Updating tracked set for id {} (db: {}, set size: {}) (batch values, async)", object.getId(), object.getTableName(), map.size());
+        // What the command deferred for this document has to land first, else it'd overwrite this on commit.
+        // That can be this same tracker, in which case there's nothing left to write.
+        UnitOfWork.flush(object.getTableName(), object.getId());
+        if (map.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        exists(object);
+
+        Map<String, Object> snapshot;
+        synchronized (map) {
+            snapshot = new HashMap<>(map);
+        }
+
+        var updates = FieldUpdates.of(snapshot);
+        var guards = FieldUpdates.guards(snapshot);
+        if (isQueued(object) && !FieldUpdates.hasDeltas(snapshot)) {
+            enqueue(object, updates);
+            snapshot.forEach(map::remove);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Never version-checked: that's only for updateVersioned, which blocks anyway.
+        var collection = dbMantaroAsync().getCollection(object.getTableName());
+        var filter = FieldUpdates.guarded(Filters.eq(object.getId()), guards);
+        var upsert = guards.isEmpty();
+        CompletableFuture<?> write;
+        if (object instanceof VersionedMongoObject) {
+            List<Bson> combined = new ArrayList<>(updates.values());
+            combined.add(Updates.inc("version", 1L));
+            var options = new FindOneAndUpdateOptions()
+                    .returnDocument(ReturnDocument.AFTER)
+                    .projection(Projections.include("version"))
+                    .upsert(upsert);
+
+            write = DatabaseMetrics.writeAsync(object.getTableName(), "update", () ->
+                    ReactiveFutures.first(collection.findOneAndUpdate(filter, Updates.combine(combined), options))
+            ).thenAccept(result -> {
+                if (result == null) {
+                    throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+                }
+
+                advanceVersion(object, result);
+            });
+        } else {
+            write = DatabaseMetrics.writeAsync(object.getTableName(), "update", () -> ReactiveFutures.first(collection.updateOne(
+                    filter, Updates.combine(new ArrayList<>(updates.values())), new UpdateOptions().upsert(upsert)
+            ))).thenAccept(result -> {
+                if (result.getMatchedCount() == 0 && result.getUpsertedId() == null) {
+                    throw new InsufficientAmountException(object.getTableName(), object.getId(), guards);
+                }
+            });
+        }
+
+        CompletableFuture<Void> done = write.thenRun(() -> {
+            snapshot.forEach(map::remove);
+            written(object, updates.values());
+        });
+
+        for (var key : FieldUpdates.emptied(snapshot)) {
+            done = done.thenCompose(ignored -> DatabaseMetrics.writeAsync(object.getTableName(), "update", () ->
+                    ReactiveFutures.first(collection.updateOne(FieldUpdates.stillEmpty(object.getId(), key), Updates.unset(key)))
+            )).thenAccept(result -> {
+                if (result.getModifiedCount() > 0) {
+                    removedEmpty(object, key);
+                }
+            });
+        }
+
+        return done;
+    }
+
+    private CompletableFuture<Void> flushPendingAsync(String table, String id) {
+        UnitOfWork.flush(table, id);
+        return writeBehind == null ? CompletableFuture.completedFuture(null) : writeBehind.flushAsync(table, id);
+    }
+}
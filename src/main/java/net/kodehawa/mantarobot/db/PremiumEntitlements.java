@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.dv8tion.jda.api.entities.User;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.GuildDispatchView;
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.PremiumKey;
+import net.kodehawa.mantarobot.utils.commands.EmoteReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Keeps track of which users and guilds are premium.
+ * <p>
+ * Working it out means reading the premium key and, for linked keys, asking Patreon, which used to happen on every
+ * {@link MongoUser#isPremium()} call. Now the answer is kept until the key expires (or the entry gets too old),
+ * and it's invalidated on every node when a key gets activated or removed.
+ * <p>
+ * Cleaning up expired keys and renewing keys don't change the answer we give right away, so they run in the background.
+ */
+public class PremiumEntitlements {
+    private static final Logger log = LoggerFactory.getLogger(PremiumEntitlements.class);
+    // Not tables: premium invalidations go through the invalidation channel under these names.
+    static final String USERS_CHANNEL = "premium_users";
+    static final String GUILDS_CHANNEL = "premium_guilds";
+    private static final long RENEWAL_THRESHOLD_DAYS = 10;
+    // Checks waiting on the background worker, past this they get dropped.
+    private static final int MAX_QUEUED_CHECKS = 1000;
+
+    private final Cache<String, Entitlement> users;
+    private final Cache<String, Entitlement> guilds;
+    // Users/guilds we checked for renewal recently. Renewing asks Patreon, so don't do it on every command.
+    private final Cache<String, Boolean> renewalChecks = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+    // What's queued or running in the background, so the same work doesn't get queued twice.
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Bounded: if Patreon is slow we'd rather drop checks (they get retried on the next miss) than pile them up.
+    private final ExecutorService background = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_CHECKS),
+            new ThreadFactoryBuilder().setNameFormat("Mantaro Premium Worker").setDaemon(true).build()
+    );
+    private final BiConsumer<String, String> publisher;
+
+    /**
+     * @param maxSize            Maximum amount of users (and guilds) to keep.
+     * @param expireAfterSeconds How long to trust an answer for, at most. Patreon pledges can lapse without us being told.
+     * @param publisher          Tells other nodes an entry changed, takes the channel name and the id.
+     */
+    public PremiumEntitlements(long maxSize, long expireAfterSeconds, @Nonnull BiConsumer<String, String> publisher) {
+        this.users = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .build();
+        this.guilds = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .build();
+        this.publisher = publisher;
+    }
+
+    /**
+     * Checks whether a user is premium, only loading the user if we don't know already.
+     *
+     * @param userId The user id.
+     * @return Whether this user is premium.
+     */
+    public boolean isPremium(@Nonnull String userId) {
+        var cached = users.getIfPresent(userId);
+        if (cached != null && cached.isValid()) {
+            return cached.premium();
+        }
+
+        return MantaroData.db().getUser(userId).isPremium();
+    }
+
+    /**
+     * Checks whether a user is premium. Use {@link MongoUser#isPremium()} instead, which also handles the premium bot.
+     * <p>
+     * On a miss this only reads the key: the whole check (see {@link MongoUser#resolvePremium()}) runs in the background
+     * and replaces the answer once it's done. Going with what the key says can only be wrong for keys linked to a
+     * Patreon pledge that lapsed, and only until the background check is done.
+     *
+     * @param user The user.
+     * @return Whether this user is premium.
+     */
+    public boolean isPremium(@Nonnull MongoUser user) {
+        var cached = users.getIfPresent(user.getId());
+        if (cached != null && cached.isValid()) {
+            return cached.premium();
+        }
+
+        var key = MantaroData.db().getPremiumKey(user.getPremiumKey());
+        var premium = isActive(key, PremiumKey.Type.USER);
+        var entitlement = Entitlement.of(premium, premium ? key.getExpiration() : 0);
+        users.put(user.getId(), entitlement);
+
+        var id = user.getId();
+        resolveLater(users, "resolve:user:" + id, id, entitlement, () -> {
+            var fresh = MantaroData.db().getUser(id);
+            var resolved = fresh.resolvePremium();
+            var freshKey = MantaroData.db().getPremiumKey(fresh.getPremiumKey());
+            return Entitlement.of(resolved, resolved && freshKey != null ? freshKey.getExpiration() : 0);
+        });
+
+        return premium;
+    }
+
+    /**
+     * Checks whether a guild is premium. Use {@link MongoGuild#isPremium()} instead.
+     * Works the same as {@link #isPremium(MongoUser)}, but also takes the old, time-based premium into account.
+     *
+     * @param guild The guild.
+     * @return Whether this guild is premium.
+     */
+    public boolean isPremium(@Nonnull MongoGuild guild) {
+        var cached = guilds.getIfPresent(guild.getId());
+        if (cached != null && cached.isValid()) {
+            return cached.premium();
+        }
+
+        return resolveGuild(guild.getId(), guild.getPremiumKey(), guild.getPremiumUntil(), guild.getMpLinkedTo(), () -> guild);
+    }
+
+    /**
+     * Same as {@link #isPremium(MongoGuild)}, but from the dispatch view, so checking it on every command doesn't load the whole guild.
+     * That only happens for guilds linked to a pledge on the premium bot, when we don't know already.
+     *
+     * @param view The dispatch view of the guild.
+     * @return Whether this guild is premium.
+     */
+    public boolean isPremium(@Nonnull GuildDispatchView view) {
+        var cached = guilds.getIfPresent(view.getId());
+        if (cached != null && cached.isValid()) {
+            return cached.premium();
+        }
+
+        var id = view.getId();
+        return resolveGuild(id, view.getPremiumKey(), view.getPremiumUntil(), view.getMpLinkedTo(), () -> MantaroData.db().getGuild(id));
+    }
+
+    private boolean resolveGuild(String id, String premiumKey, long premiumUntil, String mpLinkedTo, Supplier<MongoGuild> guild) {
+        var key = MantaroData.db().getPremiumKey(premiumKey);
+        var config = MantaroData.config().get();
+        // Guilds linked to a pledge on the premium bot can only be checked against Patreon, so there's no quick answer.
+        if (config.isPremiumBot() && key == null && mpLinkedTo != null) {
+            var premium = guild.get().resolvePremium();
+            guilds.put(id, Entitlement.of(premium, premiumUntil));
+            return premium;
+        }
+
+        var keyActive = isActive(key, PremiumKey.Type.GUILD);
+        var until = Math.max(premiumUntil, keyActive ? key.getExpiration() : 0);
+        var premium = currentTimeMillis() < until;
+        var entitlement = Entitlement.of(premium, until);
+        guilds.put(id, entitlement);
+
+        resolveLater(guilds, "resolve:guild:" + id, id, entitlement, () -> {
+            var fresh = MantaroData.db().getGuild(id);
+            var resolved = fresh.resolvePremium();
+            var freshKey = MantaroData.db().getPremiumKey(fresh.getPremiumKey());
+            var freshUntil = Math.max(fresh.getPremiumUntil(), freshKey != null ? freshKey.getExpiration() : 0);
+            return Entitlement.of(resolved, freshUntil);
+        });
+
+        return premium;
+    }
+
+    /**
+     * Forgets whether this user is premium, on this node and every other one.
+     * Call this after saving a change to their premium key.
+     *
+     * @param userId The user id.
+     */
+    public void invalidateUser(@Nonnull String userId) {
+        users.invalidate(userId);
+        publisher.accept(USERS_CHANNEL, userId);
+    }
+
+    /**
+     * Forgets whether this guild is premium, on this node and every other one.
+     * Call this after saving a change to its premium key or premium time.
+     *
+     * @param guildId The guild id.
+     */
+    public void invalidateGuild(@Nonnull String guildId) {
+        guilds.invalidate(guildId);
+        publisher.accept(GUILDS_CHANNEL, guildId);
+    }
+
+    // Invalidations from other nodes.
+    void userInvalidated(String userId) {
+        users.invalidate(userId);
+    }
+
+    void guildInvalidated(String guildId) {
+        guilds.invalidate(guildId);
+    }
+
+    // We might have missed invalidations from other nodes.
+    void invalidateAll() {
+        users.invalidateAll();
+        guilds.invalidateAll();
+    }
+
+    /**
+     * Renews the user and guild keys if they're about to expire, warning the user if theirs can't be renewed.
+     * This runs in the background, at most once an hour per user and guild.
+     *
+     * @param author  The user running a command.
+     * @param guildId The guild the command ran on.
+     */
+    public void scheduleRenewal(@Nonnull User author, @Nonnull String guildId) {
+        var userCheck = "user:" + author.getId();
+        var guildCheck = "guild:" + guildId;
+        var checkUser = renewalChecks.asMap().putIfAbsent(userCheck, true) == null;
+        var checkGuild = renewalChecks.asMap().putIfAbsent(guildCheck, true) == null;
+        if (checkUser) {
+            submit(userCheck, () -> renewUser(author));
+        }
+
+        if (checkGuild) {
+            submit(guildCheck, () -> renewGuild(guildId));
+        }
+    }
+
+    private void renewUser(User author) {
+        var dbUser = MantaroData.db().getUser(author);
+        var currentKey = MantaroData.db().getPremiumKey(dbUser.getPremiumKey());
+        if (!isExpiring(currentKey)) {
+            return;
+        }
+
+        // Handling is done inside the PremiumKey#renew method. This only gets fired if the key has less than 10 days left.
+        if (currentKey.renew()) {
+            invalidateUser(author.getId());
+        } else if (!dbUser.hasReceivedExpirationWarning()) {
+            author.openPrivateChannel().queue(privateChannel ->
+                    privateChannel.sendMessage(
+                            """
+                            %1$sYour premium key is about to expire in **%2$,d** days**!
+                            :heart: *If you're still pledging to Mantaro* you can ask Kodehawa#3457 for a key renewal in the #donators channel.*
+                            In the case that you're not longer a patron, you cannot renew, but I sincerely hope you had a good time with the bot and its features!
+                            **If you ever want to pledge again you can check the patreon link at <https://patreon.com/mantaro>**
+                            
+                            Thanks you so much for your support to keep Mantaro alive! It wouldn't be possible without the help of all of you.
+                            With love, Kodehawa and the Mantaro team :heart:
+                            
+                            This will only be sent once (hopefully). Thanks again!
+                            """.formatted(EmoteReference.WARNING, Math.max(1, currentKey.validFor()))
+                    ).queue()
+            );
+        }
+
+        dbUser.receivedExpirationWarning(true);
+        dbUser.updateAllChanged();
+    }
+
+    private void renewGuild(String guildId) {
+        var guildKey = MantaroData.db().getPremiumKey(MantaroData.db().getGuildDispatchView(guildId).getPremiumKey());
+        // Handling is done inside the PremiumKey#renew method. This only gets fired if the key has less than 10 days left.
+        if (isExpiring(guildKey) && guildKey.renew()) {
+            invalidateGuild(guildId);
+        }
+    }
+
+    // Replaces the quick answer with the whole check, unless it got invalidated (or replaced) in the meantime.
+    // If the check can't be queued, the quick answer is dropped so the next lookup tries again.
+    private void resolveLater(Cache<String, Entitlement> cache, String task, String id, Entitlement quick, Supplier<Entitlement> resolver) {
+        var queued = submit(task, () -> {
+            var resolved = resolver.get();
+            cache.asMap().replace(id, quick, resolved);
+        });
+
+        if (!queued) {
+            cache.asMap().remove(id, quick);
+        }
+    }
+
+    // Returns false if the task couldn't be queued. A task that's already pending counts as queued.
+    private boolean submit(String task, Runnable runnable) {
+        if (!pending.add(task)) {
+            return true;
+        }
+
+        try {
+            background.execute(() -> {
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    log.warn("Error while checking premium ({})", task, e);
+                } finally {
+                    pending.remove(task);
+                }
+            });
+
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(task);
+            log.debug("Premium worker is full, dropping check ({})", task);
+            return false;
+        } catch (Exception e) {
+            pending.remove(task);
+            log.warn("Unable to schedule premium check ({})", task, e);
+            return false;
+        }
+    }
+
+    private static boolean isActive(@Nullable PremiumKey key, PremiumKey.Type type) {
+        return key != null && currentTimeMillis() < key.getExpiration() && key.getParsedType() == type;
+    }
+
+    // 10 days before expiration or best fit.
+    private static boolean isExpiring(@Nullable PremiumKey key) {
+        return key != null && key.validFor() <= RENEWAL_THRESHOLD_DAYS && key.validFor() > 1;
+    }
+
+    /**
+     * Whether something is premium, and until when we can trust that.
+     * Non-premium answers are good until the cache entry expires: activating a key invalidates them.
+     */
+    private record Entitlement(boolean premium, long until) {
+        static Entitlement of(boolean premium, long until) {
+            return new Entitlement(premium, premium ? until : Long.MAX_VALUE);
+        }
+
+        boolean isValid() {
+            return currentTimeMillis() < until;
+        }
+    }
+}
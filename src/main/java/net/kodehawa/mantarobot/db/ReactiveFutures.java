@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns the publishers the reactive Mongo driver returns into {@link CompletableFuture}s,
+ * which is what the rest of the bot knows how to compose.
+ */
+public final class ReactiveFutures {
+    private ReactiveFutures() { }
+
+    /**
+     * @param publisher The publisher.
+     * @return A future with the first element this publisher emits, or null if it emits none.
+     */
+    @Nonnull
+    public static <T> CompletableFuture<T> first(@Nonnull Publisher<T> publisher) {
+        var future = new CompletableFuture<T>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                future.complete(item);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                // No-op if onNext already completed it.
+                future.complete(null);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * @param publisher The publisher.
+     * @return A future with every element this publisher emits.
+     */
+    @Nonnull
+    public static <T> CompletableFuture<List<T>> toList(@Nonnull Publisher<T> publisher) {
+        var future = new CompletableFuture<List<T>>();
+        publisher.subscribe(new Subscriber<T>() {
+            private final List<T> items = new ArrayList<>();
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T item) {
+                items.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(items);
+            }
+        });
+
+        return future;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of transfers that run without a transaction (standalone servers can't do them), so a crash between
+ * the debit and the credit doesn't lose what was debited.
+ * <p>
+ * Every such transfer gets an entry here before anything is written. The debit and the credit each add the entry's id
+ * to {@value #MARKER} on the document they write, and once both went through, the markers and the entry are removed.
+ * Entries that stay around for longer than a transfer could take belong to a transfer that never finished:
+ * if only the sender is marked, the debit gets given back. These are checked on boot, and every few minutes after that.
+ */
+public class TransferJournal {
+    private static final Logger log = LoggerFactory.getLogger(TransferJournal.class);
+    static final String TABLE = "transfers";
+    static final String MARKER = "pendingTransfers";
+    // A transfer takes milliseconds: anything this old isn't running anymore, on this node or any other.
+    private static final long ABANDONED_AFTER = TimeUnit.MINUTES.toMillis(1);
+    private static final long RECOVER_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    private final Supplier<MongoDatabase> database;
+    private final BiConsumer<String, String> onRecover;
+
+    /**
+     * @param database  Where the transferred documents (and the journal) are.
+     * @param onRecover Called with the table and id of every document recovering wrote to.
+     */
+    public TransferJournal(@Nonnull Supplier<MongoDatabase> database, @Nonnull BiConsumer<String, String> onRecover) {
+        this.database = database;
+        this.onRecover = onRecover;
+
+        var executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Mantaro Transfer Journal").setDaemon(true).build()
+        );
+
+        executor.scheduleWithFixedDelay(this::recoverSafely, 0, RECOVER_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes down a transfer that's about to start.
+     *
+     * @return The entry id, to pass to {@link #mark(String)}, {@link #marked(String, String)} and {@link #end}.
+     */
+    @Nonnull
+    String begin(ManagedMongoObject from, String fromKey, long debit, ManagedMongoObject to) {
+        var entry = UUID.randomUUID().toString();
+        var document = new Document("_id", entry)
+                .append("fromTable", from.getTableName())
+                .append("fromId", from.getId())
+                .append("fromKey", fromKey)
+                .append("debit", debit)
+                .append("toTable", to.getTableName())
+                .append("toId", to.getId())
+                .append("createdAt", new Date());
+
+        DatabaseMetrics.write(TABLE, "insert", () -> database.get().getCollection(TABLE).insertOne(document));
+        return entry;
+    }
+
+    // Combined with the debit and the credit, so we know which of them went through.
+    static Bson mark(String entry) {
+        return Updates.addToSet(MARKER, entry);
+    }
+
+    static Bson unmark(String entry) {
+        return Updates.pull(MARKER, entry);
+    }
+
+    // Matches the document only if this transfer wrote to it, so giving back a debit can't happen twice.
+    static Bson marked(String id, String entry) {
+        return Filters.and(Filters.eq(id), Filters.eq(MARKER, entry));
+    }
+
+    /**
+     * Forgets a transfer that finished, or never got to write anything. Not called if it failed halfway,
+     * so recovering can deal with it later.
+     */
+    void end(String entry, ManagedMongoObject from, ManagedMongoObject to) {
+        unmark(from.getTableName(), from.getId(), entry);
+        unmark(to.getTableName(), to.getId(), entry);
+        DatabaseMetrics.write(TABLE, "delete", () -> database.get().getCollection(TABLE).deleteOne(Filters.eq(entry)));
+    }
+
+    private void unmark(String table, String id, String entry) {
+        DatabaseMetrics.write(table, "update", () -> database.get().getCollection(table).updateOne(marked(id, entry), unmark(entry)));
+    }
+
+    private void recoverSafely() {
+        try {
+            var recovered = recover();
+            if (recovered > 0) {
+                log.warn("Recovered {} transfers that never finished", recovered);
+            }
+        } catch (Exception e) {
+            log.error("Unable to recover unfinished transfers", e);
+        }
+    }
+
+    // Finishes off every abandoned transfer. Returns how many there were.
+    int recover() {
+        var journal = database.get().getCollection(TABLE);
+        var abandoned = DatabaseMetrics.read(TABLE, "find_many", () ->
+                journal.find(Filters.lt("createdAt", new Date(System.currentTimeMillis() - ABANDONED_AFTER))).into(new ArrayList<>())
+        );
+
+        for (var document : abandoned) {
+            var entry = document.getString("_id");
+            var fromTable = document.getString("fromTable");
+            var fromId = document.getString("fromId");
+            var toTable = document.getString("toTable");
+            var toId = document.getString("toId");
+
+            var from = database.get().getCollection(fromTable);
+            var debited = DatabaseMetrics.read(fromTable, "find", () -> from.find(marked(fromId, entry)).first()) != null;
+            var credited = DatabaseMetrics.read(toTable, "find", () -> database.get().getCollection(toTable).find(marked(toId, entry)).first()) != null;
+            if (debited && !credited) {
+                var refund = Updates.combine(Updates.inc(document.getString("fromKey"), document.getLong("debit")), unmark(entry));
+                DatabaseMetrics.write(fromTable, "update", () -> from.updateOne(marked(fromId, entry), refund));
+                log.warn("Gave back {} of {} to {}:{}, the transfer to {}:{} never finished",
+                        document.getLong("debit"), document.getString("fromKey"), fromTable, fromId, toTable, toId
+                );
+            }
+
+            unmark(fromTable, fromId, entry);
+            unmark(toTable, toId, entry);
+            DatabaseMetrics.write(TABLE, "delete", () -> journal.deleteOne(Filters.eq(entry)));
+            onRecover.accept(fromTable, fromId);
+            onRecover.accept(toTable, toId);
+        }
+
+        return abandoned.size();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the field updates a command makes and writes them once it's done, with a single update per document.
+ * <p>
+ * A command often saves the same document more than once (ex. the player, then the player's pet, which lives on the player),
+ * and each save used to be its own write. While a unit of work is open on a thread,
+ * {@link ManagedDatabase#updateFieldValues(ManagedMongoObject, Map)} only remembers which trackers changed on which document.
+ * {@link #commit()} merges them and writes each document once.
+ * <p>
+ * Updates that can fail because of someone else's write aren't deferred: a tracker that takes from a field (see {@link FieldDelta})
+ * gets written right away, along with whatever was pending for that document, and so does anything inside
+ * {@link ManagedDatabase#updateVersioned}. That way the failure reaches the command before it replies.
+ * <p>
+ * Anything else that touches a document with pending updates (reads that miss the cache, atomic increments, replaces...)
+ * must call {@link #flush(String, String)} first, same as with the write-behind queue.
+ * Work done on other threads (ex. after the command replied) isn't part of this, and gets written right away.
+ */
+public final class UnitOfWork implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(UnitOfWork.class);
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+    private final ManagedDatabase database;
+    // table:id -> what's pending for it, in the order they were first saved.
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    // Set while writing, so our own writes don't get deferred again.
+    private boolean writing;
+
+    private UnitOfWork(ManagedDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Opens a unit of work on this thread.
+     *
+     * @param database The database to write to.
+     * @return The unit of work, call {@link #commit()} on it once the command is done (or use it in a try-with-resources block).
+     */
+    @Nonnull
+    public static UnitOfWork begin(@Nonnull ManagedDatabase database) {
+        var work = new UnitOfWork(database);
+        current.set(work);
+        return work;
+    }
+
+    /**
+     * Defers an update to the unit of work open on this thread, if any.
+     *
+     * @param object  The document to update.
+     * @param tracker The tracker with the changed fields. It's read (and cleared) on commit, not now.
+     * @return Whether it got handled (deferred, or written along with what was pending). If not, write it right away.
+     * @throws InsufficientAmountException If it takes from a field that no longer holds enough.
+     */
+    static boolean defer(@Nonnull ManagedMongoObject object, @Nonnull Map<String, Object> tracker) {
+        var work = current.get();
+        if (work == null || work.writing || VersionedWrites.isChecked()) {
+            return false;
+        }
+
+        var key = key(object.getTableName(), object.getId());
+        var entry = work.pending.computeIfAbsent(key, k -> new Pending(object));
+        // Same tracker saved twice: it's already going to be written as it is by then.
+        if (entry.trackers.stream().noneMatch(t -> t == tracker)) {
+            entry.trackers.add(tracker);
+        }
+
+        boolean spends;
+        synchronized (tracker) {
+            spends = FieldUpdates.hasGuards(tracker);
+        }
+
+        // Still one write for everything pending on this document, just now instead of on commit.
+        if (spends) {
+            work.pending.remove(key);
+            work.write(entry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes whatever is pending for this document on the unit of work open on this thread, if any.
+     *
+     * @param table The table (collection) name.
+     * @param id    The document id.
+     */
+    static void flush(@Nonnull String table, @Nonnull String id) {
+        var work = current.get();
+        if (work == null || work.writing || work.pending.isEmpty()) {
+            return;
+        }
+
+        var entry = work.pending.remove(key(table, id));
+        if (entry != null) {
+            work.write(entry);
+        }
+    }
+
+    /**
+     * Writes everything that's pending, one update per document, and closes this unit of work.
+     * What's left by now can't fail because of someone else's write (see above), only if the database does.
+     * In that case, the rest still gets written, and then the failure gets thrown, so the command fails as it would have without this.
+     */
+    public void commit() {
+        if (current.get() == this) {
+            current.remove();
+        }
+
+        RuntimeException error = null;
+        for (var entry : pending.values()) {
+            try {
+                write(entry);
+            } catch (RuntimeException e) {
+                log.error("Error while writing {}:{}", entry.object.getTableName(), entry.object.getId(), e);
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+
+        pending.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Same as {@link #commit()}. In a try-with-resources block, a failure here gets added to whatever the command threw, instead of hiding it.
+     */
+    @Override
+    public void close() {
+        commit();
+    }
+
+    private void write(Pending entry) {
+        Map<String, Object> merged = new HashMap<>();
+        List<Map<String, Object>> snapshots = new ArrayList<>(entry.trackers.size());
+        for (var tracker : entry.trackers) {
+            Map<String, Object> snapshot;
+            synchronized (tracker) {
+                snapshot = new HashMap<>(tracker);
+            }
+
+            snapshots.add(snapshot);
+            merged.putAll(snapshot);
+        }
+
+        // Trackers can overlap (ex. the player tracks "pet" and the pet tracks "pet.health"), which MongoDB won't take in one update.
+        // The parent is the live object, so it already carries what changed on the child.
+        merged.keySet().removeIf(key -> hasParent(merged, key));
+        if (merged.isEmpty()) {
+            return;
+        }
+
+        writing = true;
+        try {
+            database.updateFieldValues(entry.object, merged);
+        } finally {
+            writing = false;
+        }
+
+        // Same as a normal update: whatever changed while we were writing stays on the tracker.
+        for (var i = 0; i < snapshots.size(); i++) {
+            snapshots.get(i).forEach(entry.trackers.get(i)::remove);
+        }
+    }
+
+    private static boolean hasParent(Map<String, Object> fields, String key) {
+        for (var dot = key.indexOf('.'); dot != -1; dot = key.indexOf('.', dot + 1)) {
+            if (fields.containsKey(key.substring(0, dot))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String key(String table, String id) {
+        return table + ":" + id;
+    }
+
+    private static final class Pending {
+        private final ManagedMongoObject object;
+        private final List<Map<String, Object>> trackers = new ArrayList<>();
+
+        private Pending(ManagedMongoObject object) {
+            this.object = object;
+        }
+    }
+}
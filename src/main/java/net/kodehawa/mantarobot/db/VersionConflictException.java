@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import java.io.Serial;
+
+/**
+ * Thrown when writing a {@link VersionedMongoObject} that someone else wrote to since we read it.
+ * Nothing got written when this is thrown.
+ */
+public class VersionConflictException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String table;
+    private final String id;
+    private final long expectedVersion;
+
+    public VersionConflictException(String table, String id, long expectedVersion) {
+        super("Version conflict on %s:%s (expected version %d)".formatted(table, id, expectedVersion));
+        this.table = table;
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+}
@@ -0,0 +1,18 @@
+package net.kodehawa.mantarobot.db;
+
+/**
+ * An entity with a version number, which gets bumped on every write.
+ * Writes made through {@link ManagedDatabase#updateVersioned} only go through if nobody else wrote to the document since we read it
+ * (compare-and-set), and get retried on a fresh copy if someone did. Other writes don't check it, they only bump it.
+ * <p>
+ * Documents saved before this was added don't have a version, and count as version 0.
+ * <p>
+ * Only implement this once the entity's read-modify-write paths go through updateVersioned: every other write pays for the bump.
+ * Player doesn't yet, its trade, market and transfer races are still guarded by its lock (see Player#isLocked).
+ */
+public interface VersionedMongoObject extends ManagedMongoObject {
+    long getVersion();
+
+    // Only meant to be called by the codec and ManagedDatabase.
+    void setVersion(long version);
+}
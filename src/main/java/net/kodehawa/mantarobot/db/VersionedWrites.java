@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import java.util.function.Supplier;
+
+/**
+ * Writes to a {@link VersionedMongoObject} only check its version inside {@link ManagedDatabase#updateVersioned},
+ * which knows how to re-apply a change after a conflict. Everywhere else, they just bump the version,
+ * so a checked write that read before them still sees the conflict.
+ */
+final class VersionedWrites {
+    private static final ThreadLocal<Boolean> checked = ThreadLocal.withInitial(() -> false);
+
+    private VersionedWrites() { }
+
+    static <T> T checked(Supplier<T> write) {
+        var previous = checked.get();
+        checked.set(true);
+        try {
+            return write.get();
+        } finally {
+            checked.set(previous);
+        }
+    }
+
+    static boolean isChecked() {
+        return checked.get();
+    }
+}
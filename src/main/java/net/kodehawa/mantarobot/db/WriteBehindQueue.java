@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import net.kodehawa.mantarobot.utils.exporters.Metrics;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Queues field updates per document and writes them as a single bulkWrite per collection,
+ * either every few milliseconds or once enough documents are waiting, whatever comes first.
+ * <p>
+ * Updates to the same document get merged, so a command that saves the same player three times only does one write.
+ * Keys that overlap (ex. {@code pet} and {@code pet.health}) can't go in the same update,
+ * so those get split into separate, ordered updates to the same document.
+ * <p>
+ * Anything that doesn't go through here (atomic increments, replaces, deletes and reads that miss the cache)
+ * must call {@link #flush(String, String)} for that document first, else it'd race with the queued writes.
+ * <p>
+ * A document the database keeps refusing (ex. a type mismatch) gets retried a few times, and then dropped and logged,
+ * so it doesn't hold back the rest of the queue forever.
+ */
+public class WriteBehindQueue {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+    // How many times the database can refuse a document before we give up on it.
+    private static final int MAX_ATTEMPTS = 5;
+    private final Supplier<MongoDatabase> database;
+    private final BiConsumer<String, String> onFlush;
+    private final BiConsumer<String, String> onDrop;
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+    // Held while writing, so writes to the same document never go out of order.
+    private final Object writeLock = new Object();
+    // Table name -> document id -> ordered groups of non-conflicting $set updates (key -> update).
+    private Map<String, Map<String, List<Map<String, Bson>>>> pending = new HashMap<>();
+    // Table name -> document id -> how many times the database refused it. Only touched under the write lock.
+    private final Map<String, Map<String, Integer>> attempts = new HashMap<>();
+    private int pendingDocuments;
+    private boolean flushScheduled;
+
+    /**
+     * @param database  Where to write to.
+     * @param onFlush   Called with the table and id of every document after it's written.
+     * @param onDrop    Called with the table and id of every document we gave up on writing.
+     * @param interval  How often to flush, in milliseconds.
+     * @param batchSize How many documents can wait before we flush early.
+     */
+    public WriteBehindQueue(@Nonnull Supplier<MongoDatabase> database, @Nonnull BiConsumer<String, String> onFlush,
+                            @Nonnull BiConsumer<String, String> onDrop, long interval, int batchSize) {
+        this.database = database;
+        this.onFlush = onFlush;
+        this.onDrop = onDrop;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Mantaro DB Write-Behind").setDaemon(true).build()
+        );
+
+        executor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+
+        var thread = new ThreadFactoryBuilder().setNameFormat("Mantaro DB Write-Behind Shutdown Hook").build();
+        Runtime.getRuntime().addShutdownHook(thread.newThread(() -> {
+            log.info("Draining DB write-behind queue ({} documents)...", pendingDocuments);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) { }
+
+            flushSafely();
+        }));
+    }
+
+    /**
+     * Queues a set of field updates for a document.
+     *
+     * @param table   The table (collection) name.
+     * @param id      The document id.
+     * @param updates Field key -> $set update for that key.
+     */
+    public void enqueue(@Nonnull String table, @Nonnull String id, @Nonnull Map<String, Bson> updates) {
+        // Encode now: the values are usually live collections of a cached entity, which can change before we flush.
+        var codecRegistry = database.get().getCodecRegistry();
+        Map<String, Bson> encoded = new LinkedHashMap<>();
+        updates.forEach((key, update) -> encoded.put(key, update.toBsonDocument(BsonDocument.class, codecRegistry)));
+
+        synchronized (this) {
+            var groups = pending.computeIfAbsent(table, t -> new HashMap<>()).computeIfAbsent(id, i -> {
+                pendingDocuments++;
+                return new ArrayList<>();
+            });
+
+            for (var update : encoded.entrySet()) {
+                merge(groups, update.getKey(), update.getValue());
+            }
+
+            Metrics.DB_WRITE_QUEUE_DEPTH.set(pendingDocuments);
+            if (pendingDocuments < batchSize || flushScheduled) {
+                return;
+            }
+
+            flushScheduled = true;
+        }
+
+        executor.execute(this::flushSafely);
+    }
+
+    /**
+     * Writes anything queued for this document right now, on the calling thread.
+     *
+     * @param table The table (collection) name.
+     * @param id    The document id.
+     */
+    public void flush(@Nonnull String table, @Nonnull String id) {
+        // Also waits for any flush that already took this document, so the caller never races with it.
+        synchronized (writeLock) {
+            List<Map<String, Bson>> groups;
+            synchronized (this) {
+                var tablePending = pending.get(table);
+                groups = tablePending == null ? null : tablePending.remove(id);
+                if (groups == null) {
+                    return;
+                }
+
+                pendingDocuments--;
+                Metrics.DB_WRITE_QUEUE_DEPTH.set(pendingDocuments);
+            }
+
+            write(table, Map.of(id, groups));
+        }
+    }
+
+    /**
+     * Same as {@link #flush(String, String)}, but runs on the write-behind thread instead of the calling one.
+     *
+     * @param table The table (collection) name.
+     * @param id    The document id.
+     * @return A future that completes once anything queued for this document is written.
+     */
+    public CompletableFuture<Void> flushAsync(@Nonnull String table, @Nonnull String id) {
+        return CompletableFuture.runAsync(() -> flush(table, id), executor);
+    }
+
+    /**
+     * Writes everything that's currently queued.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            Map<String, Map<String, List<Map<String, Bson>>>> toWrite;
+            synchronized (this) {
+                toWrite = pending;
+                pending = new HashMap<>();
+                pendingDocuments = 0;
+                flushScheduled = false;
+                Metrics.DB_WRITE_QUEUE_DEPTH.set(0);
+            }
+
+            if (toWrite.isEmpty()) {
+                return;
+            }
+
+            var timer = Metrics.DB_WRITE_FLUSH_LATENCY.startTimer();
+            try {
+                toWrite.forEach((table, documents) -> {
+                    try {
+                        write(table, documents);
+                    } catch (RuntimeException ignored) {
+                        // Already logged and re-queued, keep going with the other tables.
+                    }
+                });
+            } finally {
+                timer.observeDuration();
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Error while flushing DB write-behind queue", e);
+        }
+    }
+
+    // Split updates to the same document have to go in order, so this writes in rounds: the first group of every document,
+    // then the second one, and so on. Each round is unordered, so one bad document doesn't stop the others.
+    private void write(String table, Map<String, List<Map<String, Bson>>> documents) {
+        var collection = database.get().getCollection(table);
+        var options = new UpdateOptions().upsert(true);
+        // Document id -> the groups that didn't get written, starting with the one that failed.
+        Map<String, List<Map<String, Bson>>> failed = new HashMap<>();
+        Set<String> refused = new HashSet<>();
+        RuntimeException error = null;
+
+        for (int round = 0; ; round++) {
+            List<String> ids = new ArrayList<>();
+            List<WriteModel<Document>> models = new ArrayList<>();
+            for (var document : documents.entrySet()) {
+                var groups = document.getValue();
+                if (round < groups.size() && !failed.containsKey(document.getKey())) {
+                    ids.add(document.getKey());
+                    // Reminder: you NEED to use Updates.combine, else Map objects will act strangely. See ManagedDatabase#updateFieldValues.
+                    models.add(new UpdateOneModel<>(Filters.eq(document.getKey()), Updates.combine(new ArrayList<>(groups.get(round).values())), options));
+                }
+            }
+
+            if (models.isEmpty()) {
+                break;
+            }
+
+            try {
+                collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // Only the documents it complained about failed, the rest of the round went through.
+                error = e;
+                for (var writeError : e.getWriteErrors()) {
+                    var id = ids.get(writeError.getIndex());
+                    var groups = documents.get(id);
+                    failed.put(id, groups.subList(round, groups.size()));
+                    refused.add(id);
+                }
+            } catch (RuntimeException e) {
+                // Couldn't talk to the database at all, so nothing from this round on counts as written.
+                // $set is idempotent, so it's safe to try everything again later.
+                error = e;
+                for (var id : ids) {
+                    var groups = documents.get(id);
+                    failed.put(id, groups.subList(round, groups.size()));
+                }
+
+                break;
+            }
+        }
+
+        var tableAttempts = attempts.computeIfAbsent(table, t -> new HashMap<>());
+        Map<String, List<Map<String, Bson>>> retry = new HashMap<>();
+        failed.forEach((id, groups) -> {
+            var count = refused.contains(id) ? tableAttempts.merge(id, 1, Integer::sum) : tableAttempts.getOrDefault(id, 0);
+            if (count < MAX_ATTEMPTS) {
+                retry.put(id, new ArrayList<>(groups));
+                return;
+            }
+
+            // Dead letter: it'll never go through, so log what we're losing and move on.
+            tableAttempts.remove(id);
+            log.error("Giving up on writing {}:{} after {} attempts, dropping updates: {}", table, id, count, groups);
+            onDrop.accept(table, id);
+        });
+
+        documents.keySet().stream().filter(id -> !failed.containsKey(id)).forEach(id -> {
+            tableAttempts.remove(id);
+            onFlush.accept(table, id);
+        });
+
+        if (tableAttempts.isEmpty()) {
+            attempts.remove(table);
+        }
+
+        if (error != null) {
+            log.warn("Unable to write {} of {} queued documents to {}, re-queueing {}", failed.size(), documents.size(), table, retry.size(), error);
+            requeue(table, retry);
+            throw error;
+        }
+    }
+
+    private void requeue(String table, Map<String, List<Map<String, Bson>>> documents) {
+        synchronized (this) {
+            var tablePending = pending.computeIfAbsent(table, t -> new HashMap<>());
+            documents.forEach((id, groups) -> {
+                // Whatever got queued while we were trying to write is newer, so it goes last.
+                var newer = tablePending.remove(id);
+                var merged = new ArrayList<>(groups);
+                if (newer != null) {
+                    newer.forEach(group -> group.forEach((key, update) -> merge(merged, key, update)));
+                } else {
+                    pendingDocuments++;
+                }
+
+                tablePending.put(id, merged);
+            });
+
+            Metrics.DB_WRITE_QUEUE_DEPTH.set(pendingDocuments);
+        }
+    }
+
+    // Adds an update to the newest group, or to a new one if it clashes with what's there (see conflicts), so each group is one valid update.
+    static void merge(List<Map<String, Bson>> groups, String key, Bson update) {
+        var last = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+        if (last == null || last.keySet().stream().anyMatch(existing -> conflicts(existing, key))) {
+            last = new LinkedHashMap<>();
+            groups.add(last);
+        }
+
+        // Same key in the same group: newest value wins.
+        last.put(key, update);
+    }
+
+    // Mongo refuses to $set both a field and one of its sub-fields in the same update.
+    static boolean conflicts(String a, String b) {
+        return !a.equals(b) && (a.startsWith(b + ".") || b.startsWith(a + "."));
+    }
+}
@@ -0,0 +1,148 @@
+package net.kodehawa.mantarobot.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Base for the hand-written codecs of our biggest and hottest entities.
+ * Decoding reads each field straight into the entity, instead of going through the POJO codec's reflection and property models.
+ * Fields the codec doesn't know about are skipped, and null values keep the field's default.
+ * <p>
+ * Encoding is left to the POJO codec, so what gets written to the database doesn't change.
+ * When adding a field to one of these entities, remember to add it to its codec too, else it won't be read back!
+ */
+public abstract class EntityCodec<T> implements Codec<T> {
+    private final Class<T> clazz;
+    private final Codec<T> pojoCodec;
+    protected final CodecRegistry registry;
+
+    protected EntityCodec(Class<T> clazz, Codec<T> pojoCodec, CodecRegistry registry) {
+        this.clazz = clazz;
+        this.pojoCodec = pojoCodec;
+        this.registry = registry;
+    }
+
+    protected abstract T newInstance();
+
+    /**
+     * Reads the value of a field into the entity.
+     *
+     * @return Whether this field is known. Unknown fields get skipped.
+     */
+    protected abstract boolean decodeField(T entity, String name, BsonReader reader, DecoderContext context);
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext context) {
+        var entity = newInstance();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            var name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+
+            if (!decodeField(entity, name, reader, context)) {
+                reader.skipValue();
+            }
+        }
+
+        reader.readEndDocument();
+        return entity;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext context) {
+        pojoCodec.encode(writer, value, context);
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return clazz;
+    }
+
+    // Numbers might've been written as any numeric type (ex. $inc with an int), same as the POJO codec, we take all of them.
+    protected static long readLong(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DOUBLE -> (long) reader.readDouble();
+            case DECIMAL128 -> reader.readDecimal128().bigDecimalValue().longValue();
+            default -> throw new CodecConfigurationException("Expected a number, got " + reader.getCurrentBsonType());
+        };
+    }
+
+    protected static int readInt(BsonReader reader) {
+        return Math.toIntExact(readLong(reader));
+    }
+
+    protected static boolean readBoolean(BsonReader reader) {
+        return reader.readBoolean();
+    }
+
+    protected static String readString(BsonReader reader) {
+        return reader.readString();
+    }
+
+    protected static <E extends Enum<E>> E readEnum(BsonReader reader, Class<E> clazz) {
+        return Enum.valueOf(clazz, reader.readString());
+    }
+
+    protected static <E extends Enum<E>> Function<BsonReader, E> enumReader(Class<E> clazz) {
+        return reader -> readEnum(reader, clazz);
+    }
+
+    protected static <V, C extends Collection<V>> C readCollection(BsonReader reader, Supplier<C> factory, Function<BsonReader, V> elementReader) {
+        var collection = factory.get();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                collection.add(null);
+            } else {
+                collection.add(elementReader.apply(reader));
+            }
+        }
+
+        reader.readEndArray();
+        return collection;
+    }
+
+    protected static <V> Map<String, V> readMap(BsonReader reader, Function<BsonReader, V> valueReader) {
+        Map<String, V> map = new HashMap<>();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            var key = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                map.put(key, null);
+            } else {
+                map.put(key, valueReader.apply(reader));
+            }
+        }
+
+        reader.readEndDocument();
+        return map;
+    }
+
+    // For embedded objects (pets, potions...), which are small enough to leave to their own codec.
+    protected <V> V readObject(BsonReader reader, Class<V> clazz, DecoderContext context) {
+        return context.decodeWithChildContext(registry.get(clazz), reader);
+    }
+
+    protected <V> Function<BsonReader, V> objectReader(Class<V> clazz, DecoderContext context) {
+        return reader -> readObject(reader, clazz, context);
+    }
+}
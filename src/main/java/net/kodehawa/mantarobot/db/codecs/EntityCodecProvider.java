@@ -0,0 +1,45 @@
+package net.kodehawa.mantarobot.db.codecs;
+
+import net.kodehawa.mantarobot.db.entities.MongoGuild;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Provides the hand-written {@link EntityCodec}s. Needs to go before the POJO codec provider on the registry.
+ */
+public class EntityCodecProvider implements CodecProvider {
+    private final CodecProvider pojoCodecProvider;
+
+    /**
+     * @param pojoCodecProvider The POJO codec provider, used to encode.
+     */
+    public EntityCodecProvider(CodecProvider pojoCodecProvider) {
+        this.pojoCodecProvider = pojoCodecProvider;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (clazz == Player.class) {
+            return (Codec<T>) new Player.BsonCodec(pojoCodecProvider.get(Player.class, registry), registry);
+        }
+
+        if (clazz == MongoUser.class) {
+            return (Codec<T>) new MongoUser.BsonCodec(pojoCodecProvider.get(MongoUser.class, registry), registry);
+        }
+
+        if (clazz == MongoGuild.class) {
+            return (Codec<T>) new MongoGuild.BsonCodec(pojoCodecProvider.get(MongoGuild.class, registry), registry);
+        }
+
+        if (clazz == PlayerStats.class) {
+            return (Codec<T>) new PlayerStats.BsonCodec(pojoCodecProvider.get(PlayerStats.class, registry), registry);
+        }
+
+        return null;
+    }
+}
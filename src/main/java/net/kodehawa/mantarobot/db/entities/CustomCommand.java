@@ -17,7 +17,9 @@
 
 package net.kodehawa.mantarobot.db.entities;
 
+import com.mongodb.client.model.Indexes;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.IndexDefinition;
 import net.kodehawa.mantarobot.db.ManagedMongoObject;
 import net.kodehawa.mantarobot.utils.Utils;
 import org.bson.codecs.pojo.annotations.BsonCreator;
@@ -33,6 +35,10 @@ import java.util.stream.Collectors;
 public class CustomCommand implements ManagedMongoObject {
     @BsonIgnore
     public static final String DB_TABLE = "commands";
+    @BsonIgnore
+    public static final List<IndexDefinition> INDEXES = List.of(
+            IndexDefinition.of(DB_TABLE, Indexes.ascending("guildId"), "custom command lookup by guild")
+    );
 
     private String id;
     private String guildId;
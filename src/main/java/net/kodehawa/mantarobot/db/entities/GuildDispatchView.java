@@ -0,0 +1,211 @@
+package net.kodehawa.mantarobot.db.entities;
+
+import com.mongodb.client.model.Projections;
+import net.kodehawa.mantarobot.core.command.helpers.CommandCategory;
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonIgnore;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The part of a {@link MongoGuild} needed to dispatch a command: prefix, language, disable rules and premium status.
+ * Loaded with a projection, so we don't deserialize the whole guild (birthdays, polls, join messages...) on every message.
+ * This is read-only: to change any of this, load the full guild.
+ */
+@SuppressWarnings("unused")
+public class GuildDispatchView {
+    @BsonIgnore
+    public static final Bson PROJECTION = Projections.include(
+            "guildCustomPrefix", "lang", "premiumKey", "premiumUntil", "mpLinkedTo", "commandWarningDisplay",
+            "disabledCommands", "disabledChannels", "disabledCategories", "disabledUsers", "disabledRoles",
+            "channelSpecificDisabledCommands", "channelSpecificDisabledCategories",
+            "roleSpecificDisabledCommands", "roleSpecificDisabledCategories"
+    );
+
+    @BsonId
+    private String id;
+    private String guildCustomPrefix = null;
+    private String lang = "en_US";
+    private String premiumKey;
+    private long premiumUntil = 0L;
+    private String mpLinkedTo = null;
+    private boolean commandWarningDisplay = false;
+    private Set<String> disabledCommands = new HashSet<>();
+    private Set<String> disabledChannels = new HashSet<>();
+    private Set<CommandCategory> disabledCategories = new HashSet<>();
+    private List<String> disabledUsers = new ArrayList<>();
+    private Set<String> disabledRoles = new HashSet<>();
+    private Map<String, List<String>> channelSpecificDisabledCommands = new HashMap<>();
+    private Map<String, List<CommandCategory>> channelSpecificDisabledCategories = new HashMap<>();
+    private Map<String, List<String>> roleSpecificDisabledCommands = new HashMap<>();
+    private Map<String, List<CommandCategory>> roleSpecificDisabledCategories = new HashMap<>();
+
+    // Needed for the Mongo Codec to deserialize this.
+    public GuildDispatchView() {
+    }
+
+    public GuildDispatchView(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Builds a view out of an already loaded guild. The collections are shared, not copied.
+     *
+     * @param guild The guild.
+     * @return The dispatch view of this guild.
+     */
+    @BsonIgnore
+    public static GuildDispatchView of(MongoGuild guild) {
+        var view = new GuildDispatchView(guild.getId());
+        view.guildCustomPrefix = guild.getGuildCustomPrefix();
+        view.lang = guild.getLang();
+        view.premiumKey = guild.getPremiumKey();
+        view.premiumUntil = guild.getPremiumUntil();
+        view.mpLinkedTo = guild.getMpLinkedTo();
+        view.commandWarningDisplay = guild.isCommandWarningDisplay();
+        view.disabledCommands = guild.getDisabledCommands();
+        view.disabledChannels = guild.getDisabledChannels();
+        view.disabledCategories = guild.getDisabledCategories();
+        view.disabledUsers = guild.getDisabledUsers();
+        view.disabledRoles = guild.getDisabledRoles();
+        view.channelSpecificDisabledCommands = guild.getChannelSpecificDisabledCommands();
+        view.channelSpecificDisabledCategories = guild.getChannelSpecificDisabledCategories();
+        view.roleSpecificDisabledCommands = guild.getRoleSpecificDisabledCommands();
+        view.roleSpecificDisabledCategories = guild.getRoleSpecificDisabledCategories();
+        return view;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getGuildCustomPrefix() {
+        return guildCustomPrefix;
+    }
+
+    public String getLang() {
+        return lang;
+    }
+
+    public String getPremiumKey() {
+        return premiumKey;
+    }
+
+    public long getPremiumUntil() {
+        return premiumUntil;
+    }
+
+    public String getMpLinkedTo() {
+        return mpLinkedTo;
+    }
+
+    public boolean isCommandWarningDisplay() {
+        return commandWarningDisplay;
+    }
+
+    public Set<String> getDisabledCommands() {
+        return disabledCommands;
+    }
+
+    public Set<String> getDisabledChannels() {
+        return disabledChannels;
+    }
+
+    public Set<CommandCategory> getDisabledCategories() {
+        return disabledCategories;
+    }
+
+    public List<String> getDisabledUsers() {
+        return disabledUsers;
+    }
+
+    public Set<String> getDisabledRoles() {
+        return disabledRoles;
+    }
+
+    public Map<String, List<String>> getChannelSpecificDisabledCommands() {
+        return channelSpecificDisabledCommands;
+    }
+
+    public Map<String, List<CommandCategory>> getChannelSpecificDisabledCategories() {
+        return channelSpecificDisabledCategories;
+    }
+
+    public Map<String, List<String>> getRoleSpecificDisabledCommands() {
+        return roleSpecificDisabledCommands;
+    }
+
+    public Map<String, List<CommandCategory>> getRoleSpecificDisabledCategories() {
+        return roleSpecificDisabledCategories;
+    }
+
+    protected void setId(String id) {
+        this.id = id;
+    }
+
+    protected void setGuildCustomPrefix(String guildCustomPrefix) {
+        this.guildCustomPrefix = guildCustomPrefix;
+    }
+
+    protected void setLang(String lang) {
+        this.lang = lang;
+    }
+
+    protected void setPremiumKey(String premiumKey) {
+        this.premiumKey = premiumKey;
+    }
+
+    protected void setPremiumUntil(long premiumUntil) {
+        this.premiumUntil = premiumUntil;
+    }
+
+    protected void setMpLinkedTo(String mpLinkedTo) {
+        this.mpLinkedTo = mpLinkedTo;
+    }
+
+    protected void setCommandWarningDisplay(boolean commandWarningDisplay) {
+        this.commandWarningDisplay = commandWarningDisplay;
+    }
+
+    protected void setDisabledCommands(Set<String> disabledCommands) {
+        this.disabledCommands = disabledCommands;
+    }
+
+    protected void setDisabledChannels(Set<String> disabledChannels) {
+        this.disabledChannels = disabledChannels;
+    }
+
+    protected void setDisabledCategories(Set<CommandCategory> disabledCategories) {
+        this.disabledCategories = disabledCategories;
+    }
+
+    protected void setDisabledUsers(List<String> disabledUsers) {
+        this.disabledUsers = disabledUsers;
+    }
+
+    protected void setDisabledRoles(Set<String> disabledRoles) {
+        this.disabledRoles = disabledRoles;
+    }
+
+    protected void setChannelSpecificDisabledCommands(Map<String, List<String>> channelSpecificDisabledCommands) {
+        this.channelSpecificDisabledCommands = channelSpecificDisabledCommands;
+    }
+
+    protected void setChannelSpecificDisabledCategories(Map<String, List<CommandCategory>> channelSpecificDisabledCategories) {
+        this.channelSpecificDisabledCategories = channelSpecificDisabledCategories;
+    }
+
+    protected void setRoleSpecificDisabledCommands(Map<String, List<String>> roleSpecificDisabledCommands) {
+        this.roleSpecificDisabledCommands = roleSpecificDisabledCommands;
+    }
+
+    protected void setRoleSpecificDisabledCategories(Map<String, List<CommandCategory>> roleSpecificDisabledCategories) {
+        this.roleSpecificDisabledCategories = roleSpecificDisabledCategories;
+    }
+}
@@ -105,9 +105,14 @@ public class Inventory {
         stored = serialize(inv);
     }
 
+    // The key this item is stored as in the database.
+    public static String key(Item item) {
+        return item.getTranslatedName().split("\\.")[1];
+    }
+
     public static Map<String, Integer> serialize(List<ItemStack> list) {
         Map<String, Integer> collect = list.stream().filter(stack -> stack.getAmount() != 0)
-                .collect(Collectors.toMap(stack -> stack.getItem().getTranslatedName().split("\\.")[1], ItemStack::getAmount, Integer::sum));
+                .collect(Collectors.toMap(stack -> key(stack.getItem()), ItemStack::getAmount, Integer::sum));
         collect.values().remove(0);
         return collect;
     }
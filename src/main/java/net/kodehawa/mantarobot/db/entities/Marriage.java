@@ -27,6 +27,7 @@ import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonProperty;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,8 +35,9 @@ import java.util.Map;
 public class Marriage implements ManagedMongoObject {
     @BsonIgnore
     public static final String DB_TABLE = "marriages";
+    // Cached instances are shared between threads, same as players.
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     @BsonId
     private String id;
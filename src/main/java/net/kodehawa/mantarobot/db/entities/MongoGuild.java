@@ -7,9 +7,14 @@ import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.data.annotations.ConfigName;
 import net.kodehawa.mantarobot.data.annotations.HiddenConfig;
 import net.kodehawa.mantarobot.db.ManagedMongoObject;
+import net.kodehawa.mantarobot.db.codecs.EntityCodec;
 import net.kodehawa.mantarobot.utils.APIUtils;
 import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.patreon.PatreonPledge;
+import org.bson.BsonReader;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.jetbrains.annotations.NotNull;
@@ -17,6 +22,8 @@ import org.jetbrains.annotations.NotNull;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,7 +41,7 @@ public class MongoGuild implements ManagedMongoObject {
     @BsonIgnore
     private final Config config = MantaroData.config().get();
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     @BsonId
     private String id;
@@ -148,14 +155,16 @@ public class MongoGuild implements ManagedMongoObject {
     private boolean commandWarningDisplay = false;
     @ConfigName("Has received greet message")
     private boolean hasReceivedGreet = false;
-    @ConfigName("People blocked from the birthday logging on this server.")
+    // Legacy: moved to ManagedDatabase.GUILD_BIRTHDAYS_TABLE. Only holds what hasn't been migrated yet.
+    @HiddenConfig
     private List<String> birthdayBlockedIds = new ArrayList<>();
     @ConfigName("Disabled game lobby/multiple")
     private boolean gameMultipleDisabled = false;
     @ConfigName("Timezone of logs")
     private String logTimezone;
+    // Legacy: moved to ManagedDatabase.GUILD_BIRTHDAYS_TABLE. Only holds what hasn't been migrated yet.
     @SuppressWarnings("CanBeFinal")
-    @HiddenConfig // It's not unused, but this hides it from opts check data
+    @HiddenConfig
     private List<String> allowedBirthdays = new ArrayList<>();
     @HiddenConfig // It's not unused, but this hides it from opts check data
     private boolean notifiedFromBirthdayChange = false;
@@ -221,6 +230,17 @@ public class MongoGuild implements ManagedMongoObject {
 
     @BsonIgnore
     public boolean isPremium() {
+        return MantaroData.db().getPremiumEntitlements().isPremium(this);
+    }
+
+    /**
+     * Works out whether this guild is premium, cleaning up its key if it expired and linking it to Patreon if needed.
+     * This reads the key and asks Patreon, so don't call this directly: {@link #isPremium()} caches the answer.
+     *
+     * @return Whether this guild is premium.
+     */
+    @BsonIgnore
+    public boolean resolvePremium() {
         PremiumKey key = MantaroData.db().getPremiumKey(getPremiumKey());
         //Key validation check (is it still active? delete otherwise)
         if (key != null) {
@@ -278,6 +298,7 @@ public class MongoGuild implements ManagedMongoObject {
         newKey.insertOrReplace();
 
         updateAllChanged();
+        MantaroData.db().getPremiumEntitlements().invalidateGuild(getId());
         return newKey;
     }
 
@@ -290,6 +311,7 @@ public class MongoGuild implements ManagedMongoObject {
         dbUser.updateAllChanged();
 
         updateAllChanged();
+        MantaroData.db().getPremiumEntitlements().invalidateGuild(getId());
     }
 
     @BsonIgnore
@@ -375,14 +397,40 @@ public class MongoGuild implements ManagedMongoObject {
         return autoroleCategories;
     }
 
+    /**
+     * Legacy, see {@link #getBlockedBirthdayIds()}. This only holds ids that haven't been migrated yet.
+     */
     public List<String> getBirthdayBlockedIds() {
         return birthdayBlockedIds;
     }
 
+    /**
+     * Legacy, see {@link #getAllowedBirthdayIds()}. This only holds ids that haven't been migrated yet.
+     */
     public List<String> getAllowedBirthdays() {
         return allowedBirthdays;
     }
 
+    @BsonIgnore
+    public Set<String> getAllowedBirthdayIds() {
+        return MantaroData.db().getAllowedBirthdays(id);
+    }
+
+    @BsonIgnore
+    public Set<String> getBlockedBirthdayIds() {
+        return MantaroData.db().getBlockedBirthdays(id);
+    }
+
+    @BsonIgnore
+    public boolean isBirthdayAllowed(String userId) {
+        return MantaroData.db().isBirthdayAllowed(id, userId);
+    }
+
+    @BsonIgnore
+    public boolean isBirthdayBlocked(String userId) {
+        return MantaroData.db().isBirthdayBlocked(id, userId);
+    }
+
     public Map<String, Poll.PollDatabaseObject> getRunningPolls() {
         return runningPolls;
     }
@@ -842,6 +890,26 @@ public class MongoGuild implements ManagedMongoObject {
         fieldTracker.put("cases", this.cases);
     }
 
+    /**
+     * Takes the next mod log case number. This is an atomic increment on the database,
+     * so concurrent actions (ex. mass bans) each get their own number, without saving the whole guild.
+     *
+     * @return The new case number.
+     */
+    @BsonIgnore
+    public long nextCase() {
+        // A pending absolute value would overwrite the increment later on, write it first.
+        if (fieldTracker.containsKey("cases")) {
+            updateAllChanged();
+        }
+
+        // Only null on negative increments that would go below zero.
+        //noinspection DataFlowIssue
+        long next = MantaroData.db().incrementFieldValue(this, "cases", 1);
+        this.cases = next;
+        return next;
+    }
+
     public void lang(String lang) {
         this.lang = lang;
         fieldTracker.put("lang", this.lang);
@@ -1201,24 +1269,25 @@ public class MongoGuild implements ManagedMongoObject {
         fieldTracker.put("modLogBlacklistWords", this.modLogBlacklistWords);
     }
 
+    // These four write straight away: birthdays live on their own collection, there's nothing to track.
     public void addBirthdayBlockedId(String userId) {
-        birthdayBlockedIds.add(userId);
-        fieldTracker.put("birthdayBlockedIds", this.birthdayBlockedIds);
+        MantaroData.db().setBirthdayBlocked(id, userId, true);
     }
 
     public void removeBirthdayBlockedId(String userId) {
-        birthdayBlockedIds.remove(userId);
-        fieldTracker.put("birthdayBlockedIds", this.birthdayBlockedIds);
+        MantaroData.db().setBirthdayBlocked(id, userId, false);
     }
 
     public void addAllowedBirthdays(String userId) {
-        allowedBirthdays.add(userId);
-        fieldTracker.put("allowedBirthdays", this.allowedBirthdays);
+        MantaroData.db().setBirthdayAllowed(id, userId, true);
+    }
+
+    public void removeAllowedBirthdays(Collection<String> userIds) {
+        MantaroData.db().setBirthdayAllowed(id, userIds, false);
     }
 
     public void removeAllowedBirthday(String userId) {
-        allowedBirthdays.add(userId);
-        fieldTracker.put("allowedBirthdays", this.allowedBirthdays);
+        MantaroData.db().setBirthdayAllowed(id, userId, false);
     }
 
     public void addAutorole(String name, String roleId) {
@@ -1310,4 +1379,93 @@ public class MongoGuild implements ManagedMongoObject {
         runningPolls.remove(id);
         fieldTracker.put("runningPolls", this.runningPolls);
     }
+
+    /**
+     * Hand-written decoder, see {@link EntityCodec}.
+     */
+    public static class BsonCodec extends EntityCodec<MongoGuild> {
+        public BsonCodec(Codec<MongoGuild> pojoCodec, CodecRegistry registry) {
+            super(MongoGuild.class, pojoCodec, registry);
+        }
+
+        @Override
+        protected MongoGuild newInstance() {
+            return new MongoGuild();
+        }
+
+        @Override
+        protected boolean decodeField(MongoGuild guild, String name, BsonReader reader, DecoderContext context) {
+            switch (name) {
+                case "_id" -> guild.id = readString(reader);
+                case "premiumUntil" -> guild.premiumUntil = readLong(reader);
+                case "autoroles" -> guild.autoroles = readMap(reader, EntityCodec::readString);
+                case "birthdayChannel" -> guild.birthdayChannel = readString(reader);
+                case "birthdayRole" -> guild.birthdayRole = readString(reader);
+                case "cases" -> guild.cases = readLong(reader);
+                case "channelSpecificDisabledCategories" -> guild.channelSpecificDisabledCategories = readMap(reader, r -> readCollection(r, ArrayList::new, enumReader(CommandCategory.class)));
+                case "channelSpecificDisabledCommands" -> guild.channelSpecificDisabledCommands = readMap(reader, r -> readCollection(r, ArrayList::new, EntityCodec::readString));
+                case "disabledCategories" -> guild.disabledCategories = readCollection(reader, HashSet::new, enumReader(CommandCategory.class));
+                case "disabledChannels" -> guild.disabledChannels = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "disabledCommands" -> guild.disabledCommands = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "disabledRoles" -> guild.disabledRoles = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "disabledUsers" -> guild.disabledUsers = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "guildAutoRole" -> guild.guildAutoRole = readString(reader);
+                case "guildCustomPrefix" -> guild.guildCustomPrefix = readString(reader);
+                case "guildLogChannel" -> guild.guildLogChannel = readString(reader);
+                case "joinMessage" -> guild.joinMessage = readString(reader);
+                case "leaveMessage" -> guild.leaveMessage = readString(reader);
+                case "logExcludedChannels" -> guild.logExcludedChannels = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "logJoinLeaveChannel" -> guild.logJoinLeaveChannel = readString(reader);
+                case "maxFairQueue" -> guild.maxFairQueue = readInt(reader);
+                case "modlogBlacklistedPeople" -> guild.modlogBlacklistedPeople = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "musicAnnounce" -> guild.musicAnnounce = readBoolean(reader);
+                case "musicChannel" -> guild.musicChannel = readString(reader);
+                case "mutedRole" -> guild.mutedRole = readString(reader);
+                case "noMentionsAction" -> guild.noMentionsAction = readBoolean(reader);
+                case "premiumKey" -> guild.premiumKey = readString(reader);
+                case "ranPolls" -> guild.ranPolls = readLong(reader);
+                case "rolesBlockedFromCommands" -> guild.rolesBlockedFromCommands = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "setModTimeout" -> guild.setModTimeout = readLong(reader);
+                case "timeDisplay" -> guild.timeDisplay = readInt(reader);
+                case "gameTimeoutExpectedAt" -> guild.gameTimeoutExpectedAt = readString(reader);
+                case "ignoreBotsWelcomeMessage" -> guild.ignoreBotsWelcomeMessage = readBoolean(reader);
+                case "ignoreBotsAutoRole" -> guild.ignoreBotsAutoRole = readBoolean(reader);
+                case "blackListedImageTags" -> guild.blackListedImageTags = readCollection(reader, HashSet::new, EntityCodec::readString);
+                case "logJoinChannel" -> guild.logJoinChannel = readString(reader);
+                case "logLeaveChannel" -> guild.logLeaveChannel = readString(reader);
+                case "roleSpecificDisabledCategories" -> guild.roleSpecificDisabledCategories = readMap(reader, r -> readCollection(r, ArrayList::new, enumReader(CommandCategory.class)));
+                case "roleSpecificDisabledCommands" -> guild.roleSpecificDisabledCommands = readMap(reader, r -> readCollection(r, ArrayList::new, EntityCodec::readString));
+                case "lang" -> guild.lang = readString(reader);
+                case "musicVote" -> guild.musicVote = readBoolean(reader);
+                case "extraJoinMessages" -> guild.extraJoinMessages = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "extraLeaveMessages" -> guild.extraLeaveMessages = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "birthdayMessage" -> guild.birthdayMessage = readString(reader);
+                case "customAdminLockNew" -> guild.customAdminLockNew = readBoolean(reader);
+                case "mpLinkedTo" -> guild.mpLinkedTo = readString(reader);
+                case "modLogBlacklistWords" -> guild.modLogBlacklistWords = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "autoroleCategories" -> guild.autoroleCategories = readMap(reader, r -> readCollection(r, ArrayList::new, EntityCodec::readString));
+                case "editMessageLog" -> guild.editMessageLog = readString(reader);
+                case "deleteMessageLog" -> guild.deleteMessageLog = readString(reader);
+                case "bannedMemberLog" -> guild.bannedMemberLog = readString(reader);
+                case "unbannedMemberLog" -> guild.unbannedMemberLog = readString(reader);
+                case "kickedMemberLog" -> guild.kickedMemberLog = readString(reader);
+                case "commandWarningDisplay" -> guild.commandWarningDisplay = readBoolean(reader);
+                case "hasReceivedGreet" -> guild.hasReceivedGreet = readBoolean(reader);
+                case "birthdayBlockedIds" -> guild.birthdayBlockedIds = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "gameMultipleDisabled" -> guild.gameMultipleDisabled = readBoolean(reader);
+                case "logTimezone" -> guild.logTimezone = readString(reader);
+                case "allowedBirthdays" -> guild.allowedBirthdays = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "notifiedFromBirthdayChange" -> guild.notifiedFromBirthdayChange = readBoolean(reader);
+                case "disableExplicit" -> guild.disableExplicit = readBoolean(reader);
+                case "djRoleId" -> guild.djRoleId = readString(reader);
+                case "musicQueueSizeLimit" -> guild.musicQueueSizeLimit = readLong(reader);
+                case "runningPolls" -> guild.runningPolls = readMap(reader, objectReader(Poll.PollDatabaseObject.class, context));
+                default -> {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
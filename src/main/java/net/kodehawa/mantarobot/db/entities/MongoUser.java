@@ -17,16 +17,26 @@
 
 package net.kodehawa.mantarobot.db.entities;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.currency.item.PlayerEquipment;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.IndexDefinition;
 import net.kodehawa.mantarobot.db.ManagedMongoObject;
+import net.kodehawa.mantarobot.db.codecs.EntityCodec;
 import net.kodehawa.mantarobot.utils.APIUtils;
 import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.Utils;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonProperty;
@@ -35,6 +45,7 @@ import javax.annotation.Nonnull;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -51,9 +62,17 @@ public class MongoUser implements ManagedMongoObject {
     @BsonIgnore
     public static final String DB_TABLE = "users";
     @BsonIgnore
+    public static final List<IndexDefinition> INDEXES = List.of(
+            IndexDefinition.of(DB_TABLE, Indexes.descending("timesClaimed"), "claim leaderboard"),
+            // Most users don't have a birthday set, so only index the ones that do.
+            IndexDefinition.of(DB_TABLE, Indexes.ascending("birthday"),
+                    new IndexOptions().partialFilterExpression(Filters.type("birthday", BsonType.STRING)), "birthday cache"
+            )
+    );
+    @BsonIgnore
     private final Config config = MantaroData.config().get();
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     @BsonId
     private String id;
@@ -466,12 +485,23 @@ public class MongoUser implements ManagedMongoObject {
     }
 
     @BsonIgnore
-    //Slowly convert old key system to new key system (link old accounts).
     public boolean isPremium() {
         //Return true if this is running in MP, as all users are considered Premium on it.
         if (config.isPremiumBot())
             return true;
 
+        return MantaroData.db().getPremiumEntitlements().isPremium(this);
+    }
+
+    /**
+     * Works out whether this user is premium, cleaning up their key if it expired and linking it to Patreon if needed.
+     * This reads the key and asks Patreon, so don't call this directly: {@link #isPremium()} caches the answer.
+     *
+     * @return Whether this user is premium.
+     */
+    @BsonIgnore
+    //Slowly convert old key system to new key system (link old accounts).
+    public boolean resolvePremium() {
         PremiumKey key = MantaroData.db().getPremiumKey(getPremiumKey());
         boolean isActive = false;
 
@@ -552,6 +582,7 @@ public class MongoUser implements ManagedMongoObject {
 
         premiumKey(premiumId);
         updateAllChanged();
+        MantaroData.db().getPremiumEntitlements().invalidateUser(getId());
         return newKey;
     }
 
@@ -562,6 +593,7 @@ public class MongoUser implements ManagedMongoObject {
         removeKeyClaimed(getUserIdFromKeyId(originalKey));
 
         updateAllChanged();
+        MantaroData.db().getPremiumEntitlements().invalidateUser(getId());
     }
 
     @Override
@@ -596,4 +628,49 @@ public class MongoUser implements ManagedMongoObject {
     public Config getConfig() {
         return this.config;
     }
+
+    /**
+     * Hand-written decoder, see {@link EntityCodec}.
+     */
+    public static class BsonCodec extends EntityCodec<MongoUser> {
+        public BsonCodec(Codec<MongoUser> pojoCodec, CodecRegistry registry) {
+            super(MongoUser.class, pojoCodec, registry);
+        }
+
+        @Override
+        protected MongoUser newInstance() {
+            return new MongoUser();
+        }
+
+        @Override
+        protected boolean decodeField(MongoUser user, String name, BsonReader reader, DecoderContext context) {
+            switch (name) {
+                case "_id" -> user.id = readString(reader);
+                case "premiumUntil" -> user.premiumUntil = readLong(reader);
+                case "birthday" -> user.birthday = readString(reader);
+                case "receivedFirstKey" -> user.receivedFirstKey = readBoolean(reader);
+                case "premiumKey" -> user.premiumKey = readString(reader);
+                case "remindedTimes" -> user.remindedTimes = readInt(reader);
+                case "timezone" -> user.timezone = readString(reader);
+                case "lang" -> user.lang = readString(reader);
+                case "dustLevel" -> user.dustLevel = readInt(reader);
+                case "equippedItems" -> user.equippedItems = readObject(reader, PlayerEquipment.class, context);
+                case "receivedExpirationWarning" -> user.receivedExpirationWarning = readBoolean(reader);
+                case "keysClaimed" -> user.keysClaimed = readMap(reader, EntityCodec::readString);
+                case "marriageId" -> user.marriageId = readString(reader);
+                case "waifus" -> user.waifus = readMap(reader, EntityCodec::readLong);
+                case "waifuSlots" -> user.waifuSlots = readInt(reader);
+                case "timesClaimed" -> user.timesClaimed = readInt(reader);
+                case "reminders" -> user.reminders = readCollection(reader, ArrayList::new, EntityCodec::readString);
+                case "privateTag" -> user.privateTag = readBoolean(reader);
+                case "autoEquip" -> user.autoEquip = readBoolean(reader);
+                case "actionsDisabled" -> user.actionsDisabled = readBoolean(reader);
+                default -> {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
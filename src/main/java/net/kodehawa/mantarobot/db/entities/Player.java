@@ -17,6 +17,7 @@
 
 package net.kodehawa.mantarobot.db.entities;
 
+import com.mongodb.client.model.Indexes;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.commands.currency.item.Item;
@@ -29,18 +30,28 @@ import net.kodehawa.mantarobot.commands.currency.profile.ProfileComponent;
 import net.kodehawa.mantarobot.commands.currency.profile.inventory.InventorySortType;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.FieldDelta;
+import net.kodehawa.mantarobot.db.IndexDefinition;
 import net.kodehawa.mantarobot.db.ManagedMongoObject;
+import net.kodehawa.mantarobot.db.codecs.EntityCodec;
+import org.bson.BsonReader;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonProperty;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static net.kodehawa.mantarobot.db.entities.Inventory.serialize;
@@ -50,10 +61,19 @@ public class Player implements ManagedMongoObject {
     private static final Config config = MantaroData.config().get();
     @BsonIgnore
     public static final String DB_TABLE = "players";
+    // The leaderboards sort on these, see LeaderboardCmd.
+    @BsonIgnore
+    public static final List<IndexDefinition> INDEXES = List.of(
+            IndexDefinition.of(DB_TABLE, Indexes.descending("newMoney"), "money leaderboard"),
+            IndexDefinition.of(DB_TABLE, Indexes.descending("oldMoney"), "money leaderboard (premium)"),
+            IndexDefinition.of(DB_TABLE, Indexes.descending("reputation"), "reputation leaderboard"),
+            IndexDefinition.of(DB_TABLE, Indexes.descending("dailyStreak"), "daily streak leaderboard"),
+            IndexDefinition.of(DB_TABLE, Indexes.descending("gamesWon"), "games leaderboard")
+    );
     @BsonIgnore
     private final Inventory inventoryObject = new Inventory();
     @BsonIgnore
-    public Map<String, Object> fieldTracker = new HashMap<>();
+    public Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
 
     @BsonId
     private String id;
@@ -648,29 +668,48 @@ public class Player implements ManagedMongoObject {
 
     @BsonIgnore
     public void processItem(Item item, int amount) {
+        var before = getInventory();
         inventoryObject.process(new ItemStack(item, amount));
-        fieldTracker.put("inventory", getInventory());
+        trackInventory(before);
     }
 
     @BsonIgnore
     public void processItem(ItemStack stack) {
+        var before = getInventory();
         inventoryObject.process(stack);
-        fieldTracker.put("inventory", getInventory());
+        trackInventory(before);
     }
 
     @BsonIgnore
     public void processItems(List<ItemStack> stack) {
+        var before = getInventory();
         inventoryObject.process(stack);
-        fieldTracker.put("inventory", getInventory());
+        trackInventory(before);
     }
 
     @BsonIgnore
     public boolean mergeInventory(List<ItemStack> stack) {
+        var before = getInventory();
         var merge = inventoryObject.merge(stack);
-        fieldTracker.put("inventory", getInventory());
+        trackInventory(before);
         return merge;
     }
 
+    // Tracks what changed per item (see FieldDelta), instead of writing the whole inventory again.
+    // Taking items only applies if they're still there, so two commands can't both use up the same item.
+    private void trackInventory(Map<String, Integer> before) {
+        var after = getInventory();
+        Set<String> items = new HashSet<>(before.keySet());
+        items.addAll(after.keySet());
+
+        for (var item : items) {
+            var amount = after.getOrDefault(item, 0) - before.getOrDefault(item, 0);
+            if (amount != 0) {
+                FieldDelta.track(fieldTracker, "inventory." + item, amount, !after.containsKey(item));
+            }
+        }
+    }
+
     @BsonIgnore
     public boolean containsItem(Item item) {
         return inventoryObject.containsItem(item);
@@ -737,6 +776,7 @@ public class Player implements ManagedMongoObject {
 
     /**
      * Adds x amount of money from the player.
+     * This is tracked as a change to the balance (see FieldDelta), so it's written as an $inc and can't overwrite concurrent changes.
      *
      * @param toAdd How much?
      * @return pls dont overflow.
@@ -748,17 +788,9 @@ public class Player implements ManagedMongoObject {
         if (toAdd < 0)
             return false;
 
-        money = Math.addExact(money, toAdd);
-
-        if (useOld) {
-            setOldMoney(money);
-            fieldTracker.put("oldMoney", money);
-        } else {
-            setNewMoney(money);
-            fieldTracker.put("newMoney", money);
-        }
-
-        return true;
+        // Overflow check, we don't want to find that out from the database.
+        Math.addExact(money, toAdd);
+        return applyMoney(useOld, toAdd);
     }
 
     /**
@@ -775,6 +807,8 @@ public class Player implements ManagedMongoObject {
 
     /**
      * Removes x amount of money from the player. Only goes though if money removed sums more than zero (avoids negative values).
+     * This is tracked as a change to the balance (see FieldDelta). The save checks the balance on the database still holds this much,
+     * and throws an InsufficientAmountException if something else spent it in the meantime.
      *
      * @param toRemove How much?
      */
@@ -785,19 +819,95 @@ public class Player implements ManagedMongoObject {
             return false;
         }
 
-        money -= toRemove;
+        return applyMoney(useOld, -toRemove);
+    }
+
+    private boolean applyMoney(boolean useOld, long amount) {
+        var key = useOld ? "oldMoney" : "newMoney";
+        var money = (useOld ? this.oldMoney : newMoney) + amount;
+
+        synchronized (fieldTracker) {
+            var pending = fieldTracker.get(key);
+            if (pending == null || pending instanceof FieldDelta) {
+                FieldDelta.track(fieldTracker, key, amount, false);
+            } else {
+                // There's a pending absolute change (see currentMoney), which would overwrite a delta. Stick to it.
+                fieldTracker.put(key, money);
+            }
+        }
 
         if (useOld) {
             setOldMoney(money);
-            fieldTracker.put("oldMoney", money);
         } else {
             setNewMoney(money);
-            fieldTracker.put("newMoney", money);
         }
 
         return true;
     }
 
+    /**
+     * Atomically moves money from this player to another one. Both this and the other player reflect the new balance afterwards.
+     *
+     * @param other    Who to give the money to.
+     * @param toRemove How much to take from this player.
+     * @param toAdd    How much the other player gets (can be less than toRemove, ex. taxed transfers).
+     * @return Whether the transfer went through (it won't if this player doesn't have enough money).
+     */
+    @BsonIgnore
+    public boolean transferMoney(Player other, long toRemove, long toAdd) {
+        boolean useOld = config.isPremiumBot() || config.isSelfHost();
+        var key = useOld ? "oldMoney" : "newMoney";
+        // Flush pending changes first: an absolute one would overwrite the transfer later, and the balance we get back should include them.
+        flushPending(key);
+        other.flushPending(key);
+
+        var result = MantaroData.db().transfer(this, key, toRemove, other, key, toAdd);
+        if (result == null) {
+            return false;
+        }
+
+        if (useOld) {
+            setOldMoney(result.left());
+            other.setOldMoney(result.right());
+        } else {
+            setNewMoney(result.left());
+            other.setNewMoney(result.right());
+        }
+
+        return true;
+    }
+
+    /**
+     * Atomically moves items from this player to another one. Both this and the other player reflect the new amount afterwards.
+     *
+     * @param other  Who to give the items to.
+     * @param item   The item to give.
+     * @param amount How many.
+     * @return Whether the transfer went through (it won't if this player doesn't have enough of the item,
+     * or if the other player can't hold that many).
+     */
+    @BsonIgnore
+    public boolean transferItem(Player other, Item item, int amount) {
+        var key = "inventory." + Inventory.key(item);
+        flushPending(key);
+        other.flushPending(key);
+
+        var result = MantaroData.db().transfer(this, key, amount, other, key, amount, ItemStack.MAX_STACK_SIZE, true);
+        if (result == null) {
+            return false;
+        }
+
+        inventoryObject.process(new ItemStack(item, (int) (result.left() - getItemAmount(item))));
+        other.inventoryObject.process(new ItemStack(item, (int) (result.right() - other.getItemAmount(item))));
+        return true;
+    }
+
+    private void flushPending(String key) {
+        if (fieldTracker.containsKey(key)) {
+            updateAllChanged();
+        }
+    }
+
     //it's 3am and i cba to replace usages of this so whatever
     @BsonIgnore
     public boolean isLocked() {
@@ -863,6 +973,8 @@ public class Player implements ManagedMongoObject {
     @Override
     public void insertOrReplace() {
         MantaroData.db().saveMongo(this, Player.class);
+        // That wrote everything, and item deltas can't be applied twice.
+        fieldTracker.clear();
     }
 
     @SuppressWarnings("unused")
@@ -875,4 +987,66 @@ public class Player implements ManagedMongoObject {
     public PlayerStats getStats() {
         return MantaroData.db().getPlayerStats(getId());
     }
+
+    /**
+     * Hand-written decoder, see {@link EntityCodec}.
+     */
+    public static class BsonCodec extends EntityCodec<Player> {
+        public BsonCodec(Codec<Player> pojoCodec, CodecRegistry registry) {
+            super(Player.class, pojoCodec, registry);
+        }
+
+        @Override
+        protected Player newInstance() {
+            return new Player();
+        }
+
+        @Override
+        protected boolean decodeField(Player player, String name, BsonReader reader, DecoderContext context) {
+            switch (name) {
+                case "_id" -> player.id = readString(reader);
+                case "level" -> player.level = readLong(reader);
+                case "oldMoney" -> player.oldMoney = readLong(reader);
+                case "reputation" -> player.reputation = readLong(reader);
+                case "experience" -> player.experience = readLong(reader);
+                case "newMoney" -> player.newMoney = readLong(reader);
+                case "dailyStreak" -> player.dailyStreak = readLong(reader);
+                case "description" -> player.description = readString(reader);
+                case "gamesWon" -> player.gamesWon = readLong(reader);
+                case "lastDailyAt" -> player.lastDailyAt = readLong(reader);
+                case "lockedUntil" -> player.lockedUntil = readLong(reader);
+                case "mainBadge" -> player.mainBadge = readEnum(reader, Badge.class);
+                case "marketUsed" -> player.marketUsed = readLong(reader);
+                case "showBadge" -> player.showBadge = readBoolean(reader);
+                case "activePotion" -> player.activePotion = readObject(reader, PotionEffect.class, context);
+                case "activeBuff" -> player.activeBuff = readObject(reader, PotionEffect.class, context);
+                case "waifuCachedValue" -> player.waifuCachedValue = readLong(reader);
+                case "claimLocked" -> player.claimLocked = readBoolean(reader);
+                case "miningExperience" -> player.miningExperience = readLong(reader);
+                case "fishingExperience" -> player.fishingExperience = readLong(reader);
+                case "chopExperience" -> player.chopExperience = readLong(reader);
+                case "timesMopped" -> player.timesMopped = readLong(reader);
+                case "cratesOpened" -> player.cratesOpened = readLong(reader);
+                case "sharksCaught" -> player.sharksCaught = readLong(reader);
+                case "waifuout" -> player.waifuout = readBoolean(reader);
+                case "lastCrateGiven" -> player.lastCrateGiven = readInt(reader);
+                case "lastSeenCampaign" -> player.lastSeenCampaign = readLong(reader);
+                case "resetWarning" -> player.resetWarning = readBoolean(reader);
+                case "inventorySortType" -> player.inventorySortType = readEnum(reader, InventorySortType.class);
+                case "hiddenLegacy" -> player.hiddenLegacy = readBoolean(reader);
+                case "newPlayerNotice" -> player.newPlayerNotice = readBoolean(reader);
+                case "petSlots" -> player.petSlots = readLong(reader);
+                case "petChoice" -> player.petChoice = readEnum(reader, PetChoice.class);
+                case "pet" -> player.pet = readObject(reader, HousePet.class, context);
+                case "badges" -> player.setBadges(readCollection(reader, ArrayList::new, enumReader(Badge.class)));
+                case "profileComponents" -> player.profileComponents = readCollection(reader, LinkedList::new, enumReader(ProfileComponent.class));
+                case "inventory" -> player.setInventory(readMap(reader, EntityCodec::readInt));
+                default -> {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
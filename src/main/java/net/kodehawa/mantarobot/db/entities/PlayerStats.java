@@ -17,21 +17,35 @@
 
 package net.kodehawa.mantarobot.db.entities;
 
+import com.mongodb.client.model.Indexes;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.IndexDefinition;
 import net.kodehawa.mantarobot.db.ManagedMongoObject;
+import net.kodehawa.mantarobot.db.codecs.EntityCodec;
+import org.bson.BsonReader;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 
 import javax.annotation.Nonnull;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @SuppressWarnings("unused")
 public class PlayerStats implements ManagedMongoObject {
     @BsonIgnore
     public static final String DB_TABLE = "playerstats";
+    // The leaderboards sort on these, see LeaderboardCmd.
+    @BsonIgnore
+    public static final List<IndexDefinition> INDEXES = List.of(
+            IndexDefinition.of(DB_TABLE, Indexes.descending("gambleWins"), "gamble leaderboard"),
+            IndexDefinition.of(DB_TABLE, Indexes.descending("slotsWins"), "slots leaderboard")
+    );
     @BsonIgnore
     public Map<String, Object> fieldTracker = new HashMap<>();
 
@@ -267,4 +281,42 @@ public class PlayerStats implements ManagedMongoObject {
     public void delete() {
         MantaroData.db().deleteMongo(this, PlayerStats.class);
     }
+
+    /**
+     * Hand-written decoder, see {@link EntityCodec}.
+     */
+    public static class BsonCodec extends EntityCodec<PlayerStats> {
+        public BsonCodec(Codec<PlayerStats> pojoCodec, CodecRegistry registry) {
+            super(PlayerStats.class, pojoCodec, registry);
+        }
+
+        @Override
+        protected PlayerStats newInstance() {
+            return new PlayerStats();
+        }
+
+        @Override
+        protected boolean decodeField(PlayerStats stats, String name, BsonReader reader, DecoderContext context) {
+            switch (name) {
+                case "_id" -> stats.id = readString(reader);
+                case "gambleWins" -> stats.gambleWins = readLong(reader);
+                case "slotsWins" -> stats.slotsWins = readLong(reader);
+                case "gambleWinAmount" -> stats.gambleWinAmount = readLong(reader);
+                case "slotsWinAmount" -> stats.slotsWinAmount = readLong(reader);
+                case "craftedItems" -> stats.craftedItems = readLong(reader);
+                case "repairedItems" -> stats.repairedItems = readLong(reader);
+                case "salvagedItems" -> stats.salvagedItems = readLong(reader);
+                case "toolsBroken" -> stats.toolsBroken = readLong(reader);
+                case "looted" -> stats.looted = readLong(reader);
+                case "mined" -> stats.mined = readLong(reader);
+                case "gambleLose" -> stats.gambleLose = readLong(reader);
+                case "slotsLose" -> stats.slotsLose = readLong(reader);
+                default -> {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
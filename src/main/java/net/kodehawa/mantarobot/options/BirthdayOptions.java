@@ -256,7 +256,6 @@ public class BirthdayOptions extends OptionHandler {
                     return;
 
                 dbGuild.addBirthdayBlockedId(member.getId());
-                dbGuild.updateAllChanged();
                 ctx.sendLocalized("options.birthdayblacklist.add.success", EmoteReference.CORRECT, member.getEffectiveName(), member.getId());
             });
         });
@@ -276,8 +275,7 @@ public class BirthdayOptions extends OptionHandler {
                 if (member == null)
                     return;
 
-                dbGuild.addBirthdayBlockedId(member.getId());
-                dbGuild.updateAllChanged();
+                dbGuild.removeBirthdayBlockedId(member.getId());
                 ctx.sendLocalized("options.birthdayblacklist.remove.success", EmoteReference.CORRECT, member.getEffectiveName(), member.getId());
             });
         });
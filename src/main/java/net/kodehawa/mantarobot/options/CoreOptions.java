@@ -93,7 +93,6 @@ public class CoreOptions extends OptionHandler {
             var gameTimeoutExpectedAt = temp.getGameTimeoutExpectedAt();
             var cases = temp.getCases();
             var ranPolls = temp.getRanPolls();
-            var allowedBirthdays = temp.getAllowedBirthdays();
             var notified = temp.isNotifiedFromBirthdayChange();
             var greetReceived = temp.hasReceivedGreet();
 
@@ -104,7 +103,6 @@ public class CoreOptions extends OptionHandler {
             newDbGuild.ranPolls(ranPolls);
             newDbGuild.cases(cases);
             newDbGuild.premiumKey(premiumKey);
-            newDbGuild.getAllowedBirthdays().addAll(allowedBirthdays);
             newDbGuild.notifiedFromBirthdayChange(notified);
             newDbGuild.receivedGreet(greetReceived);
 
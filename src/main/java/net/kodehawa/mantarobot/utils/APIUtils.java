@@ -32,10 +32,17 @@ import org.json.JSONTokener;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class APIUtils {
     private static final Config config = MantaroData.config().get();
-    private static final OkHttpClient httpClient = new OkHttpClient();
+    // These run on command threads and the premium worker: don't let a slow API hold them.
+    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
+            .connectTimeout(2, TimeUnit.SECONDS)
+            .readTimeout(5, TimeUnit.SECONDS)
+            // The whole call, including retries and redirects.
+            .callTimeout(10, TimeUnit.SECONDS)
+            .build();
     private static final ObjectMapper mapper = new ObjectMapper();
 
     @Nullable
@@ -91,5 +91,50 @@ public class Metrics {
             .help("HTTP Requests per-route (to discord)")
             .labelNames("route")
             .register();
+    public static final Counter ENTITY_CACHE = Counter.build()
+            .name("entity_cache")
+            .help("Database entity cache events (hit/miss/evict) per table")
+            .labelNames("table", "type")
+            .register();
+    public static final Gauge DB_WRITE_QUEUE_DEPTH = Gauge.build()
+            .name("db_write_queue_depth")
+            .help("Documents waiting on the database write-behind queue")
+            .register();
+    public static final Histogram DB_WRITE_FLUSH_LATENCY = Histogram.build()
+            .name("db_write_flush_latency")
+            .help("Time it takes to flush the database write-behind queue, in seconds")
+            .register();
+    public static final Histogram DB_OPERATION_LATENCY = Histogram.build()
+            .name("db_operation_latency")
+            .help("Time each database operation takes, per table and operation, in seconds")
+            .labelNames("table", "operation")
+            .buckets(0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5)
+            .register();
+    public static final Histogram COMMAND_DB_CALLS = Histogram.build()
+            .name("command_db_calls")
+            .help("Database reads and writes issued by each command run")
+            .labelNames("command", "type")
+            .buckets(0, 1, 2, 3, 4, 5, 6, 8, 10, 15, 20, 30)
+            .register();
+    public static final Gauge DB_POOL_IN_USE = Gauge.build()
+            .name("db_pool_in_use")
+            .help("Database connections checked out of each connection pool")
+            .labelNames("pool")
+            .register();
+    public static final Counter DB_POOL_CHECKOUT_FAILURES = Counter.build()
+            .name("db_pool_checkout_failures")
+            .help("Times a database connection couldn't be checked out of each pool, per reason")
+            .labelNames("pool", "reason")
+            .register();
+    public static final Counter EXISTENCE_FILTER = Counter.build()
+            .name("existence_filter")
+            .help("Database existence filter lookups per table (absent: skipped the database, maybe: had to ask, unsure: not seen, but we might have missed a write)")
+            .labelNames("table", "result")
+            .register();
+    public static final Counter COMMAND_EXECUTOR = Counter.build()
+            .name("command_executor_dropped")
+            .help("Tasks the command executor didn't run, per lane (rejected: no room on the queue, expired: waited past its deadline)")
+            .labelNames("lane", "reason")
+            .register();
 
 }
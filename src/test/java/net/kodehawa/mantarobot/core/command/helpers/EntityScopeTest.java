@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core.command.helpers;
+
+import com.mongodb.MongoClientSettings;
+import net.kodehawa.mantarobot.db.InMemoryManagedDatabase;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class EntityScopeTest {
+    private final EntityScope scope = new EntityScope(new InMemoryManagedDatabase(MongoClientSettings.getDefaultCodecRegistry(), null));
+
+    @Test
+    void sameEntityWhileTheCommandRuns() {
+        Assertions.assertSame(scope.getPlayerStats("1"), scope.getPlayerStats("1"));
+    }
+
+    @Test
+    void loadsAgainOnceTheCommandReturned() {
+        var during = scope.getPlayerStats("1");
+        scope.close();
+
+        var after = scope.getPlayerStats("1");
+        Assertions.assertNotSame(during, after);
+        Assertions.assertNotSame(after, scope.getPlayerStats("1"), "Nothing should be remembered after the command returned");
+    }
+
+    @Test
+    void seedingAfterTheCommandReturnedDoesNothing() {
+        scope.close();
+        var stats = scope.getPlayerStats("1");
+        scope.seed(stats);
+
+        Assertions.assertNotSame(stats, scope.getPlayerStats("1"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import net.kodehawa.mantarobot.db.entities.MantaroObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+class BlacklistSnapshotTest {
+    @Test
+    void findsWhatsBlacklisted() {
+        var snapshot = BlacklistSnapshot.of(new MantaroObject(List.of("155035543138680833"), List.of("213466096718708737", " 267207628965281792 ")), 3);
+
+        Assertions.assertEquals(3, snapshot.getVersion());
+        Assertions.assertTrue(snapshot.isGuildBlacklisted("155035543138680833"));
+        Assertions.assertTrue(snapshot.isGuildBlacklisted(155035543138680833L));
+        Assertions.assertTrue(snapshot.isUserBlacklisted("213466096718708737"));
+        Assertions.assertTrue(snapshot.isUserBlacklisted(267207628965281792L));
+
+        Assertions.assertFalse(snapshot.isGuildBlacklisted("213466096718708737"));
+        Assertions.assertFalse(snapshot.isUserBlacklisted(155035543138680833L));
+    }
+
+    @Test
+    void skipsWhatIsntAnId() {
+        var snapshot = BlacklistSnapshot.of(new MantaroObject(List.of("", "not an id", "0"), null), 0);
+
+        Assertions.assertEquals(0, snapshot.guildCount());
+        Assertions.assertEquals(0, snapshot.userCount());
+        Assertions.assertFalse(snapshot.isGuildBlacklisted("not an id"));
+        Assertions.assertFalse(snapshot.isGuildBlacklisted(0));
+    }
+
+    @Test
+    void countsDuplicatesOnce() {
+        var snapshot = BlacklistSnapshot.of(new MantaroObject(List.of(), List.of("213466096718708737", "213466096718708737")), 0);
+
+        Assertions.assertEquals(1, snapshot.userCount());
+    }
+
+    @Test
+    void handlesManyCloseIds() {
+        // Snowflakes made around the same time only differ on their low bits, which is the worst case for the set.
+        var base = 213466096718708737L;
+        List<String> ids = new ArrayList<>();
+        LongStream.range(0, 5000).forEach(i -> ids.add(String.valueOf(base + (i << 12))));
+        var snapshot = BlacklistSnapshot.of(new MantaroObject(List.of(), ids), 0);
+
+        Assertions.assertEquals(5000, snapshot.userCount());
+        ids.forEach(id -> Assertions.assertTrue(snapshot.isUserBlacklisted(id)));
+
+        var random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            var id = random.nextLong() & Long.MAX_VALUE;
+            Assertions.assertEquals(ids.contains(String.valueOf(id)), snapshot.isUserBlacklisted(id));
+        }
+    }
+}
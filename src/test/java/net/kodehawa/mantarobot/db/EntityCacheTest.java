@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.model.Updates;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class EntityCacheTest {
+    private final EntityCache<PlayerStats> cache = new EntityCache<>(PlayerStats.DB_TABLE, EntityCodecTest.CODECS.get(PlayerStats.class), 100, 60);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void everyReadGetsItsOwnCopy() {
+        var first = get("1");
+        first.setGambleLose(50);
+        var second = get("1");
+
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(0, second.getGambleLose(), "A change nobody wrote shouldn't be seen by anyone else");
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void writesGetApplied() {
+        var stats = get("1");
+        cache.written(stats, List.of(Updates.set("gambleLose", 5L), Updates.inc("looted", 2L)), EntityCodecTest.CODECS);
+
+        var read = get("1");
+        Assertions.assertEquals(5, read.getGambleLose());
+        Assertions.assertEquals(2, read.getLooted());
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void replacesKeepTheWrittenEntity() {
+        var stats = get("1");
+        stats.setSlotsLose(7);
+        cache.replaced(stats);
+
+        Assertions.assertEquals(7, get("1").getSlotsLose());
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void writesItCantApplyInvalidate() {
+        var stats = get("1");
+        cache.written(stats, List.of(Updates.push("history", "entry")), EntityCodecTest.CODECS);
+        get("1");
+        cache.written(stats);
+        get("1");
+
+        Assertions.assertEquals(3, loads.get());
+    }
+
+    @Test
+    void projectionsInvalidateOnWrites() {
+        var projections = new EntityCache<>(PlayerStats.DB_TABLE, "stats_projection", EntityCodecTest.CODECS.get(PlayerStats.class), true, 100, 60);
+        var stats = projections.get("1", this::load);
+        projections.written(stats, List.of(Updates.set("gambleLose", 5L)), EntityCodecTest.CODECS);
+
+        Assertions.assertNull(projections.getIfPresent("1"));
+    }
+
+    @Test
+    void onlyWritesToTheSameIdKeepALoadOut() {
+        var other = get("2");
+        cache.get("1", id -> {
+            cache.written(other);
+            return load(id);
+        });
+        Assertions.assertNotNull(cache.getIfPresent("1"), "A write to another document doesn't make this load stale");
+
+        cache.get("3", id -> {
+            cache.invalidate(id);
+            return load(id);
+        });
+        Assertions.assertNull(cache.getIfPresent("3"), "This load raced with a write to it, so it might be stale");
+    }
+
+    @Test
+    void missingEntitiesArentCached() {
+        Assertions.assertNull(cache.get("1", id -> null));
+        Assertions.assertNull(cache.getIfPresent("1"));
+    }
+
+    @Test
+    void budgetCountsEncodedBytes() {
+        var budgeted = EntityCache.withBudget(PlayerStats.DB_TABLE, EntityCodecTest.CODECS.get(PlayerStats.class), 1, 60);
+        budgeted.get("1", this::load);
+
+        // Any document is bigger than a byte.
+        Assertions.assertEquals(0, budgeted.size());
+    }
+
+    private PlayerStats get(String id) {
+        return cache.get(id, this::load);
+    }
+
+    private PlayerStats load(String id) {
+        loads.incrementAndGet();
+        return PlayerStats.of(id);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.MongoClientSettings;
+import net.kodehawa.mantarobot.db.codecs.EntityCodecProvider;
+import net.kodehawa.mantarobot.db.codecs.MapCodecProvider;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.Conventions;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+// The hand-written codecs have to read back exactly what the POJO codecs do, see EntityCodec.
+class EntityCodecTest {
+    // Same as MantaroData's.
+    static final CodecProvider POJO_CODECS = PojoCodecProvider.builder()
+            .automatic(true)
+            .register(new MapCodecProvider())
+            .conventions(List.of(Conventions.CLASS_AND_PROPERTY_CONVENTION, Conventions.ANNOTATION_CONVENTION, Conventions.OBJECT_ID_GENERATORS, Conventions.SET_PRIVATE_FIELDS_CONVENTION))
+            .build();
+    static final CodecRegistry CODECS = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(new EntityCodecProvider(POJO_CODECS), POJO_CODECS)
+    );
+    private static final CodecRegistry POJO_ONLY = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(POJO_CODECS)
+    );
+
+    @Test
+    void playerStatsReadBackTheSame() {
+        assertSameAsPojo(PlayerStats.class, """
+                {"_id": "1", "gambleWins": 3, "slotsWins": {"$numberLong": "4"}, "gambleWinAmount": 500, "slotsWinAmount": 600,
+                 "craftedItems": 7, "repairedItems": 8, "salvagedItems": 9, "toolsBroken": 10, "looted": 11, "mined": 12,
+                 "gambleLose": 13, "slotsLose": 14}
+                """);
+    }
+
+    @Test
+    void usersReadBackTheSame() {
+        assertSameAsPojo(MongoUser.class, """
+                {"_id": "1", "premiumUntil": {"$numberLong": "1700000000000"}, "birthday": "01-02-2000", "receivedFirstKey": true,
+                 "remindedTimes": 2, "timezone": "UTC", "lang": "es_CL", "dustLevel": 40, "keysClaimed": {"2": "key"},
+                 "marriageId": "m1", "waifus": {"3": {"$numberLong": "1500"}}, "waifuSlots": 5, "timesClaimed": 1,
+                 "reminders": ["r1", "r2"], "privateTag": true, "autoEquip": true, "actionsDisabled": false}
+                """);
+    }
+
+    @Test
+    void playersReadBackTheSame() {
+        assertSameAsPojo(Player.class, """
+                {"_id": "1", "level": 3, "reputation": 4, "oldMoney": 100, "newMoney": {"$numberLong": "200"},
+                 "showBadge": true, "waifuCachedValue": 5, "timesMopped": 6, "petSlots": 2, "inventory": {},
+                 "badges": [], "version": 7}
+                """);
+    }
+
+    @Test
+    void skipsUnknownFieldsAndNulls() {
+        var stats = decode(CODECS.get(PlayerStats.class), BsonDocument.parse("""
+                {"_id": "1", "somethingNew": {"nested": [1, 2]}, "gambleWins": null, "mined": 2}
+                """));
+
+        Assertions.assertEquals("1", stats.getId());
+        Assertions.assertEquals(0, stats.getGambleWins());
+        Assertions.assertEquals(2, stats.getMined());
+    }
+
+    private static <T> void assertSameAsPojo(Class<T> clazz, String json) {
+        var document = BsonDocument.parse(json);
+        var codec = CODECS.get(clazz);
+        var pojo = POJO_ONLY.get(clazz);
+
+        // Both get encoded the same way (EntityCodec encodes through the POJO codec), so whatever differs was read differently.
+        Assertions.assertEquals(encode(pojo, decode(pojo, document)), encode(codec, decode(codec, document)));
+    }
+
+    private static <T> T decode(Codec<T> codec, BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static <T> BsonDocument encode(Codec<T> codec, T entity) {
+        var document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), entity, EncoderContext.builder().build());
+        return document;
+    }
+}
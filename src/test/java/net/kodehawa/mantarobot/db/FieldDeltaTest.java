@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class FieldDeltaTest {
+    @Test
+    void trackAddsUp() {
+        Map<String, Object> tracker = new HashMap<>();
+        FieldDelta.track(tracker, "money", 50, false);
+        FieldDelta.track(tracker, "money", -20, false);
+
+        Assertions.assertEquals(new FieldDelta(30, false), tracker.get("money"));
+    }
+
+    @Test
+    void changesThatCancelOutAreDropped() {
+        Map<String, Object> tracker = new HashMap<>();
+        FieldDelta.track(tracker, "inventory.diamond", 3, false);
+        FieldDelta.track(tracker, "inventory.diamond", -3, false);
+
+        Assertions.assertFalse(tracker.containsKey("inventory.diamond"));
+    }
+
+    @Test
+    void onlyTakingNeedsAnything() {
+        Assertions.assertEquals(20, new FieldDelta(-20, false).required());
+        Assertions.assertEquals(0, new FieldDelta(20, false).required());
+    }
+
+    @Test
+    void deltasBecomeIncrements() {
+        Map<String, Object> tracker = new LinkedHashMap<>();
+        tracker.put("level", 2L);
+        FieldDelta.track(tracker, "money", -20, false);
+        FieldDelta.track(tracker, "inventory.diamond", -1, true);
+
+        var updates = FieldUpdates.of(tracker);
+        Assertions.assertEquals(bson(Updates.set("level", 2L)), bson(updates.get("level")));
+        Assertions.assertEquals(bson(Updates.inc("money", -20L)), bson(updates.get("money")));
+        // Not an $unset: that would remove whatever someone else added in between.
+        Assertions.assertEquals(bson(Updates.inc("inventory.diamond", -1L)), bson(updates.get("inventory.diamond")));
+        Assertions.assertEquals(List.of("inventory.diamond"), FieldUpdates.emptied(tracker));
+
+        Assertions.assertTrue(FieldUpdates.hasGuards(tracker));
+        Assertions.assertEquals(Map.of("money", 20L, "inventory.diamond", 1L), FieldUpdates.guards(tracker));
+        Assertions.assertFalse(FieldUpdates.hasGuards(Map.of("level", 2L, "money", new FieldDelta(5, false))));
+    }
+
+    @Test
+    void spendingMoreThanThereIsWritesNothing() {
+        var database = TestDocument.database();
+        var document = new TestDocument("broke");
+        database.updateFieldValue(document, "money", 10L);
+
+        FieldDelta.track(document.fieldTracker, "money", -20, false);
+        document.fieldTracker.put("level", 2L);
+        var error = Assertions.assertThrows(InsufficientAmountException.class, () -> database.updateFieldValues(document, document.fieldTracker));
+
+        Assertions.assertEquals(Map.of("money", 20L), error.getRequired());
+        var stored = database.find(TestDocument.TABLE, "broke", BsonDocument.class);
+        Assertions.assertEquals(10L, stored.getInt64("money").getValue());
+        Assertions.assertFalse(stored.containsKey("level"));
+        // Still tracked, so nothing is lost if it gets tried again.
+        Assertions.assertEquals(new FieldDelta(-20, false), document.fieldTracker.get("money"));
+    }
+
+    @Test
+    void emptiedFieldsAreRemoved() {
+        var database = TestDocument.database();
+        var document = new TestDocument("empty");
+        database.updateFieldValue(document, "inventory.diamond", 1L);
+
+        FieldDelta.track(document.fieldTracker, "inventory.diamond", -1, true);
+        database.updateFieldValues(document, document.fieldTracker);
+
+        var stored = database.find(TestDocument.TABLE, "empty", BsonDocument.class);
+        Assertions.assertFalse(stored.getDocument("inventory").containsKey("diamond"));
+    }
+
+    @Test
+    void emptyingKeepsWhatWasAddedMeanwhile() {
+        var database = TestDocument.database();
+        var document = new TestDocument("busy");
+        database.updateFieldValue(document, "inventory.diamond", 1L);
+
+        // Uses up the only diamond it saw...
+        FieldDelta.track(document.fieldTracker, "inventory.diamond", -1, true);
+        // ...while another command gives two more, and gets written first.
+        var other = new TestDocument("busy");
+        FieldDelta.track(other.fieldTracker, "inventory.diamond", 2, false);
+        database.updateFieldValues(other, other.fieldTracker);
+
+        database.updateFieldValues(document, document.fieldTracker);
+        var stored = database.find(TestDocument.TABLE, "busy", BsonDocument.class);
+        Assertions.assertEquals(2L, stored.getDocument("inventory").getInt64("diamond").getValue());
+    }
+
+    @Test
+    void spendingIsNotDeferred() {
+        var database = TestDocument.database();
+        var document = new TestDocument("spend");
+        database.updateFieldValue(document, "money", 10L);
+
+        Map<String, Object> other = new HashMap<>();
+        other.put("level", 2L);
+        try (var ignored = UnitOfWork.begin(database)) {
+            database.updateFieldValues(document, other);
+            Assertions.assertFalse(other.isEmpty(), "Nothing taken, so it waits for the commit");
+
+            FieldDelta.track(document.fieldTracker, "money", -5, false);
+            database.updateFieldValues(document, document.fieldTracker);
+            // Written right away, along with what was pending for the document.
+            Assertions.assertTrue(document.fieldTracker.isEmpty());
+            Assertions.assertTrue(other.isEmpty());
+        }
+
+        var stored = database.find(TestDocument.TABLE, "spend", BsonDocument.class);
+        Assertions.assertEquals(5L, stored.getInt64("money").getValue());
+        Assertions.assertEquals(2L, stored.getInt64("level").getValue());
+    }
+
+    @Test
+    void failedSpendReachesTheCommand() {
+        var database = TestDocument.database();
+        var document = new TestDocument("late");
+        database.updateFieldValue(document, "money", 10L);
+
+        try (var ignored = UnitOfWork.begin(database)) {
+            FieldDelta.track(document.fieldTracker, "money", -20, false);
+            // Not on commit, after the command already told the user it worked.
+            Assertions.assertThrows(InsufficientAmountException.class, () -> database.updateFieldValues(document, document.fieldTracker));
+            document.fieldTracker.clear();
+        }
+
+        var stored = database.find(TestDocument.TABLE, "late", BsonDocument.class);
+        Assertions.assertEquals(10L, stored.getInt64("money").getValue());
+    }
+
+    private static BsonDocument bson(Bson update) {
+        return update.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Needs a real server to plan queries on, so this only runs when MANTARO_TEST_MONGO_URI is set.
+class IndexManagerTest {
+    private static final String TABLE = "index_manager_test";
+    private static MongoClient client;
+    private static MongoDatabase database;
+
+    @BeforeAll
+    static void connect() {
+        var uri = System.getenv("MANTARO_TEST_MONGO_URI");
+        Assumptions.assumeTrue(uri != null && !uri.isBlank(), "No MongoDB to test against");
+
+        client = MongoClients.create(uri);
+        database = client.getDatabase("mantaro_test");
+        database.getCollection(TABLE).drop();
+
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(new Document("_id", String.valueOf(i)).append("money", i).append("reputation", i));
+        }
+
+        database.getCollection(TABLE).insertMany(documents);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (client != null) {
+            database.drop();
+            client.close();
+        }
+    }
+
+    @Test
+    void declaredIndexesAvoidCollectionScans() {
+        var manager = new IndexManager(() -> database)
+                .register(IndexDefinition.of(TABLE, Indexes.descending("money"), "test leaderboard"));
+        manager.ensureIndexes();
+
+        Assertions.assertFalse(manager.isCollectionScan(TABLE, Filters.gt("money", 10), Sorts.descending("money")));
+        Assertions.assertTrue(manager.isCollectionScan(TABLE, Filters.gt("reputation", 10), Sorts.descending("reputation")));
+        Assertions.assertTrue(manager.report().stream().noneMatch(line -> line.startsWith("Missing index")));
+    }
+
+    @Test
+    void reportsMissingIndexes() {
+        var manager = new IndexManager(() -> database)
+                .register(IndexDefinition.of(TABLE, Indexes.descending("reputation"), "test reputation"));
+
+        Assertions.assertTrue(manager.report().stream().anyMatch(line -> line.startsWith("Missing index")));
+    }
+}
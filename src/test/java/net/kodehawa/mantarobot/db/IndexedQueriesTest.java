@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+import net.kodehawa.mantarobot.db.entities.MongoUser;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks the queries MongoManagedDatabase runs against the indexes we declare for them, so dropping or changing one shows up here.
+// Needs a real server to plan queries on, so this only runs when MANTARO_TEST_MONGO_URI is set (see CONTRIBUTING.md).
+// Player leaderboards aren't here: loading Player needs a config.json.
+class IndexedQueriesTest {
+    private static MongoClient client;
+    private static MongoDatabase database;
+    private static IndexManager manager;
+
+    @BeforeAll
+    static void connect() {
+        var uri = System.getenv("MANTARO_TEST_MONGO_URI");
+        Assumptions.assumeTrue(uri != null && !uri.isBlank(), "No MongoDB to test against");
+
+        client = MongoClients.create(uri);
+        database = client.getDatabase("mantaro_index_test");
+        database.drop();
+
+        List<Document> users = new ArrayList<>();
+        List<Document> stats = new ArrayList<>();
+        List<Document> birthdays = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            var id = String.valueOf(i);
+            // Only some users have a birthday, like on the real collection.
+            users.add(new Document("_id", id).append("timesClaimed", i).append("birthday", i % 10 == 0 ? "01-01-2000" : null));
+            stats.add(new Document("_id", id).append("gambleWins", i).append("slotsWins", i));
+            birthdays.add(new Document("_id", "1:" + id).append("guildId", "1").append("userId", id).append("allowed", true));
+        }
+
+        database.getCollection(MongoUser.DB_TABLE).insertMany(users);
+        database.getCollection(PlayerStats.DB_TABLE).insertMany(stats);
+        database.getCollection(ManagedDatabase.GUILD_BIRTHDAYS_TABLE).insertMany(birthdays);
+
+        manager = new IndexManager(() -> database)
+                .register(MongoUser.INDEXES)
+                .register(PlayerStats.INDEXES)
+                .register(MongoManagedDatabase.GUILD_BIRTHDAYS_INDEXES);
+        manager.ensureIndexes();
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (client != null) {
+            database.drop();
+            client.close();
+        }
+    }
+
+    @Test
+    void leaderboardsUseTheirIndexes() {
+        // Same sort as getLeaderboard, which has no filter.
+        for (var field : List.of("gambleWins", "slotsWins")) {
+            Assertions.assertFalse(manager.isCollectionScan(PlayerStats.DB_TABLE, new Document(), Sorts.descending(field)), field);
+        }
+
+        Assertions.assertFalse(manager.isCollectionScan(MongoUser.DB_TABLE, new Document(), Sorts.descending("timesClaimed")));
+    }
+
+    @Test
+    void birthdayQueriesUseTheirIndexes() {
+        // The partial index only gets picked if the filter implies its partialFilterExpression.
+        Assertions.assertFalse(manager.isCollectionScan(MongoUser.DB_TABLE, MongoManagedDatabase.HAS_BIRTHDAY, null));
+        Assertions.assertFalse(manager.isCollectionScan(ManagedDatabase.GUILD_BIRTHDAYS_TABLE,
+                MongoManagedDatabase.birthdayFlagged("1", "allowed"), null
+        ));
+    }
+
+    @Test
+    void allDeclaredIndexesExist() {
+        Assertions.assertTrue(manager.report().stream().noneMatch(line -> line.startsWith("Missing index")));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.MongoClientSettings;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// A bare document to write through the database API, without the config and database lookups real entities do.
+class TestDocument implements ManagedMongoObject {
+    static final String TABLE = "test";
+
+    final Map<String, Object> fieldTracker = Collections.synchronizedMap(new HashMap<>());
+    private final String id;
+
+    TestDocument(String id) {
+        this.id = id;
+    }
+
+    static InMemoryManagedDatabase database() {
+        return new InMemoryManagedDatabase(MongoClientSettings.getDefaultCodecRegistry(), null);
+    }
+
+    @Nonnull
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Nonnull
+    @Override
+    public String getTableName() {
+        return TABLE;
+    }
+
+    @Override
+    public void insertOrReplace() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import net.kodehawa.mantarobot.utils.Pair;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TransferTest {
+    private static final String KEY = "inventory.diamond";
+
+    private final InMemoryManagedDatabase database = TestDocument.database();
+    private final TestDocument from = new TestDocument("from");
+    private final TestDocument to = new TestDocument("to");
+
+    @Test
+    void movesTheAmount() {
+        database.updateFieldValue(from, "money", 100L);
+
+        var result = database.transfer(from, "money", 30, to, "money", 27);
+
+        Assertions.assertEquals(Pair.of(70L, 27L), result);
+        Assertions.assertEquals(70L, stored(from, "money").asNumber().longValue());
+        Assertions.assertEquals(27L, stored(to, "money").asNumber().longValue());
+    }
+
+    @Test
+    void refusesWhenTheresNotEnough() {
+        database.updateFieldValue(from, "money", 10L);
+
+        Assertions.assertNull(database.transfer(from, "money", 30, to, "money", 30));
+        Assertions.assertEquals(10L, stored(from, "money").asNumber().longValue());
+        Assertions.assertNull(stored(to, "money"));
+    }
+
+    @Test
+    void refusesOverTheCreditLimit() {
+        database.updateFieldValue(from, KEY, 5);
+        database.updateFieldValue(to, KEY, 8);
+
+        Assertions.assertNull(database.transfer(from, KEY, 3, to, KEY, 3, 10, true));
+        // Nothing taken from the sender either.
+        Assertions.assertEquals(5, stored(from, KEY).asNumber().intValue());
+        Assertions.assertEquals(8, stored(to, KEY).asNumber().intValue());
+
+        Assertions.assertEquals(Pair.of(3L, 10L), database.transfer(from, KEY, 2, to, KEY, 2, 10, true));
+    }
+
+    @Test
+    void creditLimitAllowsAMissingField() {
+        database.updateFieldValue(from, KEY, 5);
+        database.updateFieldValue(to, "money", 0L);
+
+        Assertions.assertEquals(Pair.of(2L, 2L), database.transfer(from, KEY, 3, to, KEY, 2, 10, true));
+    }
+
+    @Test
+    void creditLimitAllowsANeverSavedReceiver() {
+        database.updateFieldValue(from, KEY, 5);
+
+        Assertions.assertEquals(Pair.of(2L, 3L), database.transfer(from, KEY, 3, to, KEY, 3, 10, true));
+        Assertions.assertEquals(3, stored(to, KEY).asNumber().intValue());
+    }
+
+    @Test
+    void unsetsWhatsLeftEmpty() {
+        database.updateFieldValue(from, KEY, 3);
+
+        Assertions.assertEquals(Pair.of(0L, 3L), database.transfer(from, KEY, 3, to, KEY, 3, 10, true));
+        Assertions.assertNull(stored(from, KEY), "An emptied item shouldn't be left around as 0");
+        Assertions.assertEquals(3, stored(to, KEY).asNumber().intValue());
+    }
+
+    @Test
+    void keepsEmptyFieldsIfAskedTo() {
+        database.updateFieldValue(from, "money", 30L);
+
+        Assertions.assertEquals(Pair.of(0L, 30L), database.transfer(from, "money", 30, to, "money", 30));
+        Assertions.assertEquals(0L, stored(from, "money").asNumber().longValue());
+    }
+
+    private BsonValue stored(TestDocument document, String key) {
+        var stored = database.find(TestDocument.TABLE, document.getId(), BsonDocument.class);
+        return stored == null ? null : BsonUpdates.get(stored, key);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class UnitOfWorkTest {
+    private final RecordingDatabase database = new RecordingDatabase();
+    private UnitOfWork work;
+
+    @AfterEach
+    void close() {
+        // Don't leave it open on the thread for the next test.
+        database.failing = false;
+        if (work != null) {
+            work.commit();
+        }
+    }
+
+    @Test
+    void mergesTrackersIntoOneWrite() {
+        var document = new TestDocument("merge");
+        Map<String, Object> other = new HashMap<>();
+        document.fieldTracker.put("money", 10L);
+        other.put("reputation", 2L);
+
+        work = UnitOfWork.begin(database);
+        database.updateFieldValues(document, document.fieldTracker);
+        database.updateFieldValues(document, other);
+        Assertions.assertTrue(database.writes.isEmpty(), "Nothing should be written before the commit");
+
+        work.commit();
+        Assertions.assertEquals(List.of(Map.of("money", 10L, "reputation", 2L)), database.writes);
+        Assertions.assertEquals(10L, stored("merge").getInt64("money").getValue());
+        Assertions.assertEquals(2L, stored("merge").getInt64("reputation").getValue());
+        Assertions.assertTrue(document.fieldTracker.isEmpty());
+        Assertions.assertTrue(other.isEmpty());
+    }
+
+    @Test
+    void parentKeyWinsOverItsChildren() {
+        var document = new TestDocument("parent");
+        Map<String, Object> pet = new HashMap<>();
+        document.fieldTracker.put("pet", Map.of("health", 10L));
+        pet.put("pet.health", 5L);
+
+        work = UnitOfWork.begin(database);
+        database.updateFieldValues(document, document.fieldTracker);
+        database.updateFieldValues(document, pet);
+        work.commit();
+
+        // MongoDB refuses to set a field and one of its sub-fields in the same update.
+        Assertions.assertEquals(List.of(Map.of("pet", Map.of("health", 10L))), database.writes);
+        Assertions.assertEquals(10L, stored("parent").getDocument("pet").getInt64("health").getValue());
+        Assertions.assertTrue(pet.isEmpty(), "The child tracker got written through its parent");
+    }
+
+    @Test
+    void flushWritesWhatsPending() {
+        var document = new TestDocument("flush");
+        document.fieldTracker.put("money", 10L);
+
+        work = UnitOfWork.begin(database);
+        database.updateFieldValues(document, document.fieldTracker);
+        UnitOfWork.flush(TestDocument.TABLE, "flush");
+
+        Assertions.assertEquals(10L, stored("flush").getInt64("money").getValue());
+    }
+
+    @Test
+    void asyncWritesGoAfterWhatsPending() {
+        var document = new TestDocument("async");
+        Map<String, Object> later = new HashMap<>();
+        document.fieldTracker.put("money", 10L);
+        later.put("money", 20L);
+
+        work = UnitOfWork.begin(database);
+        database.updateFieldValues(document, document.fieldTracker);
+        database.updateFieldValuesAsync(document, later).join();
+        Assertions.assertEquals(20L, stored("async").getInt64("money").getValue());
+
+        // Nothing left to land on commit and overwrite it.
+        work.commit();
+        Assertions.assertEquals(20L, stored("async").getInt64("money").getValue());
+        Assertions.assertEquals(List.of(Map.of("money", 10L)), database.writes);
+    }
+
+    @Test
+    void commitWritesEverythingBeforeFailing() {
+        var first = new TestDocument("first");
+        var second = new TestDocument("second");
+        var third = new TestDocument("third");
+        first.fieldTracker.put("money", 1L);
+        second.fieldTracker.put("money", 2L);
+        third.fieldTracker.put("money", 3L);
+
+        work = UnitOfWork.begin(database);
+        database.updateFieldValues(first, first.fieldTracker);
+        database.updateFieldValues(second, second.fieldTracker);
+        database.updateFieldValues(third, third.fieldTracker);
+        database.failing = true;
+
+        var error = Assertions.assertThrows(IllegalStateException.class, work::commit);
+        Assertions.assertEquals("first", error.getMessage());
+        Assertions.assertEquals(2, error.getSuppressed().length);
+        // Every document got its try, and whatever failed stays tracked.
+        Assertions.assertEquals(3, database.writes.size());
+        Assertions.assertEquals(Map.of("money", 1L), first.fieldTracker);
+    }
+
+    @Test
+    void closingCommits() {
+        var document = new TestDocument("close");
+        document.fieldTracker.put("money", 10L);
+
+        try (var ignored = UnitOfWork.begin(database)) {
+            database.updateFieldValues(document, document.fieldTracker);
+        }
+
+        Assertions.assertEquals(10L, stored("close").getInt64("money").getValue());
+    }
+
+    private BsonDocument stored(String id) {
+        return database.find(TestDocument.TABLE, id, BsonDocument.class);
+    }
+
+    // Keeps what actually got written (not deferred), and can fail those writes.
+    private static class RecordingDatabase extends InMemoryManagedDatabase {
+        private final List<Map<String, Object>> writes = new ArrayList<>();
+        private boolean failing;
+
+        RecordingDatabase() {
+            super(MongoClientSettings.getDefaultCodecRegistry(), null);
+        }
+
+        @Override
+        public void updateFieldValues(ManagedMongoObject object, Map<String, Object> map) {
+            if (failing) {
+                writes.add(new HashMap<>(map));
+                throw new IllegalStateException(object.getId());
+            }
+
+            var fields = new HashMap<>(map);
+            super.updateFieldValues(object, map);
+            // Deferred updates stay on the tracker until the commit.
+            if (!fields.isEmpty() && map.isEmpty()) {
+                writes.add(fields);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro. If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.mongodb.client.model.Updates;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class WriteBehindQueueTest {
+    @Test
+    void conflictsOnlyBetweenAFieldAndItsSubFields() {
+        Assertions.assertTrue(WriteBehindQueue.conflicts("pet", "pet.health"));
+        Assertions.assertTrue(WriteBehindQueue.conflicts("pet.stats.health", "pet"));
+        Assertions.assertFalse(WriteBehindQueue.conflicts("pet", "pet"));
+        Assertions.assertFalse(WriteBehindQueue.conflicts("pet", "petName"));
+        Assertions.assertFalse(WriteBehindQueue.conflicts("pet.health", "pet.hunger"));
+    }
+
+    @Test
+    void unrelatedKeysShareAGroup() {
+        List<Map<String, Bson>> groups = new ArrayList<>();
+        WriteBehindQueue.merge(groups, "money", Updates.set("money", 10L));
+        WriteBehindQueue.merge(groups, "reputation", Updates.set("reputation", 2L));
+
+        Assertions.assertEquals(1, groups.size());
+        Assertions.assertEquals(List.of("money", "reputation"), List.copyOf(groups.get(0).keySet()));
+    }
+
+    @Test
+    void sameKeyKeepsTheNewestUpdate() {
+        List<Map<String, Bson>> groups = new ArrayList<>();
+        var newest = Updates.set("money", 20L);
+        WriteBehindQueue.merge(groups, "money", Updates.set("money", 10L));
+        WriteBehindQueue.merge(groups, "money", newest);
+
+        Assertions.assertEquals(List.of(Map.of("money", newest)), groups);
+    }
+
+    @Test
+    void clashingKeysStartANewGroup() {
+        List<Map<String, Bson>> groups = new ArrayList<>();
+        var pet = Updates.set("pet", Map.of("health", 10L));
+        var health = Updates.set("pet.health", 5L);
+        var money = Updates.set("money", 10L);
+        WriteBehindQueue.merge(groups, "pet", pet);
+        WriteBehindQueue.merge(groups, "pet.health", health);
+        WriteBehindQueue.merge(groups, "money", money);
+
+        // Order matters: the sub-field was set after its parent, so it has to be written after it too.
+        Assertions.assertEquals(List.of(Map.of("pet", pet), Map.of("pet.health", health, "money", money)), groups);
+    }
+}